@@ -1,12 +1,47 @@
 package com.programming4phone.stellar.wallet.api;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.AsyncRestTemplate;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.programming4phone.stellar.wallet.api.dao.InstrumentedJedisConnectionFactory;
+import com.programming4phone.stellar.wallet.api.dao.RedisSubscriptionLostEvent;
+import com.programming4phone.stellar.wallet.api.ratelimit.RateLimitInterceptor;
+import com.programming4phone.stellar.wallet.api.rest.KeyApiMetrics;
+import com.programming4phone.stellar.wallet.api.rest.TimedJackson2HttpMessageConverter;
+
+import redis.clients.jedis.JedisPoolConfig;
 
 @SpringBootApplication
 public class Application {
@@ -25,15 +60,58 @@ public class Application {
 	 * When finished, enter these commands from a Windows commmand prompt.
 	 * <br><code>docker stop some-redis</code>
 	 * <br><code>docker rm some-redis</code>
-	 * @return RedisConnectionFactory
+	 * <br><br>
+	 * The Redis address and the connection pool can be sized per environment through the
+	 * <i>spring.redis.*</i> properties. When <i>spring.redis.cluster.nodes</i> is set, the factory connects to
+	 * a Redis Cluster instead, discovering the other nodes from the listed ones; the pool settings then apply
+	 * to every node.
+	 * @param host Redis host name
+	 * @param port Redis port
+	 * @param database Redis database index, ignored for a cluster
+	 * @param clusterNodes comma separated host:port list of Redis Cluster nodes, empty for a single Redis
+	 * @param maxRedirects maximum number of MOVED or ASK redirects followed by a cluster command
+	 * @param timeoutMillis connect and socket timeout
+	 * @param maxTotal maximum number of pooled connections
+	 * @param maxIdle maximum number of idle pooled connections
+	 * @param minIdle minimum number of idle pooled connections
+	 * @param maxWaitMillis time allowed to wait for a free pooled connection
+	 * @param testOnBorrow ping pooled connections before handing them out
+	 * @return InstrumentedJedisConnectionFactory
 	 */
 	@Bean
-	public RedisConnectionFactory redisCF() {
-		JedisConnectionFactory cf = new JedisConnectionFactory();
-		                                                                                                                                                 
-		cf.setHostName("127.0.0.1");
-		//cf.setHostName("10.0.75.1"); // ipconfig use Ip addr of DockerNAT
-		cf.setPort(6379);
+	public InstrumentedJedisConnectionFactory redisCF(
+			@Value("${spring.redis.host:127.0.0.1}") String host, // ipconfig use Ip addr of DockerNAT, e.g. 10.0.75.1
+			@Value("${spring.redis.port:6379}") int port,
+			@Value("${spring.redis.database:0}") int database,
+			@Value("${spring.redis.cluster.nodes:}") String clusterNodes,
+			@Value("${spring.redis.cluster.max-redirects:5}") int maxRedirects,
+			@Value("${spring.redis.timeout:2000}") int timeoutMillis,
+			@Value("${spring.redis.pool.max-active:32}") int maxTotal,
+			@Value("${spring.redis.pool.max-idle:32}") int maxIdle,
+			@Value("${spring.redis.pool.min-idle:4}") int minIdle,
+			@Value("${spring.redis.pool.max-wait:2000}") long maxWaitMillis,
+			@Value("${spring.redis.pool.test-on-borrow:false}") boolean testOnBorrow) {
+		JedisPoolConfig poolConfig = new JedisPoolConfig();
+		poolConfig.setMaxTotal(maxTotal);
+		poolConfig.setMaxIdle(maxIdle);
+		poolConfig.setMinIdle(minIdle);
+		poolConfig.setMaxWaitMillis(maxWaitMillis);
+		poolConfig.setTestOnBorrow(testOnBorrow);
+		
+		InstrumentedJedisConnectionFactory cf;
+		if (StringUtils.hasText(clusterNodes)) {
+			RedisClusterConfiguration clusterConfig = new RedisClusterConfiguration(
+					StringUtils.commaDelimitedListToSet(StringUtils.trimAllWhitespace(clusterNodes)));
+			clusterConfig.setMaxRedirects(maxRedirects);
+			cf = new InstrumentedJedisConnectionFactory(clusterConfig, poolConfig);
+		}
+		else {
+			cf = new InstrumentedJedisConnectionFactory(poolConfig);
+			cf.setHostName(host);
+			cf.setPort(port);
+			cf.setDatabase(database);
+		}
+		cf.setTimeout(timeoutMillis);
 		return cf;
 	}
 	
@@ -48,11 +126,249 @@ public class Application {
 	}
 	
 	/**
-	 * Create a RestTemplate.
+	 * Container for Redis pub/sub subscriptions, such as the near cache invalidation channel.
+	 * It only holds a Redis connection while at least one listener is subscribed, and publishes a
+	 * {@link RedisSubscriptionLostEvent} whenever the subscriptions fail, before trying to subscribe again.
+	 * @param cf RedisConnectionFactory
+	 * @param publisher ApplicationEventPublisher
+	 * @return RedisMessageListenerContainer
+	 */
+	@Bean
+	public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory cf, ApplicationEventPublisher publisher) {
+		RedisMessageListenerContainer container = new RedisMessageListenerContainer() {
+			@Override
+			protected void handleSubscriptionException(Throwable ex) {
+				publisher.publishEvent(new RedisSubscriptionLostEvent(this, ex));
+				super.handleSubscriptionException(ex);
+			}
+		};
+		container.setConnectionFactory(cf);
+		return container;
+	}
+	
+	/**
+	 * Connection pool shared by all outgoing HTTP requests (Google tokeninfo and signing keys).
+	 * Pooled connections are kept alive between requests, so the TLS handshake is only paid once per connection.
+	 * @param maxTotal maximum number of pooled connections
+	 * @param maxPerRoute maximum number of pooled connections to a single host
+	 * @param validateAfterInactivityMillis idle time after which a pooled connection is checked before reuse
+	 * @return PoolingHttpClientConnectionManager
+	 */
+	@Bean
+	public PoolingHttpClientConnectionManager httpConnectionManager(
+			@Value("${http.client.max-total:100}") int maxTotal,
+			@Value("${http.client.max-per-route:50}") int maxPerRoute,
+			@Value("${http.client.validate-after-inactivity-millis:2000}") int validateAfterInactivityMillis) {
+		PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+		cm.setMaxTotal(maxTotal);
+		cm.setDefaultMaxPerRoute(maxPerRoute);
+		cm.setValidateAfterInactivity(validateAfterInactivityMillis);
+		return cm;
+	}
+	
+	/**
+	 * Create a pooled HttpClient. Idle connections are evicted in the background, and every request is bounded
+	 * by the connect, read and pool acquire timeouts so that a slow remote server cannot pile up threads.
+	 * @param cm PoolingHttpClientConnectionManager
+	 * @param connectTimeoutMillis time allowed to establish a connection
+	 * @param readTimeoutMillis time allowed between two packets of the response
+	 * @param poolAcquireTimeoutMillis time allowed to wait for a free pooled connection
+	 * @param maxIdleSeconds idle time after which a pooled connection is closed
+	 * @param keepAliveSeconds upper bound for the keep-alive time announced by the server
+	 * @return CloseableHttpClient
+	 */
+	@Bean
+	public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager cm,
+			@Value("${http.client.connect-timeout-millis:2000}") int connectTimeoutMillis,
+			@Value("${http.client.read-timeout-millis:5000}") int readTimeoutMillis,
+			@Value("${http.client.pool-acquire-timeout-millis:1000}") int poolAcquireTimeoutMillis,
+			@Value("${http.client.max-idle-seconds:30}") long maxIdleSeconds,
+			@Value("${http.client.keep-alive-seconds:60}") long keepAliveSeconds) {
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMillis)
+				.setSocketTimeout(readTimeoutMillis)
+				.setConnectionRequestTimeout(poolAcquireTimeoutMillis)
+				.build();
+		return HttpClients.custom()
+				.setConnectionManager(cm)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy((response, context) -> {
+					long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+					return keepAlive > 0 ? Math.min(keepAlive, keepAliveSeconds * 1000) : keepAliveSeconds * 1000;
+				})
+				.evictExpiredConnections()
+				.evictIdleConnections(maxIdleSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+	
+	/**
+	 * Create a RestTemplate backed by the pooled HttpClient.
+	 * @param httpClient CloseableHttpClient
 	 * @return RestTemplate
 	 */
 	@Bean
-	public RestTemplate restTemplate() {
-		return new RestTemplate();
+	public RestTemplate restTemplate(CloseableHttpClient httpClient) {
+		return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+	}
+	
+	/**
+	 * Create a non-blocking HttpClient for the asynchronous web services. Responses are processed by a few
+	 * I/O dispatcher threads, so no thread waits for a remote server. The pool sizes and timeouts are shared with
+	 * the blocking HttpClient.
+	 * @param maxTotal maximum number of pooled connections
+	 * @param maxPerRoute maximum number of pooled connections to a single host
+	 * @param connectTimeoutMillis time allowed to establish a connection
+	 * @param readTimeoutMillis time allowed between two packets of the response
+	 * @param poolAcquireTimeoutMillis time allowed to wait for a free pooled connection
+	 * @return CloseableHttpAsyncClient
+	 */
+	@Bean
+	public CloseableHttpAsyncClient httpAsyncClient(
+			@Value("${http.client.max-total:100}") int maxTotal,
+			@Value("${http.client.max-per-route:50}") int maxPerRoute,
+			@Value("${http.client.connect-timeout-millis:2000}") int connectTimeoutMillis,
+			@Value("${http.client.read-timeout-millis:5000}") int readTimeoutMillis,
+			@Value("${http.client.pool-acquire-timeout-millis:1000}") int poolAcquireTimeoutMillis) {
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMillis)
+				.setSocketTimeout(readTimeoutMillis)
+				.setConnectionRequestTimeout(poolAcquireTimeoutMillis)
+				.build();
+		return HttpAsyncClients.custom()
+				.setMaxConnTotal(maxTotal)
+				.setMaxConnPerRoute(maxPerRoute)
+				.setDefaultRequestConfig(requestConfig)
+				.build();
+	}
+	
+	/**
+	 * Create an AsyncRestTemplate backed by the non-blocking HttpClient.
+	 * @param httpAsyncClient CloseableHttpAsyncClient
+	 * @return AsyncRestTemplate
+	 */
+	@Bean
+	public AsyncRestTemplate asyncRestTemplate(CloseableHttpAsyncClient httpAsyncClient) {
+		return new AsyncRestTemplate(new HttpComponentsAsyncClientHttpRequestFactory(httpAsyncClient));
+	}
+	
+	/**
+	 * Executor for the Redis commands issued by the asynchronous web services. Jedis connections are blocking,
+	 * so the commands run on a small dedicated pool, sized like the Redis connection pool, instead of on the
+	 * request threads. Redis answers in well under a millisecond, so a few threads serve many requests.
+	 * @param threads number of threads, should not exceed spring.redis.pool.max-active
+	 * @param queueCapacity number of commands that may wait for a thread before requests are rejected
+	 * @return ThreadPoolTaskExecutor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor redisExecutor(
+			@Value("${wallet.async.redis-threads:8}") int threads,
+			@Value("${wallet.async.queue-capacity:10000}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("redis-");
+		return executor;
+	}
+	
+	/**
+	 * Executor for the Redis reads that the GET web service starts while the token is still being verified.
+	 * A read that finds no free thread or queue slot is not started speculatively but after the verification.
+	 * @param threads number of threads, should not exceed spring.redis.pool.max-active
+	 * @param queueCapacity number of reads that may wait for a thread
+	 * @return ThreadPoolTaskExecutor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor speculativeReadExecutor(
+			@Value("${wallet.speculative-read.threads:8}") int threads,
+			@Value("${wallet.speculative-read.queue-capacity:100}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("speculative-read-");
+		return executor;
+	}
+	
+	/**
+	 * Bulkhead for the blocking calls to the Google tokeninfo endpoint: request threads hand the calls to this
+	 * bounded pool and wait for at most <i>token.verify.bulkhead.timeout-millis</i>, so that a slow tokeninfo ties
+	 * up these threads only, and requests are rejected with 503 (SERVICE_UNAVAILABLE) once all threads are busy
+	 * and the queue is full.
+	 * @param threads number of threads, should not exceed http.client.max-per-route
+	 * @param queueCapacity number of calls that may wait for a thread before requests are rejected
+	 * @return ThreadPoolTaskExecutor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor tokenVerifyExecutor(
+			@Value("${token.verify.bulkhead.threads:20}") int threads,
+			@Value("${token.verify.bulkhead.queue-capacity:20}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("token-verify-");
+		return executor;
+	}
+	
+	/**
+	 * JSON converter timing the serialization of the key web service requests and responses.
+	 * It replaces the converter Spring Boot would otherwise create with the same ObjectMapper.
+	 * @param objectMapper ObjectMapper
+	 * @param keyApiMetrics KeyApiMetrics
+	 * @return MappingJackson2HttpMessageConverter
+	 */
+	@Bean
+	public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper, KeyApiMetrics keyApiMetrics) {
+		return new TimedJackson2HttpMessageConverter(objectMapper, keyApiMetrics);
+	}
+	
+	/**
+	 * Count the client errors of the key web services, see {@link KeyApiMetrics}, and limit the rate of requests
+	 * per client address, see {@link RateLimitInterceptor}. The metrics come first, so that rejected requests
+	 * are counted as well.
+	 * @param keyApiMetrics KeyApiMetrics
+	 * @param rateLimitInterceptor RateLimitInterceptor
+	 * @return WebMvcConfigurerAdapter
+	 */
+	@Bean
+	public WebMvcConfigurerAdapter keyApiMetricsConfigurer(KeyApiMetrics keyApiMetrics, RateLimitInterceptor rateLimitInterceptor) {
+		return new WebMvcConfigurerAdapter() {
+			@Override
+			public void addInterceptors(InterceptorRegistry registry) {
+				registry.addInterceptor(keyApiMetrics).addPathPatterns("/wallet/**");
+				registry.addInterceptor(rateLimitInterceptor).addPathPatterns("/wallet/**");
+			}
+		};
+	}
+	
+	/**
+	 * Publish the utilization of the HTTP connection pool on the actuator metrics endpoint.
+	 * @param cm PoolingHttpClientConnectionManager
+	 * @return PublicMetrics
+	 */
+	@Bean
+	public PublicMetrics httpClientPoolMetrics(PoolingHttpClientConnectionManager cm) {
+		return () -> {
+			PoolStats stats = cm.getTotalStats();
+			return Arrays.<Metric<?>>asList(
+					new Metric<Integer>("httpclient.pool.leased", stats.getLeased()),
+					new Metric<Integer>("httpclient.pool.available", stats.getAvailable()),
+					new Metric<Integer>("httpclient.pool.pending", stats.getPending()),
+					new Metric<Integer>("httpclient.pool.max", stats.getMax()));
+		};
+	}
+	
+	/**
+	 * Publish the utilization of the token verification bulkhead on the actuator metrics endpoint.
+	 * @param tokenVerifyExecutor ThreadPoolTaskExecutor
+	 * @return PublicMetrics
+	 */
+	@Bean
+	public PublicMetrics tokenVerifyBulkheadMetrics(@Qualifier("tokenVerifyExecutor") ThreadPoolTaskExecutor tokenVerifyExecutor) {
+		return () -> Arrays.<Metric<?>>asList(
+				new Metric<Integer>("token.verify.bulkhead.active", tokenVerifyExecutor.getActiveCount()),
+				new Metric<Integer>("token.verify.bulkhead.queued", tokenVerifyExecutor.getThreadPoolExecutor().getQueue().size()),
+				new Metric<Integer>("token.verify.bulkhead.max", tokenVerifyExecutor.getMaxPoolSize()));
 	}
 }
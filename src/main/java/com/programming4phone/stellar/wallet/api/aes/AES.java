@@ -1,11 +1,16 @@
 package com.programming4phone.stellar.wallet.api.aes;
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.*;
 import java.util.*;
 
 import javax.crypto.*;
 import javax.crypto.spec.*;
+import javax.security.auth.Destroyable;
 
 /*
  * ----------------------------------------------------------------------------
@@ -27,7 +32,12 @@ import javax.crypto.spec.*;
  * <br/>
  * The public interface for this class consists of the static methods
  * {@link #encrypt} and {@link #decrypt}, which encrypt and decrypt arbitrary
- * streams of data, respectively.
+ * streams of data, respectively. Both also come in variants for byte arrays and
+ * for (heap or direct) byte buffers, which encrypt and decrypt without intermediate copies.
+ * <br/>
+ * Key derivation is deliberately slow. Tools processing many payloads under one password can
+ * encrypt them all with a single {@link DerivedKey}, and can opt in to a cache of derived keys
+ * with {@link #enableKeyCache} so that payloads sharing a salt are decrypted with one derivation.
  * 
  * See https://gist.github.com/dweymouth/11089238 for details.
  */
@@ -40,11 +50,16 @@ public class AES {
 	private static final String KEYGEN_SPEC = "PBKDF2WithHmacSHA1";
 	private static final int SALT_LENGTH = 16; // in bytes
 	private static final int AUTH_KEY_LENGTH = 8; // in bytes
+	private static final int IV_LENGTH = 16; // in bytes, regardless of key size
+	private static final int HEADER_LENGTH = 1 + SALT_LENGTH + AUTH_KEY_LENGTH + IV_LENGTH;
 	private static final int ITERATIONS = 32768;
 
 	// Process input/output streams in chunks - arbitrary
 	private static final int BUFFER_SIZE = 1024;
 
+	// Opt-in cache of derived keys, see enableKeyCache
+	private static volatile KeyCache keyCache;
+
 
 	/**
 	 * @return a new pseudorandom salt of the specified length
@@ -67,23 +82,114 @@ public class AES {
 	 *   the salt from which to derive the keys
 	 * @return a Keys object containing the two generated keys
 	 */
-	private static Keys keygen(int keyLength, char[] password, byte[] salt) {
+	static Keys keygen(int keyLength, char[] password, byte[] salt) {
 		SecretKeyFactory factory;
 		try {
 			factory = SecretKeyFactory.getInstance(KEYGEN_SPEC);
 		} catch (NoSuchAlgorithmException impossible) { return null; }
 		// derive a longer key, then split into AES key and authentication key
-		KeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, keyLength + AUTH_KEY_LENGTH * 8);
+		PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, keyLength + AUTH_KEY_LENGTH * 8);
 		SecretKey tmp = null;
 		try {
 			tmp = factory.generateSecret(spec);
 		} catch (InvalidKeySpecException impossible) { }
+		spec.clearPassword();
 		byte[] fullKey = tmp.getEncoded();
-		SecretKey authKey = new SecretKeySpec( // key for password authentication
-				Arrays.copyOfRange(fullKey, 0, AUTH_KEY_LENGTH), "AES");
-		SecretKey encKey = new SecretKeySpec( // key for AES encryption
-				Arrays.copyOfRange(fullKey, AUTH_KEY_LENGTH, fullKey.length), "AES");
-		return new Keys(encKey, authKey);
+		Keys keys = new Keys(
+				Arrays.copyOfRange(fullKey, AUTH_KEY_LENGTH, fullKey.length), // key for AES encryption
+				Arrays.copyOfRange(fullKey, 0, AUTH_KEY_LENGTH)); // key for password authentication
+		Arrays.fill(fullKey, (byte) 0);
+		return keys;
+	}
+
+	/**
+	 * Derive the keys for given key length, password and salt, or copy them from the key cache
+	 * if it is enabled. The caller owns the returned keys and should destroy them after use.
+	 */
+	private static Keys keys(int keyLength, char[] password, byte[] salt) {
+		KeyCache cache = keyCache;
+		if (cache == null) {
+			return keygen(keyLength, password, salt);
+		}
+		String id = cacheId(keyLength, password, salt);
+		Keys keys = cache.copy(id);
+		if (keys == null) {
+			keys = keygen(keyLength, password, salt);
+			cache.put(id, keys.copy());
+		}
+		return keys;
+	}
+
+	/**
+	 * @return a SHA-256 digest of key length, salt and password, so that passwords are never held by the cache
+	 */
+	private static String cacheId(int keyLength, char[] password, byte[] salt) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException impossible) { return null; }
+		digest.update((byte) (keyLength / 8));
+		digest.update(salt);
+		ByteBuffer passwordBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+		digest.update(passwordBytes.duplicate());
+		Arrays.fill(passwordBytes.array(), (byte) 0);
+		return Base64.getEncoder().encodeToString(digest.digest());
+	}
+
+	/**
+	 * Enable the cache of derived keys, keyed by a digest of password, salt and key length.
+	 * Only decryption of payloads that share a salt, e.g. payloads encrypted with one {@link DerivedKey},
+	 * benefits from the cache. Evicted keys are wiped.
+	 * @param maxSize
+	 *   maximum number of cached keys, least recently used keys are evicted first
+	 */
+	public static void enableKeyCache(int maxSize) {
+		KeyCache previous = keyCache;
+		keyCache = new KeyCache(maxSize);
+		if (previous != null) {
+			previous.clear();
+		}
+	}
+
+	/**
+	 * Disable the cache of derived keys and wipe all cached keys.
+	 */
+	public static void disableKeyCache() {
+		KeyCache previous = keyCache;
+		keyCache = null;
+		if (previous != null) {
+			previous.clear();
+		}
+	}
+
+	/**
+	 * @return the number of cached keys
+	 */
+	static int keyCacheSize() {
+		KeyCache cache = keyCache;
+		return cache == null ? 0 : cache.size();
+	}
+
+	/**
+	 * Derive keys once, to encrypt any number of payloads with {@link DerivedKey#encrypt}.
+	 * @param keyLength
+	 *   key length to use for AES encryption (must be 128, 192, or 256)
+	 * @param password
+	 *   password to use for encryption
+	 * @return a DerivedKey, to be closed when no longer needed
+	 * @throws AES.InvalidKeyLengthException
+	 *   if keyLength is not 128, 192, or 256
+	 */
+	public static DerivedKey deriveKey(int keyLength, char[] password) throws InvalidKeyLengthException {
+		checkKeyLength(keyLength);
+		byte[] salt = generateSalt(SALT_LENGTH);
+		return new DerivedKey(keyLength, salt, keygen(keyLength, password, salt));
+	}
+
+	private static void checkKeyLength(int keyLength) throws InvalidKeyLengthException {
+		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+			throw new InvalidKeyLengthException(keyLength);
+		}
 	}
 
 	/**
@@ -114,53 +220,133 @@ public class AES {
 	 */
 	public static void encrypt(int keyLength, char[] password, InputStream input, OutputStream output)
 			throws InvalidKeyLengthException, StrongEncryptionNotAvailableException, IOException {
-		// Check validity of key length
-		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
-			throw new InvalidKeyLengthException(keyLength);
-		}
+		checkKeyLength(keyLength);
 		
 		// generate salt and derive keys for authentication and encryption
 		byte[] salt = generateSalt(SALT_LENGTH);
 		Keys keys = keygen(keyLength, password, salt);
-		
-		// initialize AES encryption
+		try {
+			encrypt(keyLength, salt, keys, input, output);
+		} finally {
+			keys.destroy();
+		}
+	}
+
+	/**
+	 * Encrypts a stream of data with keys that have already been derived from the password and salt.
+	 */
+	private static void encrypt(int keyLength, byte[] salt, Keys keys, InputStream input, OutputStream output)
+			throws StrongEncryptionNotAvailableException, IOException {
+		// initialize AES encryption and write authentication and AES initialization data
+		Cipher encrypt = encryptCipher(keyLength, keys);
+		byte[] header = new byte[HEADER_LENGTH];
+		writeHeader(ByteBuffer.wrap(header), keyLength, salt, keys, encrypt);
+		output.write(header);
+
+		// read data from input into buffer, encrypt into a reused buffer and write to output
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] encrypted = new byte[BUFFER_SIZE + IV_LENGTH]; // room for a block buffered by the cipher
+		int numRead;
+		try {
+			while ((numRead = input.read(buffer)) > 0) {
+				output.write(encrypted, 0, encrypt.update(buffer, 0, numRead, encrypted));
+			}
+			// finish encryption - do final block
+			output.write(encrypted, 0, encrypt.doFinal(encrypted, 0));
+		} catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException impossible) {
+			throw new IllegalStateException(impossible);
+		}
+	}
+
+	/**
+	 * Encrypts the remaining bytes of a buffer into another buffer, without intermediate copies. 
+	 * Heap and direct buffers are supported. The encrypted data has the same format as the
+	 * stream written by {@link #encrypt(int, char[], InputStream, OutputStream)}.
+	 * @param keyLength
+	 *   key length to use for AES encryption (must be 128, 192, or 256)
+	 * @param password
+	 *   password to use for encryption
+	 * @param input
+	 *   buffer holding the data to encrypt, between its position and limit
+	 * @param output
+	 *   buffer to which the encrypted data will be written, with at least
+	 *   {@link #encryptedLength} of the input remaining
+	 * @throws AES.InvalidKeyLengthException
+	 *   if keyLength is not 128, 192, or 256
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *   if keyLength is 192 or 256, but the Java runtime's jurisdiction
+	 *   policy files do not allow 192- or 256-bit encryption
+	 * @throws java.nio.BufferOverflowException
+	 *   if the output buffer is too small
+	 */
+	public static void encrypt(int keyLength, char[] password, ByteBuffer input, ByteBuffer output)
+			throws InvalidKeyLengthException, StrongEncryptionNotAvailableException {
+		checkKeyLength(keyLength);
+		byte[] salt = generateSalt(SALT_LENGTH);
+		Keys keys = keygen(keyLength, password, salt);
+		try {
+			encrypt(keyLength, salt, keys, input, output);
+		} finally {
+			keys.destroy();
+		}
+	}
+
+	/**
+	 * Encrypts a byte array, see {@link #encrypt(int, char[], ByteBuffer, ByteBuffer)}.
+	 * @return the encrypted data, header included
+	 */
+	public static byte[] encrypt(int keyLength, char[] password, byte[] input)
+			throws InvalidKeyLengthException, StrongEncryptionNotAvailableException {
+		byte[] output = new byte[encryptedLength(input.length)];
+		encrypt(keyLength, password, ByteBuffer.wrap(input), ByteBuffer.wrap(output));
+		return output;
+	}
+
+	private static void encrypt(int keyLength, byte[] salt, Keys keys, ByteBuffer input, ByteBuffer output)
+			throws StrongEncryptionNotAvailableException {
+		if (output.remaining() < encryptedLength(input.remaining())) {
+			throw new BufferOverflowException();
+		}
+		Cipher encrypt = encryptCipher(keyLength, keys);
+		writeHeader(output, keyLength, salt, keys, encrypt);
+		try {
+			doFinal(encrypt, input, output, input.remaining() % IV_LENGTH);
+		} catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException impossible) {
+			throw new IllegalStateException(impossible);
+		}
+	}
+
+	/**
+	 * @param plainTextLength
+	 *   number of bytes to encrypt
+	 * @return the number of bytes written by the encryption, header included
+	 */
+	public static int encryptedLength(int plainTextLength) {
+		return HEADER_LENGTH + (plainTextLength / IV_LENGTH + 1) * IV_LENGTH;
+	}
+
+	private static Cipher encryptCipher(int keyLength, Keys keys) throws StrongEncryptionNotAvailableException {
 		Cipher encrypt = null;
 		try {
 			encrypt = Cipher.getInstance(CIPHER_SPEC);
-			encrypt.init(Cipher.ENCRYPT_MODE, keys.encryption);
+			encrypt.init(Cipher.ENCRYPT_MODE, keys.encryption());
 		} catch (NoSuchAlgorithmException | NoSuchPaddingException impossible) { }
 		  catch (InvalidKeyException e) { // 192 or 256-bit AES not available
 			throw new StrongEncryptionNotAvailableException(keyLength);
 		}
-		
+		return encrypt;
+	}
+
+	private static void writeHeader(ByteBuffer output, int keyLength, byte[] salt, Keys keys, Cipher encrypt) {
 		// get initialization vector
 		byte[] iv = null;
 		try {
 			iv = encrypt.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
 		} catch (InvalidParameterSpecException impossible) { }
-		
-		// write authentication and AES initialization data
-		output.write(keyLength / 8);
-		output.write(salt);
-		output.write(keys.authentication.getEncoded());
-		output.write(iv);
-
-		// read data from input into buffer, encrypt and write to output
-		byte[] buffer = new byte[BUFFER_SIZE];
-		int numRead;
-		byte[] encrypted = null;
-		while ((numRead = input.read(buffer)) > 0) {
-			encrypted = encrypt.update(buffer, 0, numRead);
-			if (encrypted != null) {
-				output.write(encrypted);
-			}
-		}
-		try { // finish encryption - do final block
-			encrypted = encrypt.doFinal();
-		} catch (IllegalBlockSizeException | BadPaddingException impossible) { }
-		if (encrypted != null) {
-			output.write(encrypted);
-		}
+		output.put((byte) (keyLength / 8));
+		output.put(salt);
+		output.put(keys.authentication());
+		output.put(iv);
 	}
 
 	/**
@@ -184,66 +370,287 @@ public class AES {
 	public static int decrypt(char[] password, InputStream input, OutputStream output)
 			throws InvalidPasswordException, InvalidAESStreamException, IOException,
 			StrongEncryptionNotAvailableException {
-		int keyLength = input.read() * 8;
-		// Check validity of key length
-		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
-			throw new InvalidAESStreamException();
-		}
-		
-		// read salt, generate keys, and authenticate password
-		byte[] salt = new byte[SALT_LENGTH];
-		input.read(salt);
-		Keys keys = keygen(keyLength, password, salt);
-		byte[] authRead = new byte[AUTH_KEY_LENGTH];
-		input.read(authRead);
-		if (!Arrays.equals(keys.authentication.getEncoded(), authRead)) {
-			throw new InvalidPasswordException();
-		}
-		
-		// initialize AES decryption
-		byte[] iv = new byte[16]; // 16-byte I.V. regardless of key size
-		input.read(iv);
-		Cipher decrypt = null;
-		try {
-			decrypt = Cipher.getInstance(CIPHER_SPEC);
-			decrypt.init(Cipher.DECRYPT_MODE, keys.encryption, new IvParameterSpec(iv));
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException
-				| InvalidAlgorithmParameterException impossible) { }
-		  catch (InvalidKeyException e) { // 192 or 256-bit AES not available
-			throw new StrongEncryptionNotAvailableException(keyLength);
+		// read the header, generate keys, and authenticate password
+		byte[] header = new byte[HEADER_LENGTH];
+		int headerRead = 0;
+		int numRead;
+		while (headerRead < HEADER_LENGTH && (numRead = input.read(header, headerRead, HEADER_LENGTH - headerRead)) > 0) {
+			headerRead += numRead;
 		}
+		ByteBuffer headerBuffer = ByteBuffer.wrap(header, 0, headerRead);
+		int keyLength = keyLength(headerBuffer);
+		Cipher decrypt = decryptCipher(keyLength, password, headerBuffer);
 		
-		// read data from input into buffer, decrypt and write to output
+		// read data from input into buffer, decrypt into a reused buffer and write to output
 		byte[] buffer = new byte[BUFFER_SIZE];
-		int numRead;
-		byte[] decrypted;
-		while ((numRead = input.read(buffer)) > 0) {
-			decrypted = decrypt.update(buffer, 0, numRead);
-			if (decrypted != null) {
-				output.write(decrypted);
+		byte[] decrypted = new byte[BUFFER_SIZE + IV_LENGTH]; // room for a block buffered by the cipher
+		try {
+			while ((numRead = input.read(buffer)) > 0) {
+				output.write(decrypted, 0, decrypt.update(buffer, 0, numRead, decrypted));
 			}
+			// finish decryption - do final block
+			output.write(decrypted, 0, decrypt.doFinal(decrypted, 0));
+		} catch (ShortBufferException impossible) {
+			throw new IllegalStateException(impossible);
+		} catch (IllegalBlockSizeException | BadPaddingException e) {
+			throw new InvalidAESStreamException(e);
 		}
-		try { // finish decryption - do final block
-			decrypted = decrypt.doFinal();
+
+		return keyLength;
+	}
+
+	/**
+	 * Decrypts the remaining bytes of a buffer, that were encrypted by {@link #encrypt}, into another buffer
+	 * without intermediate copies. Heap and direct buffers are supported.
+	 * @param password
+	 *   the password used to encrypt/decrypt the data
+	 * @param input
+	 *   buffer holding the encrypted data, between its position and limit
+	 * @param output
+	 *   buffer to which the decrypted data will be written, with at least as many bytes
+	 *   remaining as the encrypted data without its header
+	 * @return the key length for the decrypted data (128, 192, or 256)
+	 * @throws AES.InvalidPasswordException
+	 *   if the given password was not used to encrypt the data
+	 * @throws AES.InvalidAESStreamException
+	 *   if the given input is not valid AES-encrypted data
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *   if the data is 192 or 256-bit encrypted, and the Java runtime's
+	 *   jurisdiction policy files do not allow for AES-192 or 256
+	 * @throws java.nio.BufferOverflowException
+	 *   if the output buffer is too small
+	 */
+	public static int decrypt(char[] password, ByteBuffer input, ByteBuffer output)
+			throws InvalidPasswordException, InvalidAESStreamException, StrongEncryptionNotAvailableException {
+		if (output.remaining() < input.remaining() - HEADER_LENGTH) {
+			throw new BufferOverflowException();
+		}
+		int keyLength = keyLength(input);
+		Cipher decrypt = decryptCipher(keyLength, password, input);
+		try {
+			doFinal(decrypt, input, output, Math.min(input.remaining(), IV_LENGTH));
+		} catch (ShortBufferException impossible) {
+			throw new IllegalStateException(impossible);
 		} catch (IllegalBlockSizeException | BadPaddingException e) {
 			throw new InvalidAESStreamException(e);
 		}
-		if (decrypted != null) {
-			output.write(decrypted);
+		return keyLength;
+	}
+
+	/**
+	 * Decrypts a byte array, see {@link #decrypt(char[], ByteBuffer, ByteBuffer)}.
+	 * @return the decrypted data
+	 */
+	public static byte[] decrypt(char[] password, byte[] input)
+			throws InvalidPasswordException, InvalidAESStreamException, StrongEncryptionNotAvailableException {
+		ByteBuffer buffer = ByteBuffer.wrap(input);
+		Cipher decrypt = decryptCipher(keyLength(buffer), password, buffer);
+		try {
+			return decrypt.doFinal(input, buffer.position(), buffer.remaining());
+		} catch (IllegalBlockSizeException | BadPaddingException e) {
+			throw new InvalidAESStreamException(e);
 		}
+	}
 
+	/**
+	 * Run all but the last <i>tail</i> bytes of the input through {@link Cipher#update}, and only the tail
+	 * through {@link Cipher#doFinal}: the cipher copies the whole input passed to doFinal when it adds or
+	 * removes the padding, which would double the memory used for large payloads.
+	 */
+	private static void doFinal(Cipher cipher, ByteBuffer input, ByteBuffer output, int tail)
+			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+		int limit = input.limit();
+		input.limit(limit - tail);
+		cipher.update(input, output);
+		input.limit(limit);
+		cipher.doFinal(input, output);
+	}
+
+	/**
+	 * Check that the encrypted data is long enough to hold a header, and read the key length from the header.
+	 */
+	private static int keyLength(ByteBuffer input) throws InvalidAESStreamException {
+		if (input.remaining() < HEADER_LENGTH) {
+			throw new InvalidAESStreamException();
+		}
+		int keyLength = (input.get() & 0xff) * 8;
+		// Check validity of key length
+		if (keyLength != 128 && keyLength != 192 && keyLength != 256) {
+			throw new InvalidAESStreamException();
+		}
 		return keyLength;
 	}
 
 	/**
-	 * A tuple of encryption and authentication keys returned by {@link #keygen}
+	 * Read salt, authentication key and IV from the header, derive the keys, authenticate the password
+	 * and initialize AES decryption.
 	 */
-	private static class Keys {
-		public final SecretKey encryption, authentication;
-		public Keys(SecretKey encryption, SecretKey authentication) {
+	private static Cipher decryptCipher(int keyLength, char[] password, ByteBuffer header)
+			throws InvalidPasswordException, StrongEncryptionNotAvailableException {
+		byte[] salt = new byte[SALT_LENGTH];
+		header.get(salt);
+		byte[] authRead = new byte[AUTH_KEY_LENGTH];
+		header.get(authRead);
+		byte[] iv = new byte[IV_LENGTH];
+		header.get(iv);
+		Keys keys = keys(keyLength, password, salt);
+		try {
+			if (!MessageDigest.isEqual(keys.authentication(), authRead)) {
+				throw new InvalidPasswordException();
+			}
+			Cipher decrypt = null;
+			try {
+				decrypt = Cipher.getInstance(CIPHER_SPEC);
+				decrypt.init(Cipher.DECRYPT_MODE, keys.encryption(), new IvParameterSpec(iv));
+			} catch (NoSuchAlgorithmException | NoSuchPaddingException
+					| InvalidAlgorithmParameterException impossible) { }
+			  catch (InvalidKeyException e) { // 192 or 256-bit AES not available
+				throw new StrongEncryptionNotAvailableException(keyLength);
+			}
+			return decrypt;
+		} finally {
+			keys.destroy();
+		}
+	}
+
+	/**
+	 * A tuple of encryption and authentication keys returned by {@link #keygen}.
+	 * The key material is overwritten with zeros when the keys are destroyed.
+	 */
+	static class Keys implements Destroyable {
+		private final byte[] encryption, authentication;
+		private volatile boolean destroyed;
+		Keys(byte[] encryption, byte[] authentication) {
 			this.encryption = encryption;
 			this.authentication = authentication;
 		}
+		SecretKey encryption() {
+			return new SecretKeySpec(encryption, "AES");
+		}
+		byte[] authentication() {
+			return authentication;
+		}
+		Keys copy() {
+			return new Keys(encryption.clone(), authentication.clone());
+		}
+		@Override
+		public void destroy() {
+			Arrays.fill(encryption, (byte) 0);
+			Arrays.fill(authentication, (byte) 0);
+			destroyed = true;
+		}
+		@Override
+		public boolean isDestroyed() {
+			return destroyed;
+		}
+	}
+	
+	/**
+	 * Keys derived once from a password and a salt, to encrypt many payloads. Every payload gets its
+	 * own IV, and the stream header format is the same as for {@link AES#encrypt}, so the payloads
+	 * can be decrypted with {@link AES#decrypt} (or crypto.js).
+	 */
+	public static class DerivedKey implements AutoCloseable {
+		private final int keyLength;
+		private final byte[] salt;
+		private final Keys keys;
+		private DerivedKey(int keyLength, byte[] salt, Keys keys) {
+			this.keyLength = keyLength;
+			this.salt = salt;
+			this.keys = keys;
+		}
+		/**
+		 * Encrypts a stream of data, see {@link AES#encrypt}.
+		 * @param input
+		 *   an arbitrary byte stream to encrypt
+		 * @param output
+		 *   stream to which encrypted data will be written
+		 * @throws AES.StrongEncryptionNotAvailableException
+		 *   if keyLength is 192 or 256, but the Java runtime's jurisdiction
+		 *   policy files do not allow 192- or 256-bit encryption
+		 * @throws IOException
+		 */
+		public void encrypt(InputStream input, OutputStream output) throws StrongEncryptionNotAvailableException, IOException {
+			checkOpen();
+			AES.encrypt(keyLength, salt, keys, input, output);
+		}
+		/**
+		 * Encrypts the remaining bytes of a buffer, see {@link AES#encrypt(int, char[], ByteBuffer, ByteBuffer)}.
+		 * @param input
+		 *   buffer holding the data to encrypt, between its position and limit
+		 * @param output
+		 *   buffer to which the encrypted data will be written
+		 * @throws AES.StrongEncryptionNotAvailableException
+		 *   if keyLength is 192 or 256, but the Java runtime's jurisdiction
+		 *   policy files do not allow 192- or 256-bit encryption
+		 */
+		public void encrypt(ByteBuffer input, ByteBuffer output) throws StrongEncryptionNotAvailableException {
+			checkOpen();
+			AES.encrypt(keyLength, salt, keys, input, output);
+		}
+		/**
+		 * Encrypts a byte array, see {@link AES#encrypt(int, char[], byte[])}.
+		 * @param input
+		 *   the data to encrypt
+		 * @return the encrypted data, header included
+		 * @throws AES.StrongEncryptionNotAvailableException
+		 *   if keyLength is 192 or 256, but the Java runtime's jurisdiction
+		 *   policy files do not allow 192- or 256-bit encryption
+		 */
+		public byte[] encrypt(byte[] input) throws StrongEncryptionNotAvailableException {
+			byte[] output = new byte[encryptedLength(input.length)];
+			encrypt(ByteBuffer.wrap(input), ByteBuffer.wrap(output));
+			return output;
+		}
+		private void checkOpen() {
+			if (keys.isDestroyed()) {
+				throw new IllegalStateException("Derived key has been closed");
+			}
+		}
+		/**
+		 * Wipe the derived keys.
+		 */
+		@Override
+		public void close() {
+			keys.destroy();
+		}
+	}
+	
+	/**
+	 * Bounded LRU map of derived keys. Evicted and cleared keys are wiped.
+	 */
+	private static class KeyCache {
+		private final Map<String, Keys> keys;
+		KeyCache(int maxSize) {
+			keys = new LinkedHashMap<String, Keys>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Keys> eldest) {
+					if (size() > maxSize) {
+						eldest.getValue().destroy();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+		synchronized Keys copy(String id) {
+			Keys cached = keys.get(id);
+			return cached == null ? null : cached.copy();
+		}
+		synchronized void put(String id, Keys derived) {
+			Keys previous = keys.put(id, derived);
+			if (previous != null) {
+				previous.destroy();
+			}
+		}
+		synchronized int size() {
+			return keys.size();
+		}
+		synchronized void clear() {
+			keys.values().forEach(Keys::destroy);
+			keys.clear();
+		}
 	}
 	
 	
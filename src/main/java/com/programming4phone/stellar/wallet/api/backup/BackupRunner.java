@@ -0,0 +1,62 @@
+package com.programming4phone.stellar.wallet.api.backup;
+
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs a {@link KeyStoreBackup} export or import once at startup and stops the application, when
+ * <i>wallet.backup.export-file</i> or <i>wallet.backup.import-file</i> is set. The exit code is 0 on success, and 1 otherwise.
+ */
+@Component
+public class BackupRunner implements ApplicationRunner {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private KeyStoreBackup keyStoreBackup;
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Value("${wallet.backup.export-file:}")
+	private String exportFile;
+
+	@Value("${wallet.backup.import-file:}")
+	private String importFile;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (exportFile.isEmpty() && importFile.isEmpty()) {
+			return;
+		}
+		int exitCode = 1;
+		if (!exportFile.isEmpty() && !importFile.isEmpty()) {
+			logger.error("wallet.backup.export-file and wallet.backup.import-file cannot be combined");
+		}
+		else {
+			try {
+				if (!exportFile.isEmpty()) {
+					keyStoreBackup.exportTo(Paths.get(exportFile));
+				}
+				else {
+					keyStoreBackup.importFrom(Paths.get(importFile));
+				}
+				exitCode = 0;
+			}
+			catch(Exception e) {
+				logger.error("key store " + (exportFile.isEmpty() ? "import" : "export") + " failed", e);
+			}
+		}
+		int status = exitCode;
+		System.exit(SpringApplication.exit(applicationContext, () -> status));
+	}
+}
@@ -0,0 +1,230 @@
+package com.programming4phone.stellar.wallet.api.backup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.dao.AccountNumberFilter;
+import com.programming4phone.stellar.wallet.api.dao.GlobPattern;
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+import com.programming4phone.stellar.wallet.api.dao.SeedNearCache;
+
+/**
+ * Export of all account number / encrypted secret seed pairs stored by
+ * {@link com.programming4phone.stellar.wallet.api.dao.KeyDao} to a file, and import of such a file, through the
+ * {@link KeyStore}, so that every store and Redis layout is covered.
+ * <br/><br/>
+ * The export scans the account numbers in chunks (in Redis with SCAN, so it never blocks Redis the way KEYS would)
+ * and reads each chunk with a single {@link KeyStore#multiGet(List)}, streaming the pairs to the file in constant
+ * memory. The import first reads the whole file to verify its record count and checksum, then streams it a second
+ * time into the store with {@link KeyStore#multiSet(List, List)}, a batch at a time, so that a truncated or corrupted
+ * file never gets partially imported.
+ * <br/><br/>
+ * File format, all integers big-endian:
+ * <ul>
+ *   <li>magic number <code>WKB1</code> (4 bytes)</li>
+ *   <li>per pair: account number length (4 bytes), UTF-8 account number, seed length (4 bytes), UTF-8 seed</li>
+ *   <li>end marker -1 (4 bytes), number of pairs (8 bytes)</li>
+ *   <li>CRC32 of all preceding bytes (8 bytes)</li>
+ * </ul>
+ * The scan may return an account number more than once, e.g. while Redis rehashes, in which case the pair is exported twice.
+ */
+@Component
+public class KeyStoreBackup implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final int MAGIC = 0x574b4231; // "WKB1"
+	private static final int END_MARKER = -1;
+	private static final int MAX_LENGTH = 1 << 20; // so that a corrupted length cannot exhaust the heap
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@Autowired
+	private SeedNearCache seedNearCache;
+
+	@Autowired
+	private AccountNumberFilter accountNumberFilter;
+
+	@Value("${wallet.backup.match:*}")
+	private String match;
+
+	@Value("${wallet.backup.scan-count:1000}")
+	private int scanCount;
+
+	@Value("${wallet.backup.batch-size:1000}")
+	private int batchSize;
+
+	private final LongAdder scanned = new LongAdder();
+	private final LongAdder exported = new LongAdder();
+	private final LongAdder imported = new LongAdder();
+
+	/**
+	 * Export all pairs. The file is written next to the target first and only renamed once complete.
+	 * @param file Path of the export file, replaced if it exists
+	 * @return the number of exported pairs
+	 * @throws IOException
+	 */
+	public long exportTo(Path file) throws IOException {
+		long start = System.currentTimeMillis();
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		long count = 0;
+		CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 65536), new CRC32());
+		try (DataOutputStream output = new DataOutputStream(checked)) {
+			output.writeInt(MAGIC);
+			GlobPattern pattern = new GlobPattern(match);
+			long[] written = new long[1];
+			keyStore.scan(scanCount, chunk -> {
+				List<String> accountNumbers = chunk.stream().filter(pattern).collect(Collectors.toList());
+				if (accountNumbers.isEmpty()) {
+					return;
+				}
+				List<String> secretSeeds = keyStore.multiGet(accountNumbers);
+				try {
+					for (int i = 0; i < accountNumbers.size(); i++) {
+						if (secretSeeds.get(i) != null) { // deleted since the scan, or not an account
+							write(output, accountNumbers.get(i));
+							write(output, secretSeeds.get(i));
+							written[0]++;
+						}
+					}
+				}
+				catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				scanned.add(accountNumbers.size());
+			});
+			count = written[0];
+			output.writeInt(END_MARKER);
+			output.writeLong(count);
+			output.writeLong(checked.getChecksum().getValue());
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+		exported.add(count);
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("exported pairs: " + count + " to " + file + " in " + (System.currentTimeMillis() - start) + " ms");
+		return count;
+	}
+
+	/**
+	 * Verify an export file, then import its pairs. Existing keys are overwritten.
+	 * @param file Path of the export file
+	 * @return the number of imported pairs
+	 * @throws IOException
+	 *   if the file cannot be read, or fails verification, in which case nothing is imported
+	 */
+	public long importFrom(Path file) throws IOException {
+		long start = System.currentTimeMillis();
+		long count = read(file, null);
+		logger.info("verified pairs: " + count + " in " + file);
+		read(file, this::write);
+		logger.info("imported pairs: " + count + " from " + file + " in " + (System.currentTimeMillis() - start) + " ms");
+		return count;
+	}
+
+	/**
+	 * Read an export file, verifying its format, record count and checksum.
+	 * @param batchWriter receives the pairs a batch at a time, as alternating account numbers and seeds, or null to only verify the file
+	 * @return the number of pairs
+	 */
+	private long read(Path file, Consumer<List<String>> batchWriter) throws IOException {
+		CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file), 65536), new CRC32());
+		try (DataInputStream input = new DataInputStream(checked)) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException("Not a key store export file: " + file);
+			}
+			long count = 0;
+			List<String> batch = new ArrayList<>(batchWriter == null ? 0 : batchSize * 2);
+			int length;
+			while ((length = input.readInt()) != END_MARKER) {
+				String accountNumber = read(input, length);
+				String secretSeed = read(input, input.readInt());
+				count++;
+				if (batchWriter != null) {
+					batch.add(accountNumber);
+					batch.add(secretSeed);
+					if (batch.size() == batchSize * 2) {
+						batchWriter.accept(batch);
+						batch.clear();
+					}
+				}
+			}
+			if (batchWriter != null && !batch.isEmpty()) {
+				batchWriter.accept(batch);
+			}
+			long expectedCount = input.readLong();
+			long checksum = checked.getChecksum().getValue();
+			if (expectedCount != count || input.readLong() != checksum || input.read() != -1) {
+				throw new IOException("Corrupted key store export file: " + file);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Store a batch of pairs, then drop the accounts from the near caches and add them to the account number filters.
+	 */
+	private void write(List<String> accountNumbersAndSecretSeeds) {
+		List<String> accountNumbers = new ArrayList<>(accountNumbersAndSecretSeeds.size() / 2);
+		List<String> secretSeeds = new ArrayList<>(accountNumbersAndSecretSeeds.size() / 2);
+		for (int i = 0; i < accountNumbersAndSecretSeeds.size(); i += 2) {
+			accountNumbers.add(accountNumbersAndSecretSeeds.get(i));
+			secretSeeds.add(accountNumbersAndSecretSeeds.get(i + 1));
+		}
+		keyStore.multiSet(accountNumbers, secretSeeds);
+		seedNearCache.invalidate(accountNumbers);
+		accountNumberFilter.add(accountNumbers);
+		imported.add(accountNumbers.size());
+	}
+
+	private static void write(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String read(DataInputStream input, int length) throws IOException {
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IOException("Corrupted key store export file, invalid length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Long>("keys.backup.scanned", scanned.sum()));
+		metrics.add(new Metric<Long>("keys.backup.exported", exported.sum()));
+		metrics.add(new Metric<Long>("keys.backup.imported", imported.sum()));
+		return metrics;
+	}
+}
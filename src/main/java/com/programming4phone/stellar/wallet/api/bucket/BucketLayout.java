@@ -0,0 +1,207 @@
+package com.programming4phone.stellar.wallet.api.bucket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import redis.clients.util.Hashing;
+
+/**
+ * Memory-compact Redis layout of the account keys, selected with <i>wallet.redis.layout=buckets</i>: instead of one
+ * string key per account holding the Base64 ciphertext, the accounts are grouped into small hashes, the buckets,
+ * with the account number as field and the raw ciphertext bytes as value. Redis stores a small hash as a single
+ * compact ziplist (listpack since Redis 7), without the per-key overhead of its main dictionary, as long as it has
+ * at most <code>hash-max-ziplist-entries</code> fields of at most <code>hash-max-ziplist-value</code> bytes.
+ * <br/><br/>
+ * Every Redis Cluster hash slot has <i>wallet.redis.buckets.per-slot</i> buckets named
+ * <code>bucket:{tag}:n</code>, where the hash tag maps to that slot. An account goes to one of the buckets of
+ * its own slot, chosen by a MurmurHash of the account number, so an account key and its bucket always live on the
+ * same node, and the buckets spread over the whole cluster.
+ * <br/><br/>
+ * While <i>wallet.redis.buckets.migrating</i> is set, accounts not found in their bucket are read from their string key,
+ * writes delete the string key after writing the bucket, and deletes remove both, see {@link BucketMigrator}.
+ */
+@Component
+public class BucketLayout implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final String PREFIX = "bucket:{";
+	private static final int SLOTS = 16384;
+	private static final byte UTF8 = 0;
+	private static final byte BASE64 = 1;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Value("${wallet.redis.layout:strings}")
+	private String layout;
+
+	@Value("${wallet.redis.buckets.per-slot:4}")
+	private int perSlot;
+
+	@Value("${wallet.redis.buckets.migrating:true}")
+	private boolean migrating;
+
+	private final LongAdder stringReads = new LongAdder();
+
+	/**
+	 * Hash tags mapping to every cluster slot, the shortest decimal number for each.
+	 */
+	private static class SlotTags {
+		static final String[] TAGS = new String[SLOTS];
+
+		static {
+			for (int i = 0, found = 0; found < SLOTS; i++) {
+				String tag = Integer.toString(i);
+				int slot = ClusterSlotHashUtil.calculateSlot(tag);
+				if (TAGS[slot] == null) {
+					TAGS[slot] = tag;
+					found++;
+				}
+			}
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		if (!"strings".equals(layout) && !"buckets".equals(layout)) {
+			throw new IllegalStateException("wallet.redis.layout must be strings or buckets: " + layout);
+		}
+		if (!isEnabled()) {
+			return;
+		}
+		try {
+			List<String> config = stringRedisTemplate.execute((RedisCallback<List<String>>) connection ->
+					connection.getConfig("hash-max-*-value"));
+			for (int i = 0; config != null && i + 1 < config.size(); i += 2) {
+				if (Integer.parseInt(config.get(i + 1)) < 128) {
+					logger.warn("{} is {}: buckets of seeds longer than that are not stored compactly, set it to 128",
+							config.get(i), config.get(i + 1));
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			logger.info("Unable to check hash-max-ziplist-value: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * @return true if the accounts are stored in buckets
+	 */
+	public boolean isEnabled() {
+		return "buckets".equals(layout);
+	}
+
+	/**
+	 * @return true while accounts may still be stored in string keys
+	 */
+	public boolean isMigrating() {
+		return migrating;
+	}
+
+	/**
+	 * @param key String
+	 * @return true if the key is a bucket
+	 */
+	public boolean isBucket(String key) {
+		return key.startsWith(PREFIX);
+	}
+
+	/**
+	 * @param accountNumber String
+	 * @return the key of the bucket of the account
+	 */
+	public byte[] bucket(String accountNumber) {
+		String tag = SlotTags.TAGS[ClusterSlotHashUtil.calculateSlot(accountNumber)];
+		long hash = Hashing.MURMUR_HASH.hash(accountNumber) & Long.MAX_VALUE;
+		return (PREFIX + tag + "}:" + hash % perSlot).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the keys of all buckets
+	 */
+	public List<byte[]> buckets() {
+		List<byte[]> buckets = new ArrayList<>(SLOTS * perSlot);
+		for (String tag : SlotTags.TAGS) {
+			for (int i = 0; i < perSlot; i++) {
+				buckets.add((PREFIX + tag + "}:" + i).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return buckets;
+	}
+
+	/**
+	 * Count a read served by a string key while migrating.
+	 */
+	public void stringRead() {
+		stringReads.increment();
+	}
+
+	/**
+	 * Encode a secret seed as stored in a bucket: a canonical Base64 seed as its decoded bytes, three quarters of
+	 * its length, anything else as UTF-8, after a byte telling which.
+	 * @param secretSeed String
+	 * @return byte[]
+	 */
+	public static byte[] encode(String secretSeed) {
+		byte[] bytes;
+		byte encoding;
+		try {
+			bytes = Base64.getDecoder().decode(secretSeed);
+			encoding = Base64.getEncoder().encodeToString(bytes).equals(secretSeed) ? BASE64 : UTF8;
+		}
+		catch (IllegalArgumentException e) {
+			encoding = UTF8;
+			bytes = null;
+		}
+		if (encoding == UTF8) {
+			bytes = secretSeed.getBytes(StandardCharsets.UTF_8);
+		}
+		byte[] encoded = new byte[bytes.length + 1];
+		encoded[0] = encoding;
+		System.arraycopy(bytes, 0, encoded, 1, bytes.length);
+		return encoded;
+	}
+
+	/**
+	 * @param encoded byte[] as returned by {@link #encode(String)}, or null
+	 * @return the secret seed, or null
+	 */
+	public static String decode(byte[] encoded) {
+		if (encoded == null) {
+			return null;
+		}
+		if (encoded.length > 0 && encoded[0] == BASE64) {
+			byte[] bytes = new byte[encoded.length - 1];
+			System.arraycopy(encoded, 1, bytes, 0, bytes.length);
+			return Base64.getEncoder().encodeToString(bytes);
+		}
+		return new String(encoded, 1, encoded.length - 1, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (isEnabled()) {
+			metrics.add(new Metric<Long>("keys.buckets.string-reads", stringReads.sum()));
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,63 @@
+package com.programming4phone.stellar.wallet.api.bucket;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs {@link BucketMigrator} once in the background at startup, when <i>wallet.redis.buckets.migration.enabled</i>
+ * is set, while the application keeps serving requests. Enable it on a single instance only.
+ * Once the migration is complete, set <i>wallet.redis.buckets.migrating=false</i> on every instance.
+ */
+@Component
+public class BucketMigrationRunner implements ApplicationRunner {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private BucketMigrator bucketMigrator;
+
+	@Value("${wallet.redis.buckets.migration.enabled:false}")
+	private boolean enabled;
+
+	private Thread thread;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!enabled) {
+			return;
+		}
+		thread = new Thread(() -> {
+			try {
+				long errors = bucketMigrator.migrate();
+				if (errors == 0) {
+					logger.info("bucket migration complete, set wallet.redis.buckets.migrating=false");
+				}
+				else {
+					logger.error("bucket migration incomplete, keys not moved: {}, restart to retry", errors);
+				}
+			}
+			catch(InterruptedException e) {
+				logger.info("bucket migration interrupted");
+			}
+			catch(Exception e) {
+				logger.error("bucket migration failed, restart to retry", e);
+			}
+		}, "bucket-migration");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+}
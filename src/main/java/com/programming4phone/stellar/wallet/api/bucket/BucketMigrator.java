@@ -0,0 +1,174 @@
+package com.programming4phone.stellar.wallet.api.bucket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.dao.InstrumentedJedisConnectionFactory;
+import com.programming4phone.stellar.wallet.api.ratelimit.RateLimiter;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Moves the accounts still stored as string keys into their bucket, while the web services keep running,
+ * see {@link BucketLayout}.
+ * <br/><br/>
+ * The keys of every Redis (or every Redis Cluster master) are SCANned in chunks; the seeds of each chunk are read
+ * with one pipelined GET per key, then moved with one pipelined script call per key, which atomically checks that the
+ * string key still holds the seed read, writes the bucket field unless it was written since, and deletes the string key.
+ * A string key changed or deleted since it was read is left to the concurrent write or deletion, which
+ * also removes it. An account key and its bucket map to the same hash slot, so the script also runs on a cluster.
+ * <br/><br/>
+ * The shared rate limit buckets ({@link RateLimiter#isBucketKey(String)}) are not account keys, and are left alone.
+ * <br/><br/>
+ * Every instance must run with <i>wallet.redis.layout=buckets</i> before the migration starts: an instance
+ * still writing string keys would write seeds that shadow nothing, and that a later run moves again.
+ */
+@Component
+public class BucketMigrator implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final byte[] MOVE_SCRIPT = (
+			"if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end\n" +
+			"redis.call('HSETNX', KEYS[2], ARGV[2], ARGV[3])\n" +
+			"redis.call('DEL', KEYS[1])\n" +
+			"return 1").getBytes(StandardCharsets.UTF_8);
+
+	@Autowired
+	private BucketLayout bucketLayout;
+
+	@Autowired
+	private InstrumentedJedisConnectionFactory redisConnectionFactory;
+
+	@Autowired
+	private RateLimiter rateLimiter;
+
+	@Value("${wallet.redis.buckets.migration.match:*}")
+	private String match;
+
+	@Value("${wallet.redis.buckets.migration.scan-count:500}")
+	private int scanCount;
+
+	private final LongAdder scanned = new LongAdder();
+	private final LongAdder migrated = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private volatile boolean running;
+
+	/**
+	 * Move every account stored as a string key into its bucket.
+	 * @return the number of keys that could not be moved, 0 once the migration is complete
+	 * @throws IllegalStateException
+	 *   if <i>wallet.redis.layout</i> is not <i>buckets</i>, or <i>wallet.redis.buckets.migrating</i> is not set
+	 * @throws InterruptedException
+	 *   if the thread is interrupted, in which case the keys moved so far stay moved
+	 */
+	public synchronized long migrate() throws InterruptedException {
+		if (!bucketLayout.isEnabled() || !bucketLayout.isMigrating()) {
+			throw new IllegalStateException("set wallet.redis.layout=buckets and wallet.redis.buckets.migrating=true");
+		}
+		long errorsBefore = errors.sum();
+		running = true;
+		try {
+			for (HostAndPort node : redisConnectionFactory.masters()) {
+				logger.info("moving keys matching {} on {} into buckets", match, node);
+				try (Jedis jedis = redisConnectionFactory.connect(node)) {
+					byte[] sha = jedis.scriptLoad(MOVE_SCRIPT);
+					String cursor = ScanParams.SCAN_POINTER_START;
+					do {
+						if (Thread.interrupted()) {
+							throw new InterruptedException();
+						}
+						ScanResult<String> chunk = jedis.scan(cursor, new ScanParams().match(match).count(scanCount));
+						move(jedis, sha, chunk.getResult());
+						cursor = chunk.getStringCursor();
+					} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+				}
+				logger.info("{} done: scanned {}, migrated {}, skipped {}, errors {}",
+						node, scanned.sum(), migrated.sum(), skipped.sum(), errors.sum());
+			}
+		}
+		finally {
+			running = false;
+		}
+		return errors.sum() - errorsBefore;
+	}
+
+	private void move(Jedis jedis, byte[] sha, List<String> keys) {
+		List<String> accountNumbers = keys.stream().filter(key -> !bucketLayout.isBucket(key) && !rateLimiter.isBucketKey(key))
+				.collect(Collectors.toList());
+		scanned.add(accountNumbers.size());
+		if (accountNumbers.isEmpty()) {
+			return;
+		}
+		Pipeline reads = jedis.pipelined();
+		accountNumbers.forEach(reads::get);
+		List<Object> secretSeeds = reads.syncAndReturnAll();
+
+		List<String> moving = new ArrayList<>();
+		Pipeline moves = jedis.pipelined();
+		for (int i = 0; i < accountNumbers.size(); i++) {
+			Object secretSeed = secretSeeds.get(i);
+			if (secretSeed instanceof String) {
+				String accountNumber = accountNumbers.get(i);
+				byte[] key = accountNumber.getBytes(StandardCharsets.UTF_8);
+				moves.evalsha(sha, Arrays.asList(key, bucketLayout.bucket(accountNumber)), Arrays.asList(
+						((String) secretSeed).getBytes(StandardCharsets.UTF_8), key, BucketLayout.encode((String) secretSeed)));
+				moving.add(accountNumber);
+			}
+			else if (secretSeed == null) { // deleted since the SCAN
+				skipped.increment();
+			}
+			else {
+				errors.increment();
+				logger.warn("Unable to read key {}: {}", accountNumbers.get(i), secretSeed);
+			}
+		}
+		List<Object> results = moves.syncAndReturnAll();
+		for (int i = 0; i < moving.size(); i++) {
+			Object result = results.get(i);
+			if (Long.valueOf(1).equals(result)) {
+				migrated.increment();
+			}
+			else if (Long.valueOf(0).equals(result)) { // changed since the GET
+				skipped.increment();
+			}
+			else {
+				errors.increment();
+				logger.warn("Unable to move key {}: {}", moving.get(i),
+						result instanceof JedisDataException ? ((JedisDataException) result).getMessage() : result);
+			}
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (bucketLayout.isEnabled()) {
+			metrics.add(new Metric<Integer>("keys.buckets.migration.running", running ? 1 : 0));
+			metrics.add(new Metric<Long>("keys.buckets.migration.scanned", scanned.sum()));
+			metrics.add(new Metric<Long>("keys.buckets.migration.migrated", migrated.sum()));
+			metrics.add(new Metric<Long>("keys.buckets.migration.skipped", skipped.sum()));
+			metrics.add(new Metric<Long>("keys.buckets.migration.errors", errors.sum()));
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,191 @@
+package com.programming4phone.stellar.wallet.api.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, thread-safe cache in which every entry carries its own expiration time.
+ * <br/><br/>
+ * The cache is split into lock-striped segments, each a {@link LinkedHashMap} in access order,
+ * so that concurrent callers rarely contend for the same lock. When a segment is full its least
+ * recently used entry is evicted. Expired entries are dropped when they are next looked up.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ExpiringLruCache<K, V> {
+
+	private static final int SEGMENTS = 16;
+
+	private final Segment<K, V>[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	/**
+	 * @param maxSize maximum number of entries held by the cache
+	 */
+	@SuppressWarnings("unchecked")
+	public ExpiringLruCache(int maxSize) {
+		int segmentCount = Math.max(1, Math.min(SEGMENTS, maxSize));
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			// spread the remainder so that the segment sizes add up to maxSize
+			segments[i] = new Segment<>(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0), evictions);
+		}
+	}
+
+	private Segment<K, V> segmentFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * @param key cache key
+	 * @return the cached value, or null if the key is not cached or its entry has expired
+	 */
+	public V get(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.get(key);
+			if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+				segment.remove(key);
+				expirations.increment();
+				entry = null;
+			}
+			if (entry == null) {
+				misses.increment();
+				return null;
+			}
+			hits.increment();
+			return entry.value;
+		}
+	}
+
+	/**
+	 * @param key cache key
+	 * @param value value to cache
+	 * @param expiresAt time in milliseconds since the epoch at which the entry expires
+	 */
+	public void put(K key, V value, long expiresAt) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, new Entry<>(value, expiresAt));
+		}
+	}
+
+	/**
+	 * Atomically look up a value, and create and cache it if the key is not cached or its entry has expired, so that
+	 * concurrent callers always share the cached instance. The entry then expires at <i>expiresAt</i>, whether it
+	 * was found or created.
+	 * @param key cache key
+	 * @param create creates the value to cache, called under the lock of the segment
+	 * @param expiresAt time in milliseconds since the epoch at which the entry expires
+	 * @return the cached value
+	 */
+	public V getOrCreate(K key, Function<? super K, ? extends V> create, long expiresAt) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			Entry<V> entry = segment.get(key);
+			if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+				expirations.increment();
+				entry = null;
+			}
+			V value;
+			if (entry == null) {
+				misses.increment();
+				value = create.apply(key);
+			}
+			else {
+				hits.increment();
+				value = entry.value;
+			}
+			segment.put(key, new Entry<>(value, expiresAt));
+			return value;
+		}
+	}
+
+	/**
+	 * @param key cache key to remove
+	 */
+	public void remove(K key) {
+		Segment<K, V> segment = segmentFor(key);
+		synchronized (segment) {
+			segment.remove(key);
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return number of entries, including expired entries that have not been looked up since
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final long expiresAt;
+		Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+		private final LongAdder evictions;
+
+		Segment(int maxSize, LongAdder evictions) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+			this.evictions = evictions;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+			if (size() > maxSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.programming4phone.stellar.wallet.api.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import redis.clients.util.MurmurHash;
+
+/**
+ * A thread-safe Bloom filter of strings that grows with the number of strings added, keeping its false positive
+ * rate below a bound (Almeida et al., <i>Scalable Bloom Filters</i>).
+ * <br/><br/>
+ * The filter is a list of plain Bloom filters, the stages. Strings are added to the last stage; once it holds its
+ * capacity, a stage twice as large with half the false positive rate is appended, so that the rates of all stages
+ * add up to at most the requested rate. A string is looked up in every stage. Bits are set with compare-and-set,
+ * so adds and lookups take no lock; a lookup concurrent with the add of the same string may miss it.
+ */
+public class ScalableBloomFilter {
+
+	private static final int SEED1 = 0x5bd1e995;
+	private static final int SEED2 = 0x1b873593;
+	private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+
+	private final double falsePositiveRate;
+	private final List<Stage> stages = new CopyOnWriteArrayList<>();
+
+	private static class Stage {
+		final AtomicLongArray bits;
+		final int hashes;
+		final long capacity;
+		final AtomicLong count = new AtomicLong();
+
+		Stage(long capacity, double falsePositiveRate) {
+			this.capacity = capacity;
+			long bitCount = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / LN2_SQUARED);
+			this.bits = new AtomicLongArray((int) Math.max(1, Math.min(Integer.MAX_VALUE, (bitCount + 63) / 64)));
+			this.hashes = Math.max(1, (int) Math.ceil(-Math.log(falsePositiveRate) / Math.log(2)));
+		}
+
+		/**
+		 * Kirsch-Mitzenmacher double hashing: the i-th bit is hash1 + i * hash2.
+		 */
+		long index(long hash1, long hash2, int i) {
+			return ((hash1 + i * hash2) & Long.MAX_VALUE) % (bits.length() * 64L);
+		}
+
+		boolean mightContain(long hash1, long hash2) {
+			for (int i = 0; i < hashes; i++) {
+				long index = index(hash1, hash2, i);
+				if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void add(long hash1, long hash2) {
+			for (int i = 0; i < hashes; i++) {
+				long index = index(hash1, hash2, i);
+				int word = (int) (index >>> 6);
+				long mask = 1L << index;
+				long value;
+				while (((value = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, value, value | mask)) {
+					// retry
+				}
+			}
+			count.incrementAndGet();
+		}
+
+		/**
+		 * @return the false positive rate expected with the current count, (1 - e^(-kn/m))^k
+		 */
+		double expectedFalsePositiveRate() {
+			return Math.pow(1 - Math.exp(-hashes * (double) count.get() / (bits.length() * 64L)), hashes);
+		}
+	}
+
+	/**
+	 * @param initialCapacity number of strings held by the first stage
+	 * @param falsePositiveRate bound of the false positive rate, e.g. 0.01
+	 */
+	public ScalableBloomFilter(long initialCapacity, double falsePositiveRate) {
+		if (initialCapacity < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("capacity must be positive and false positive rate between 0 and 1");
+		}
+		this.falsePositiveRate = falsePositiveRate;
+		// stage i gets rate p/2 * 1/2^i, so that the rates add up to p
+		stages.add(new Stage(initialCapacity, falsePositiveRate / 2));
+	}
+
+	/**
+	 * @param value String
+	 * @return false if the string was definitely never added, true if it probably was
+	 */
+	public boolean mightContain(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		long hash1 = MurmurHash.hash64A(bytes, SEED1);
+		long hash2 = MurmurHash.hash64A(bytes, SEED2);
+		for (Stage stage : stages) {
+			if (stage.mightContain(hash1, hash2)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param value String
+	 */
+	public void add(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		long hash1 = MurmurHash.hash64A(bytes, SEED1);
+		long hash2 = MurmurHash.hash64A(bytes, SEED2);
+		for (Stage stage : stages) {
+			if (stage.mightContain(hash1, hash2)) {
+				return; // adding it again would only fill the last stage faster
+			}
+		}
+		Stage last = stages.get(stages.size() - 1);
+		if (last.count.get() >= last.capacity) {
+			last = grow(last);
+		}
+		last.add(hash1, hash2);
+	}
+
+	private synchronized Stage grow(Stage full) {
+		Stage last = stages.get(stages.size() - 1);
+		if (last == full) {
+			last = new Stage(full.capacity * 2, falsePositiveRate / (2L << stages.size()));
+			stages.add(last);
+		}
+		return last;
+	}
+
+	/**
+	 * @return the number of strings added, not counting those the filter already seemed to contain
+	 */
+	public long count() {
+		return stages.stream().mapToLong(stage -> stage.count.get()).sum();
+	}
+
+	/**
+	 * @return the number of stages
+	 */
+	public int stages() {
+		return stages.size();
+	}
+
+	/**
+	 * @return the size of the bit arrays of all stages, in bytes
+	 */
+	public long sizeInBytes() {
+		return stages.stream().mapToLong(stage -> stage.bits.length() * 8L).sum();
+	}
+
+	/**
+	 * @return the false positive rate expected with the strings added so far
+	 */
+	public double expectedFalsePositiveRate() {
+		double none = 1;
+		for (Stage stage : stages) {
+			none *= 1 - stage.expectedFalsePositiveRate();
+		}
+		return 1 - none;
+	}
+}
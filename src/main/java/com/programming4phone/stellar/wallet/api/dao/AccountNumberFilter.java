@@ -0,0 +1,357 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.cache.ScalableBloomFilter;
+
+/**
+ * Optional in-process Bloom filter of the stored account numbers, see {@link ScalableBloomFilter}, so that
+ * {@link KeyDao} answers lookups of account numbers that definitely do not exist without a Redis round trip.
+ * <br/><br/>
+ * The filter is built from a {@link KeyStore#scan(int, java.util.function.Consumer)} in the background at startup,
+ * and rebuilt every <i>rebuild-interval-seconds</i> to drop deleted accounts; until the first build completes,
+ * every lookup goes to Redis. Every node adds the account numbers it saves to its own filter and publishes them on
+ * a Redis pub/sub channel, and every node adds them to its filter when the message arrives. Accounts are only
+ * added after they are written, so a rebuild running concurrently either finds them in the SCAN or receives the add.
+ * Should a message be lost, the account is reported as not found by that node until its next rebuild.
+ * <br/><br/>
+ * When the pub/sub subscription is lost ({@link RedisSubscriptionLostEvent}), the filter is dropped, so that every
+ * lookup goes to Redis, and rebuilt once a message published on the channel is received again. Every build waits
+ * for such a message first, so that it receives the accounts added by other nodes meanwhile.
+ * <br/><br/>
+ * Another node only knows of a new account once the message arrives, so until then it reports the account as not
+ * found: clients reading an account right after creating it must be routed to the node that created it.
+ * <br/><br/>
+ * The embedded store is not shared by several nodes, so nothing is published or subscribed to with
+ * <i>wallet.store.type=embedded</i>.
+ */
+@Component
+public class AccountNumberFilter implements MessageListener, ApplicationRunner, PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@Value("${keys.bloom-filter.enabled:false}")
+	private boolean enabled;
+
+	@Value("${keys.bloom-filter.expected-accounts:1000000}")
+	private long expectedAccounts;
+
+	@Value("${keys.bloom-filter.false-positive-rate:0.01}")
+	private double falsePositiveRate;
+
+	@Value("${keys.bloom-filter.rebuild-interval-seconds:86400}")
+	private long rebuildIntervalSeconds;
+
+	@Value("${keys.bloom-filter.scan-count:1000}")
+	private int scanCount;
+
+	@Value("${keys.bloom-filter.channel:wallet:key:added}")
+	private String channel;
+
+	@Value("${wallet.store.type:redis}")
+	private String storeType;
+
+	/**
+	 * Time to wait for a message published to check the subscription, before publishing another one.
+	 */
+	private static final long SUBSCRIPTION_CHECK_MILLIS = 1000;
+
+	/**
+	 * The filter answering lookups, null until the first build completes.
+	 */
+	private volatile ScalableBloomFilter filter;
+
+	/**
+	 * The filter being built, which also receives every account added meanwhile.
+	 */
+	private volatile ScalableBloomFilter building;
+
+	private ScheduledExecutorService rebuildExecutor;
+
+	private boolean published;
+
+	/**
+	 * Incremented when the subscription is lost, so that a build started before does not replace the dropped filter.
+	 * Both are done under the filterLock.
+	 */
+	private final AtomicLong subscriptionLosses = new AtomicLong();
+	private final Object filterLock = new Object();
+	private final AtomicBoolean rebuildPending = new AtomicBoolean();
+
+	/**
+	 * Body of the message published to check the subscription, and the latch counted down when it is received.
+	 * The body starts with a line break, which no list of account numbers does.
+	 */
+	private volatile String subscriptionCheck;
+	private volatile CountDownLatch subscriptionChecked;
+
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder shortCircuits = new LongAdder();
+	private final LongAdder falsePositives = new LongAdder();
+	private final LongAdder rebuilds = new LongAdder();
+	private final LongAdder rebuildErrors = new LongAdder();
+	private volatile long rebuildMillis;
+
+	@PostConstruct
+	public void init() {
+		published = !"embedded".equals(storeType);
+		if (enabled && published) {
+			redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(channel));
+		}
+	}
+
+	/**
+	 * Start building the filter once the application is started, so that the pub/sub listener is already
+	 * subscribed and receives every account saved by other nodes during the build.
+	 */
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!enabled) {
+			return;
+		}
+		rebuildExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "account-filter-rebuild");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (rebuildIntervalSeconds > 0) {
+			rebuildExecutor.scheduleWithFixedDelay(this::rebuildQuietly, 0, rebuildIntervalSeconds, TimeUnit.SECONDS);
+		}
+		else {
+			rebuildExecutor.execute(this::rebuildQuietly);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		if (rebuildExecutor != null) {
+			rebuildExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param accountNumber String
+	 * @return false if the account number is definitely not stored, true if it may be, or if the filter is not built
+	 */
+	public boolean mightContain(String accountNumber) {
+		ScalableBloomFilter filter = this.filter;
+		if (filter == null) {
+			return true;
+		}
+		lookups.increment();
+		if (filter.mightContain(accountNumber)) {
+			return true;
+		}
+		shortCircuits.increment();
+		return false;
+	}
+
+	/**
+	 * Count an account number that passed {@link #mightContain(String)} but was not found. Accounts deleted since
+	 * the last rebuild are counted too, they only drop out of the filter when it is rebuilt.
+	 */
+	public void falsePositive() {
+		if (filter != null) {
+			falsePositives.increment();
+		}
+	}
+
+	/**
+	 * Add saved accounts to this node's filter and tell all other nodes to do the same. Call it after the accounts
+	 * are written.
+	 * @param accountNumbers Collection of String
+	 */
+	public void add(Collection<String> accountNumbers) {
+		if (!enabled || accountNumbers.isEmpty()) {
+			return;
+		}
+		addLocally(accountNumbers);
+		if (published) {
+			stringRedisTemplate.convertAndSend(channel, String.join("\n", accountNumbers));
+		}
+	}
+
+	private void addLocally(Collection<String> accountNumbers) {
+		ScalableBloomFilter building = this.building;
+		ScalableBloomFilter filter = this.filter;
+		for (String accountNumber : accountNumbers) {
+			if (building != null) {
+				building.add(accountNumber);
+			}
+			if (filter != null) {
+				filter.add(accountNumber);
+			}
+		}
+	}
+
+	/**
+	 * Message: the added account numbers, one per line.
+	 */
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String body = new String(message.getBody(), StandardCharsets.UTF_8);
+		if (body.startsWith("\n")) { // a subscription check, of this node or another one
+			CountDownLatch subscriptionChecked = this.subscriptionChecked;
+			if (body.equals(subscriptionCheck) && subscriptionChecked != null) {
+				subscriptionChecked.countDown();
+			}
+			return;
+		}
+		addLocally(Arrays.asList(body.split("\n")));
+	}
+
+	/**
+	 * Drop the filter, so that every lookup goes to Redis, and rebuild it once subscribed again.
+	 */
+	@EventListener
+	public void onSubscriptionLost(RedisSubscriptionLostEvent event) {
+		if (!enabled || !published) {
+			return;
+		}
+		synchronized (filterLock) {
+			subscriptionLosses.incrementAndGet();
+			if (filter != null) {
+				logger.warn("account number filter dropped until the pub/sub subscription is restored");
+			}
+			filter = null;
+		}
+		if (rebuildExecutor != null && rebuildPending.compareAndSet(false, true)) {
+			rebuildExecutor.execute(() -> {
+				rebuildPending.set(false);
+				rebuildQuietly();
+			});
+		}
+	}
+
+	/**
+	 * Publish messages on the channel until one of them is received back.
+	 */
+	private void awaitSubscription() throws InterruptedException {
+		while (true) {
+			subscriptionChecked = new CountDownLatch(1);
+			subscriptionCheck = "\n" + UUID.randomUUID();
+			try {
+				stringRedisTemplate.convertAndSend(channel, subscriptionCheck);
+				if (subscriptionChecked.await(SUBSCRIPTION_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			}
+			catch(RuntimeException e) {
+				logger.debug("Unable to check the pub/sub subscription", e);
+				Thread.sleep(SUBSCRIPTION_CHECK_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * Build a new filter from all stored account numbers, and replace the current one with it.
+	 * @return the number of account numbers in the new filter
+	 */
+	public synchronized long rebuild() {
+		long start = System.currentTimeMillis();
+		long losses = subscriptionLosses.get();
+		ScalableBloomFilter current = filter;
+		ScalableBloomFilter next = new ScalableBloomFilter(
+				Math.max(expectedAccounts, current == null ? 0 : current.count()), falsePositiveRate);
+		building = next;
+		try {
+			keyStore.scan(scanCount, accountNumbers -> accountNumbers.forEach(next::add));
+			synchronized (filterLock) {
+				if (subscriptionLosses.get() != losses) {
+					logger.warn("account number filter discarded: the pub/sub subscription was lost during the build");
+					return next.count();
+				}
+				filter = next;
+			}
+		}
+		finally {
+			building = null;
+		}
+		rebuilds.increment();
+		rebuildMillis = System.currentTimeMillis() - start;
+		logger.info("account number filter built: {} accounts, {} KB, in {} ms",
+				next.count(), next.sizeInBytes() >> 10, rebuildMillis);
+		return next.count();
+	}
+
+	private void rebuildQuietly() {
+		try {
+			if (published) {
+				awaitSubscription();
+			}
+			rebuild();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch(Exception e) { // keep the schedule running, and the previous filter
+			rebuildErrors.increment();
+			logger.error("Unable to build the account number filter", e);
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (!enabled) {
+			return metrics;
+		}
+		ScalableBloomFilter filter = this.filter;
+		long misses = shortCircuits.sum() + falsePositives.sum();
+		metrics.add(new Metric<Integer>("keys.bloom-filter.ready", filter == null ? 0 : 1));
+		if (filter != null) {
+			metrics.add(new Metric<Long>("keys.bloom-filter.accounts", filter.count()));
+			metrics.add(new Metric<Integer>("keys.bloom-filter.stages", filter.stages()));
+			metrics.add(new Metric<Long>("keys.bloom-filter.bytes", filter.sizeInBytes()));
+			metrics.add(new Metric<Double>("keys.bloom-filter.expected-false-positive-rate", filter.expectedFalsePositiveRate()));
+		}
+		metrics.add(new Metric<Long>("keys.bloom-filter.lookups", lookups.sum()));
+		metrics.add(new Metric<Long>("keys.bloom-filter.short-circuits", shortCircuits.sum()));
+		metrics.add(new Metric<Long>("keys.bloom-filter.false-positives", falsePositives.sum()));
+		metrics.add(new Metric<Double>("keys.bloom-filter.false-positive-rate", misses == 0 ? 0.0 : (double) falsePositives.sum() / misses));
+		metrics.add(new Metric<Long>("keys.bloom-filter.rebuilds", rebuilds.sum()));
+		metrics.add(new Metric<Long>("keys.bloom-filter.rebuild-errors", rebuildErrors.sum()));
+		metrics.add(new Metric<Long>("keys.bloom-filter.subscription-losses", subscriptionLosses.get()));
+		metrics.add(new Metric<Long>("keys.bloom-filter.rebuild.duration", rebuildMillis));
+		return metrics;
+	}
+}
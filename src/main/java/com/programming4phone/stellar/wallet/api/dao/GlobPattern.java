@@ -0,0 +1,64 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Glob-style pattern selecting account numbers, with the syntax of the MATCH option of the Redis SCAN command:
+ * <code>*</code> matches any characters, <code>?</code> a single character, <code>[abc]</code>, <code>[^abc]</code>
+ * and <code>[a-c]</code> a character of a set, and <code>\</code> escapes the next character.
+ * <br/><br/>
+ * {@link KeyStore#scan(String, int, java.util.function.BiConsumer)} returns the account numbers of every store layout,
+ * so the pattern is applied to its chunks rather than sent to Redis with the SCAN.
+ */
+public final class GlobPattern implements Predicate<String> {
+
+	private final Pattern pattern;
+
+	/**
+	 * @param glob String, <code>*</code> to select every account number
+	 */
+	public GlobPattern(String glob) {
+		pattern = "*".equals(glob) ? null : Pattern.compile(toRegex(glob), Pattern.DOTALL);
+	}
+
+	@Override
+	public boolean test(String accountNumber) {
+		return pattern == null || pattern.matcher(accountNumber).matches();
+	}
+
+	private static String toRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			int end = c == '[' ? glob.indexOf(']', i + 2) : -1;
+			if (c == '*') {
+				regex.append(".*");
+			}
+			else if (c == '?') {
+				regex.append('.');
+			}
+			else if (c == '\\' && i + 1 < glob.length()) {
+				regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+			}
+			else if (end > 0) {
+				regex.append('[');
+				int start = i + 1;
+				if (glob.charAt(start) == '^') {
+					regex.append('^');
+					start++;
+				}
+				for (int j = start; j < end; j++) {
+					char member = glob.charAt(j);
+					regex.append(member == '-' || Character.isLetterOrDigit(member) ? "" : "\\").append(member);
+				}
+				regex.append(']');
+				i = end;
+			}
+			else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+}
@@ -0,0 +1,106 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.Pool;
+
+/**
+ * JedisConnectionFactory that publishes the state of its connection pool
+ * (active and idle connections, waiting threads and borrow wait times) on the actuator metrics endpoint.
+ * For a Redis Cluster, Jedis keeps one pool per node internally and no pool metrics are published.
+ */
+public class InstrumentedJedisConnectionFactory extends JedisConnectionFactory implements PublicMetrics {
+
+	private volatile Pool<Jedis> pool;
+
+	private final boolean cluster;
+
+	public InstrumentedJedisConnectionFactory(JedisPoolConfig poolConfig) {
+		super(poolConfig);
+		cluster = false;
+	}
+
+	public InstrumentedJedisConnectionFactory(RedisClusterConfiguration clusterConfig, JedisPoolConfig poolConfig) {
+		super(clusterConfig, poolConfig);
+		cluster = true;
+	}
+
+	/**
+	 * @return true if the connections are Redis Cluster connections, which route every command to the node
+	 * serving its key but cannot pipeline commands
+	 */
+	public boolean isCluster() {
+		return cluster;
+	}
+
+	/**
+	 * @return the address of the Redis, or of every Redis Cluster master
+	 */
+	public List<HostAndPort> masters() {
+		if (!cluster) {
+			return Collections.singletonList(new HostAndPort(getHostName(), getPort()));
+		}
+		RedisClusterConnection connection = getClusterConnection();
+		try {
+			List<HostAndPort> masters = new ArrayList<>();
+			for (RedisClusterNode node : connection.clusterGetNodes()) {
+				if (node.isMaster()) {
+					masters.add(new HostAndPort(node.getHost(), node.getPort()));
+				}
+			}
+			return masters;
+		}
+		finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Open a connection outside the pool, e.g. to SCAN a node of a cluster, which cluster connections cannot do.
+	 * @param node HostAndPort, one of the {@link #masters()}
+	 * @return a new connection, closed by the caller
+	 */
+	public Jedis connect(HostAndPort node) {
+		Jedis jedis = new Jedis(node.getHost(), node.getPort(), getTimeout());
+		if (getPassword() != null && !getPassword().isEmpty()) {
+			jedis.auth(getPassword());
+		}
+		if (!cluster && getDatabase() != 0) {
+			jedis.select(getDatabase());
+		}
+		return jedis;
+	}
+
+	@Override
+	protected Pool<Jedis> createRedisPool() {
+		pool = super.createRedisPool();
+		return pool;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		Pool<Jedis> pool = this.pool;
+		if (pool != null && !pool.isClosed()) {
+			metrics.add(new Metric<Integer>("redis.pool.active", pool.getNumActive()));
+			metrics.add(new Metric<Integer>("redis.pool.idle", pool.getNumIdle()));
+			metrics.add(new Metric<Integer>("redis.pool.waiters", pool.getNumWaiters()));
+			metrics.add(new Metric<Long>("redis.pool.borrow.wait.mean", pool.getMeanBorrowWaitTimeMillis()));
+			metrics.add(new Metric<Long>("redis.pool.borrow.wait.max", pool.getMaxBorrowWaitTimeMillis()));
+		}
+		return metrics;
+	}
+}
@@ -1,16 +1,26 @@
 package com.programming4phone.stellar.wallet.api.dao;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 
 import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeysResult;
+import com.programming4phone.stellar.wallet.api.error.BatchTooLargeException;
 import com.programming4phone.stellar.wallet.api.error.InvalidKeyException;
 import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+import com.programming4phone.stellar.wallet.api.ratelimit.RateLimiter;
 
 @Component
 public class KeyDao {
@@ -18,47 +28,204 @@ public class KeyDao {
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 	
 	@Autowired
-	private StringRedisTemplate stringRedisTemplate;
+	private KeyStore keyStore;
+	
+	@Autowired
+	private SeedNearCache seedNearCache;
+	
+	@Autowired
+	private AccountNumberFilter accountNumberFilter;
+	
+	@Autowired
+	private RateLimiter rateLimiter;
+	
+	@Value("${wallet.batch.max-size:1000}")
+	private int maxBatchSize;
 
 	/**
-	 * Removes the account number from the Redis database.
+	 * Removes the account number from the key store, see {@link KeyStore}.
 	 * @param accountNumber String
+	 * @throws com.programming4phone.stellar.wallet.api.error.InvalidKeyException
 	 */
 	public void removeAccount(String accountNumber) {
-		logger.info("accountNumber: " + accountNumber);
-		stringRedisTemplate.delete(accountNumber);
-		logger.info("deleted accountNumber: " + accountNumber);
+		checkAccountNumber(accountNumber);
+		keyStore.delete(accountNumber);
+		seedNearCache.invalidate(Collections.singletonList(accountNumber));
+		logger.debug("deleted accountNumber: {}", accountNumber);
 	}
 	
 	/**
-	 * Save an account to the Redis database. The key is set to PERSIST so that it never expires.
+	 * Save an account to the key store. The account never expires.
 	 * @param walletKeys WalletKeys
 	 * @throws com.programming4phone.stellar.wallet.api.error.InvalidKeyException
 	 */
 	public void saveAccount(WalletKeys walletKeys) {
-		logger.info("walletKeys: " + walletKeys.toString());
-		Optional.ofNullable(walletKeys.getAccountNumber()).orElseThrow(InvalidKeyException::new);
+		checkAccountNumber(walletKeys.getAccountNumber());
 		Optional.ofNullable(walletKeys.getSecretSeed()).orElseThrow(InvalidKeyException::new);
-		stringRedisTemplate.opsForValue().set(walletKeys.getAccountNumber(), walletKeys.getSecretSeed());
-		logger.info("set accountKeys: " + walletKeys.toString());
-		stringRedisTemplate.persist(walletKeys.getAccountNumber());
-		logger.info("persist accountKeys: " + walletKeys.toString());
+		keyStore.set(walletKeys.getAccountNumber(), walletKeys.getSecretSeed());
+		seedNearCache.invalidate(Collections.singletonList(walletKeys.getAccountNumber()));
+		accountNumberFilter.add(Collections.singletonList(walletKeys.getAccountNumber()));
+		logger.debug("set accountKeys: {}", walletKeys);
 	}
 	
 	/**
 	 * Retrieve the secret seed for an account number. An exception is thrown
 	 * if the key does not exist, ultimately resulting in an Http Status code 404 (NOT_FOUND).
+	 * When the near cache is enabled, recently read seeds are served without a Redis round trip. With
+	 * replica reads enabled, the seed is read from a replica, see {@link ReplicaReadRouter}; only seeds
+	 * read from the master are put into the near cache, since a replica may not have applied a change yet
+	 * when its invalidation message arrives. With the account number filter enabled, account numbers that
+	 * definitely do not exist are not looked up, see {@link AccountNumberFilter}.
 	 * @param accountNumber String
 	 * @return <b>WalletKeys</b> containing account number and secret seed
 	 * @throws com.programming4phone.stellar.wallet.api.error.KeyNotFoundException
+	 * @throws com.programming4phone.stellar.wallet.api.error.InvalidKeyException
 	 */
 	public WalletKeys getSecretSeed(String accountNumber) {
-		logger.info("accountNumber: " + accountNumber);
-		String secretSeed = Optional.ofNullable(stringRedisTemplate.opsForValue().get(accountNumber))
-				.orElseThrow(KeyNotFoundException::new);
-		logger.info("secretSeed: " + secretSeed);
-		WalletKeys walletKeys = new WalletKeys().setAccountNumber(accountNumber).setSecretSeed(secretSeed);
-		logger.info("walletKeys: " + walletKeys.toString());
-		return walletKeys;
+		checkAccountNumber(accountNumber);
+		String secretSeed = seedNearCache.get(accountNumber);
+		if (secretSeed == null) {
+			if (!accountNumberFilter.mightContain(accountNumber)) {
+				throw new KeyNotFoundException();
+			}
+			long generation = seedNearCache.generation();
+			Supplier<String> masterRead = () -> {
+				String masterSecretSeed = keyStore.get(accountNumber);
+				if (masterSecretSeed != null) {
+					seedNearCache.put(accountNumber, masterSecretSeed, generation);
+				}
+				return masterSecretSeed;
+			};
+			secretSeed = keyStore.get(accountNumber, masterRead);
+			if (secretSeed == null) {
+				accountNumberFilter.falsePositive();
+				throw new KeyNotFoundException();
+			}
+		}
+		logger.debug("retrieved accountNumber: {}", accountNumber);
+		return new WalletKeys().setAccountNumber(accountNumber).setSecretSeed(secretSeed);
+	}
+	
+	/**
+	 * Retrieve the secret seeds for a list of account numbers with a single MGET (see {@link KeyStore#multiGet(List)}).
+	 * Each result carries status 200 (OK) with the secret seed, 404 (NOT_FOUND) if the key does not exist,
+	 * or 400 (BAD_REQUEST) if the account number is missing or invalid. Account numbers that definitely do not exist
+	 * are not looked up, see {@link AccountNumberFilter}.
+	 * @param accountNumbers List of String
+	 * @return <b>List</b> of WalletKeysResult, in the order of the account numbers
+	 * @throws com.programming4phone.stellar.wallet.api.error.BatchTooLargeException
+	 */
+	public List<WalletKeysResult> getSecretSeeds(List<String> accountNumbers) {
+		checkBatchSize(accountNumbers);
+		List<String> candidates = new ArrayList<>();
+		List<WalletKeysResult> results = new ArrayList<>(accountNumbers.size());
+		for (String accountNumber : accountNumbers) {
+			WalletKeysResult result = new WalletKeysResult().setAccountNumber(accountNumber);
+			if (!isValid(accountNumber)) {
+				result.setStatus(HttpStatus.BAD_REQUEST.value());
+			}
+			else if (!accountNumberFilter.mightContain(accountNumber)) {
+				result.setStatus(HttpStatus.NOT_FOUND.value());
+			}
+			else {
+				candidates.add(accountNumber); // status set once read
+			}
+			results.add(result);
+		}
+		if (!candidates.isEmpty()) {
+			Iterator<String> secretSeeds = keyStore.multiGet(candidates).iterator();
+			for (WalletKeysResult result : results) {
+				if (result.getStatus() == 0) {
+					String secretSeed = secretSeeds.next();
+					if (secretSeed == null) {
+						accountNumberFilter.falsePositive();
+					}
+					result.setSecretSeed(secretSeed)
+						.setStatus(secretSeed == null ? HttpStatus.NOT_FOUND.value() : HttpStatus.OK.value());
+				}
+			}
+		}
+		logger.debug("retrieved accountNumbers: {}", accountNumbers.size());
+		return results;
+	}
+	
+	/**
+	 * Save a list of accounts to the key store, pipelining one SET per account (see {@link KeyStore#multiSet(List, List)}).
+	 * Each result carries status 201 (CREATED), or 400 (BAD_REQUEST) if either key is missing or the account number is invalid.
+	 * @param walletKeysList List of WalletKeys
+	 * @return <b>List</b> of WalletKeysResult, in the order of the accounts
+	 * @throws com.programming4phone.stellar.wallet.api.error.BatchTooLargeException
+	 */
+	public List<WalletKeysResult> saveAccounts(List<WalletKeys> walletKeysList) {
+		checkBatchSize(walletKeysList);
+		List<WalletKeysResult> results = new ArrayList<>(walletKeysList.size());
+		List<WalletKeys> validWalletKeys = new ArrayList<>();
+		for (WalletKeys walletKeys : walletKeysList) {
+			boolean valid = walletKeys != null && isValid(walletKeys.getAccountNumber()) && walletKeys.getSecretSeed() != null;
+			if (valid) {
+				validWalletKeys.add(walletKeys);
+			}
+			results.add(new WalletKeysResult()
+					.setAccountNumber(walletKeys == null ? null : walletKeys.getAccountNumber())
+					.setStatus(valid ? HttpStatus.CREATED.value() : HttpStatus.BAD_REQUEST.value()));
+		}
+		if (!validWalletKeys.isEmpty()) {
+			List<String> validAccountNumbers = validWalletKeys.stream().map(WalletKeys::getAccountNumber).collect(Collectors.toList());
+			keyStore.multiSet(validAccountNumbers, validWalletKeys.stream().map(WalletKeys::getSecretSeed).collect(Collectors.toList()));
+			seedNearCache.invalidate(validAccountNumbers);
+			accountNumberFilter.add(validAccountNumbers);
+		}
+		logger.debug("set accountNumbers: {}", validWalletKeys.size());
+		return results;
+	}
+	
+	/**
+	 * Remove a list of account numbers from the key store, pipelining one DEL per account (see {@link KeyStore#multiDelete(List)}).
+	 * Each result carries status 200 (OK), 404 (NOT_FOUND) if the key did not exist,
+	 * or 400 (BAD_REQUEST) if the account number is missing or invalid.
+	 * @param accountNumbers List of String
+	 * @return <b>List</b> of WalletKeysResult, in the order of the account numbers
+	 * @throws com.programming4phone.stellar.wallet.api.error.BatchTooLargeException
+	 */
+	public List<WalletKeysResult> removeAccounts(List<String> accountNumbers) {
+		checkBatchSize(accountNumbers);
+		List<String> validAccountNumbers = new ArrayList<>();
+		accountNumbers.stream().filter(this::isValid).forEach(validAccountNumbers::add);
+		Iterator<Boolean> deleted = validAccountNumbers.isEmpty() ? null
+				: keyStore.multiDelete(validAccountNumbers).iterator();
+		seedNearCache.invalidate(validAccountNumbers);
+		List<WalletKeysResult> results = new ArrayList<>(accountNumbers.size());
+		for (String accountNumber : accountNumbers) {
+			WalletKeysResult result = new WalletKeysResult().setAccountNumber(accountNumber);
+			if (!isValid(accountNumber)) {
+				result.setStatus(HttpStatus.BAD_REQUEST.value());
+			}
+			else {
+				result.setStatus(deleted.next() ? HttpStatus.OK.value() : HttpStatus.NOT_FOUND.value());
+			}
+			results.add(result);
+		}
+		logger.debug("deleted accountNumbers: {}", validAccountNumbers.size());
+		return results;
+	}
+	
+	private void checkBatchSize(List<?> batch) {
+		Optional.ofNullable(batch).orElseThrow(InvalidKeyException::new);
+		if (batch.size() > maxBatchSize) {
+			throw new BatchTooLargeException();
+		}
+	}
+	
+	private void checkAccountNumber(String accountNumber) {
+		if (!isValid(accountNumber)) {
+			throw new InvalidKeyException();
+		}
+	}
+	
+	/**
+	 * Account numbers naming a shared rate limit bucket are invalid, see {@link RateLimiter#isBucketKey(String)}.
+	 */
+	private boolean isValid(String accountNumber) {
+		return accountNumber != null && !accountNumber.isEmpty() && !rateLimiter.isBucketKey(accountNumber);
 	}
 }
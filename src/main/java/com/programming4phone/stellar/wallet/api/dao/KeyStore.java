@@ -0,0 +1,92 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Storage of the account number / encrypted secret seed pairs behind {@link KeyDao}, selected with
+ * <i>wallet.store.type</i>:
+ * <ul>
+ *   <li><i>redis</i> (the default): {@link RedisKeyStore}</li>
+ *   <li><i>embedded</i>: {@link com.programming4phone.stellar.wallet.api.embedded.MappedLogKeyStore}, a local
+ *   memory-mapped log for single node deployments and tests</li>
+ * </ul>
+ * The batch methods take and return lists in the order of the account numbers.
+ */
+public interface KeyStore {
+
+	/**
+	 * @param accountNumber String
+	 * @return the encrypted secret seed, or null if the account number is not stored
+	 */
+	String get(String accountNumber);
+
+	/**
+	 * Read a secret seed where a value lagging slightly behind the writes is acceptable, e.g. from a replica.
+	 * @param accountNumber String
+	 * @param consistentRead reads the seed from the authoritative copy, through {@link #get(String)}
+	 * @return the encrypted secret seed, or null if the account number is not stored
+	 */
+	default String get(String accountNumber, Supplier<String> consistentRead) {
+		return consistentRead.get();
+	}
+
+	/**
+	 * @param accountNumbers List of String
+	 * @return <b>List</b> of the encrypted secret seeds, null for account numbers not stored
+	 */
+	List<String> multiGet(List<String> accountNumbers);
+
+	/**
+	 * @param accountNumber String
+	 * @param secretSeed String encrypted secret seed
+	 */
+	void set(String accountNumber, String secretSeed);
+
+	/**
+	 * @param accountNumbers List of String
+	 * @param secretSeeds List of String, in the order of the account numbers
+	 */
+	void multiSet(List<String> accountNumbers, List<String> secretSeeds);
+
+	/**
+	 * @param accountNumber String
+	 */
+	void delete(String accountNumber);
+
+	/**
+	 * @param accountNumbers List of String
+	 * @return <b>List</b> of Boolean, true if the account number was stored
+	 */
+	List<Boolean> multiDelete(List<String> accountNumbers);
+
+	/**
+	 * Compare and set: replace the secret seed of every account number that still holds the expected seed, each
+	 * atomically, so that a seed written in the meantime is never overwritten, e.g. by
+	 * {@link com.programming4phone.stellar.wallet.api.reencrypt.SeedReEncryptor}.
+	 * @param accountNumbers List of String
+	 * @param expectedSecretSeeds List of String, the encrypted secret seeds read before
+	 * @param secretSeeds List of String, the new encrypted secret seeds
+	 * @return <b>List</b> of Boolean, true if the seed was replaced, false if it had changed or been deleted
+	 */
+	List<Boolean> multiReplace(List<String> accountNumbers, List<String> expectedSecretSeeds, List<String> secretSeeds);
+
+	/**
+	 * Iterate over all stored account numbers, e.g. to rebuild {@link AccountNumberFilter}. Account numbers written
+	 * or deleted during the iteration may or may not be included, and an account number may be included twice.
+	 * @param count number of account numbers to read at a time, a hint
+	 * @param consumer receives the account numbers, a chunk at a time
+	 */
+	void scan(int count, Consumer<List<String>> consumer);
+
+	/**
+	 * Resumable {@link #scan(int, Consumer)}, e.g. for jobs that save their progress, with the same guarantees.
+	 * @param cursor position to start at, as passed to the consumer by an earlier scan, or null to start at the beginning
+	 * @param count number of account numbers to read at a time, a hint
+	 * @param consumer receives the account numbers, a chunk at a time, and the cursor to resume after the chunk,
+	 * null after the last chunk
+	 */
+	void scan(String cursor, int count, BiConsumer<List<String>, String> consumer);
+}
@@ -0,0 +1,393 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.bucket.BucketLayout;
+import com.programming4phone.stellar.wallet.api.ratelimit.RateLimiter;
+import com.programming4phone.stellar.wallet.api.shard.RedisShards;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+/**
+ * Stores every account number as a Redis string key holding the encrypted secret seed, on the Redis (or Redis Cluster)
+ * configured by <i>spring.redis.*</i>, or on one of the instances listed in <i>wallet.redis.shards.nodes</i>,
+ * see {@link RedisShards}. The key never expires: a plain SET discards any time to live previously associated
+ * with the key, so no separate PERSIST round trip is needed.
+ * <br/><br/>
+ * With <i>wallet.redis.layout=buckets</i>, the accounts are stored in hash buckets instead, see {@link BucketLayout}.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.store.type", havingValue = "redis", matchIfMissing = true)
+public class RedisKeyStore implements KeyStore {
+
+	/**
+	 * Set the new value only if the key still holds the value that was read. Returns 1, or 0 if the value changed.
+	 */
+	public static final String REPLACE_SCRIPT =
+			"if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('SET', KEYS[1], ARGV[2]) return 1 end return 0";
+
+	/**
+	 * Set the bucket field (KEYS[1], ARGV[1]) to the new encoded value (ARGV[3]) only if it still holds the encoded
+	 * value that was read (ARGV[2]), or, while migrating, if the field is missing and the string key (KEYS[2]) still
+	 * holds the value that was read (ARGV[4]); the string key is then deleted. Returns 1, or 0 if the value changed.
+	 */
+	static final String BUCKET_REPLACE_SCRIPT =
+			"local current = redis.call('HGET', KEYS[1], ARGV[1]) "
+			+ "if current == ARGV[2] or (not current and #KEYS == 2 and redis.call('GET', KEYS[2]) == ARGV[4]) then "
+			+ "redis.call('HSET', KEYS[1], ARGV[1], ARGV[3]) "
+			+ "if #KEYS == 2 then redis.call('DEL', KEYS[2]) end "
+			+ "return 1 end return 0";
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Autowired
+	private ReplicaReadRouter replicaReadRouter;
+
+	@Autowired
+	private InstrumentedJedisConnectionFactory redisConnectionFactory;
+
+	@Autowired
+	private RedisShards redisShards;
+
+	@Autowired
+	private BucketLayout bucketLayout;
+
+	@Autowired
+	private RateLimiter rateLimiter;
+
+	@PostConstruct
+	public void init() {
+		if (bucketLayout.isEnabled() && redisShards.isEnabled()) {
+			throw new IllegalStateException("wallet.redis.layout=buckets does not support wallet.redis.shards.nodes");
+		}
+	}
+
+	@Override
+	public String get(String accountNumber) {
+		if (bucketLayout.isEnabled()) {
+			String secretSeed = BucketLayout.decode(stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+					connection.hGet(bucketLayout.bucket(accountNumber), bytes(accountNumber))));
+			if (secretSeed == null && bucketLayout.isMigrating()) {
+				secretSeed = stringRedisTemplate.opsForValue().get(accountNumber);
+				if (secretSeed != null) {
+					bucketLayout.stringRead();
+				}
+			}
+			return secretSeed;
+		}
+		return redisShards.isEnabled() ? redisShards.get(accountNumber) : stringRedisTemplate.opsForValue().get(accountNumber);
+	}
+
+	/**
+	 * With replica reads enabled, the seed is read from a replica, see {@link ReplicaReadRouter}.
+	 * Replica reads do not apply to sharded keys and buckets.
+	 */
+	@Override
+	public String get(String accountNumber, Supplier<String> consistentRead) {
+		return redisShards.isEnabled() || bucketLayout.isEnabled() ? consistentRead.get()
+				: replicaReadRouter.get(accountNumber, consistentRead);
+	}
+
+	/**
+	 * Read all seeds with a single MGET, one pipeline per shard, or pipelining one HGET per account, then
+	 * one GET per account not found while migrating.
+	 */
+	@Override
+	public List<String> multiGet(List<String> accountNumbers) {
+		if (bucketLayout.isEnabled()) {
+			List<String> secretSeeds = forEach(accountNumbers, (connection, accountNumber) ->
+					connection.hGet(bucketLayout.bucket(accountNumber), bytes(accountNumber))).stream()
+					.map(secretSeed -> BucketLayout.decode((byte[]) secretSeed))
+					.collect(Collectors.toList());
+			List<String> missing = new ArrayList<>();
+			for (int i = 0; i < accountNumbers.size(); i++) {
+				if (secretSeeds.get(i) == null && bucketLayout.isMigrating()) {
+					missing.add(accountNumbers.get(i));
+				}
+			}
+			if (!missing.isEmpty()) {
+				List<String> strings = stringRedisTemplate.opsForValue().multiGet(missing);
+				for (int i = 0, j = 0; i < accountNumbers.size(); i++) {
+					if (secretSeeds.get(i) == null) {
+						String secretSeed = strings.get(j++);
+						if (secretSeed != null) {
+							secretSeeds.set(i, secretSeed);
+							bucketLayout.stringRead();
+						}
+					}
+				}
+			}
+			return secretSeeds;
+		}
+		return redisShards.isEnabled() ? redisShards.multiGet(accountNumbers)
+				: stringRedisTemplate.opsForValue().multiGet(accountNumbers);
+	}
+
+	/**
+	 * In a bucket, the string key is deleted after writing the bucket while migrating, so that it cannot
+	 * shadow a later deletion.
+	 */
+	@Override
+	public void set(String accountNumber, String secretSeed) {
+		if (bucketLayout.isEnabled()) {
+			stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+					connection.hSet(bucketLayout.bucket(accountNumber), bytes(accountNumber), BucketLayout.encode(secretSeed)));
+			if (bucketLayout.isMigrating()) {
+				stringRedisTemplate.delete(accountNumber);
+			}
+		}
+		else if (redisShards.isEnabled()) {
+			redisShards.set(accountNumber, secretSeed);
+		}
+		else {
+			stringRedisTemplate.opsForValue().set(accountNumber, secretSeed);
+		}
+	}
+
+	/**
+	 * Pipeline one SET (or HSET) per account (see {@link #forEach(List, BiFunction)}), or one pipeline per shard.
+	 */
+	@Override
+	public void multiSet(List<String> accountNumbers, List<String> secretSeeds) {
+		if (redisShards.isEnabled()) {
+			redisShards.multiSet(accountNumbers, secretSeeds);
+		}
+		else if (bucketLayout.isEnabled()) {
+			forEach(indexes(accountNumbers), (connection, i) -> {
+				connection.hSet(bucketLayout.bucket(accountNumbers.get(i)), bytes(accountNumbers.get(i)),
+						BucketLayout.encode(secretSeeds.get(i)));
+				return bucketLayout.isMigrating() ? connection.del(accountNumbers.get(i)) : null;
+			});
+		}
+		else {
+			forEach(indexes(accountNumbers), (connection, i) -> {
+				connection.set(accountNumbers.get(i), secretSeeds.get(i));
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * In a bucket, the string key is deleted before the bucket field while migrating, so that a concurrent
+	 * {@link com.programming4phone.stellar.wallet.api.bucket.BucketMigrator} cannot bring the account back.
+	 */
+	@Override
+	public void delete(String accountNumber) {
+		if (redisShards.isEnabled()) {
+			redisShards.delete(accountNumber);
+			return;
+		}
+		if (!bucketLayout.isEnabled() || bucketLayout.isMigrating()) {
+			stringRedisTemplate.delete(accountNumber);
+		}
+		if (bucketLayout.isEnabled()) {
+			stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+					connection.hDel(bucketLayout.bucket(accountNumber), bytes(accountNumber)));
+		}
+	}
+
+	/**
+	 * Pipeline one DEL (or HDEL) per account (see {@link #forEach(List, BiFunction)}), or one pipeline per shard.
+	 */
+	@Override
+	public List<Boolean> multiDelete(List<String> accountNumbers) {
+		if (redisShards.isEnabled()) {
+			return redisShards.multiDelete(accountNumbers);
+		}
+		if (!bucketLayout.isEnabled()) {
+			return forEach(accountNumbers, StringRedisConnection::del).stream()
+					.map(deleted -> Long.valueOf(1).equals(deleted))
+					.collect(Collectors.toList());
+		}
+		boolean migrating = bucketLayout.isMigrating();
+		List<Object> results = forEach(accountNumbers, (connection, accountNumber) -> {
+			Long deletedString = migrating ? connection.del(accountNumber) : null;
+			Long deletedField = connection.hDel(bucketLayout.bucket(accountNumber), bytes(accountNumber));
+			return Long.valueOf(1).equals(deletedString) || Long.valueOf(1).equals(deletedField) ? 1L : 0L;
+		});
+		// pipelined, the results are those of every command sent, otherwise the one returned per account
+		List<Boolean> deleted = new ArrayList<>(accountNumbers.size());
+		int resultsPerAccount = results.size() / Math.max(accountNumbers.size(), 1);
+		for (int i = 0; i < accountNumbers.size(); i++) {
+			boolean existed = false;
+			for (int j = 0; j < resultsPerAccount; j++) {
+				existed |= Long.valueOf(1).equals(results.get(i * resultsPerAccount + j));
+			}
+			deleted.add(existed);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Run {@link #REPLACE_SCRIPT}, or {@link #BUCKET_REPLACE_SCRIPT}, once per account, see
+	 * {@link #evalForEach(String, int, List)}, or on the shards, see {@link RedisShards#multiReplace(List, List, List)}.
+	 * The bucket of an account has the hash slot of its string key, so both may be passed to one script on a cluster.
+	 */
+	@Override
+	public List<Boolean> multiReplace(List<String> accountNumbers, List<String> expectedSecretSeeds, List<String> secretSeeds) {
+		if (redisShards.isEnabled()) {
+			return redisShards.multiReplace(accountNumbers, expectedSecretSeeds, secretSeeds);
+		}
+		List<byte[][]> keysAndArgs = new ArrayList<>(accountNumbers.size());
+		if (!bucketLayout.isEnabled()) {
+			for (int i = 0; i < accountNumbers.size(); i++) {
+				keysAndArgs.add(new byte[][] { bytes(accountNumbers.get(i)), bytes(expectedSecretSeeds.get(i)), bytes(secretSeeds.get(i)) });
+			}
+			return evalForEach(REPLACE_SCRIPT, 1, keysAndArgs);
+		}
+		boolean migrating = bucketLayout.isMigrating();
+		for (int i = 0; i < accountNumbers.size(); i++) {
+			String accountNumber = accountNumbers.get(i);
+			byte[] bucket = bucketLayout.bucket(accountNumber);
+			byte[] field = bytes(accountNumber);
+			byte[] expected = BucketLayout.encode(expectedSecretSeeds.get(i));
+			byte[] secretSeed = BucketLayout.encode(secretSeeds.get(i));
+			keysAndArgs.add(migrating ? new byte[][] { bucket, field, field, expected, secretSeed, bytes(expectedSecretSeeds.get(i)) }
+					: new byte[][] { bucket, field, expected, secretSeed });
+		}
+		return evalForEach(BUCKET_REPLACE_SCRIPT, migrating ? 2 : 1, keysAndArgs);
+	}
+
+	@Override
+	public void scan(int count, Consumer<List<String>> consumer) {
+		scan(null, count, (accountNumbers, next) -> consumer.accept(accountNumbers));
+	}
+
+	/**
+	 * SCAN every Redis: the Redis, every master of a Redis Cluster, or every shard. Every key that is neither a bucket
+	 * nor a shared rate limit bucket ({@link RateLimiter#isBucketKey(String)}) is taken as an account number, and the fields of the buckets of a chunk are read with one pipelined HKEYS per bucket.
+	 * The cursor is the index of the Redis in that order, the masters of a cluster sorted by address, a colon and
+	 * the SCAN cursor on that Redis.
+	 */
+	@Override
+	public void scan(String cursor, int count, BiConsumer<List<String>, String> consumer) {
+		Collection<InstrumentedJedisConnectionFactory> connectionFactories = redisShards.isEnabled()
+				? redisShards.connectionFactories() : Collections.singletonList(redisConnectionFactory);
+		List<Node> nodes = new ArrayList<>();
+		for (InstrumentedJedisConnectionFactory connectionFactory : connectionFactories) {
+			connectionFactory.masters().stream().sorted(Comparator.comparing(HostAndPort::toString))
+					.forEach(master -> nodes.add(new Node(connectionFactory, master)));
+		}
+		int separator = cursor == null ? -1 : cursor.indexOf(':');
+		String scanCursor = cursor == null ? ScanParams.SCAN_POINTER_START : cursor.substring(separator + 1);
+		for (int node = separator < 0 ? 0 : Integer.parseInt(cursor.substring(0, separator)); node < nodes.size(); node++) {
+			try (Jedis jedis = nodes.get(node).connectionFactory.connect(nodes.get(node).master)) {
+				do {
+					ScanResult<String> chunk = jedis.scan(scanCursor, new ScanParams().count(count));
+					List<String> accountNumbers = new ArrayList<>(chunk.getResult().size());
+					List<String> buckets = new ArrayList<>();
+					chunk.getResult().stream().filter(key -> !rateLimiter.isBucketKey(key))
+							.forEach(key -> (bucketLayout.isBucket(key) ? buckets : accountNumbers).add(key));
+					if (!buckets.isEmpty()) {
+						Pipeline pipeline = jedis.pipelined();
+						buckets.forEach(pipeline::hkeys);
+						pipeline.syncAndReturnAll().stream().filter(fields -> fields instanceof Collection)
+								.forEach(fields -> ((Collection<?>) fields).forEach(field -> accountNumbers.add((String) field)));
+					}
+					scanCursor = chunk.getStringCursor();
+					String next = !ScanParams.SCAN_POINTER_START.equals(scanCursor) ? node + ":" + scanCursor
+							: node + 1 < nodes.size() ? (node + 1) + ":" + ScanParams.SCAN_POINTER_START : null;
+					consumer.accept(accountNumbers, next);
+				} while (!ScanParams.SCAN_POINTER_START.equals(scanCursor));
+			}
+		}
+	}
+
+	/**
+	 * A Redis to SCAN.
+	 */
+	private static class Node {
+		final InstrumentedJedisConnectionFactory connectionFactory;
+		final HostAndPort master;
+		Node(InstrumentedJedisConnectionFactory connectionFactory, HostAndPort master) {
+			this.connectionFactory = connectionFactory;
+			this.master = master;
+		}
+	}
+
+	private static List<Integer> indexes(List<?> list) {
+		List<Integer> indexes = new ArrayList<>(list.size());
+		for (int i = 0; i < list.size(); i++) {
+			indexes.add(i);
+		}
+		return indexes;
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Run a script returning 1 or 0 once per item, pipelined in a single round trip, or one at a time on a cluster.
+	 * Spring Data Redis does not pipeline scripts with Jedis, so the native connection is used.
+	 * @param script String
+	 * @param keyCount number of keys among the parameters
+	 * @param keysAndArgs List of the keys and arguments of every item
+	 * @return <b>List</b> of Boolean, true if the script returned 1, in the order of the items
+	 */
+	private List<Boolean> evalForEach(String script, int keyCount, List<byte[][]> keysAndArgs) {
+		byte[] scriptBytes = bytes(script);
+		List<Object> results = stringRedisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+			if (redisConnectionFactory.isCluster()) {
+				JedisCluster jedisCluster = (JedisCluster) connection.getNativeConnection();
+				return keysAndArgs.stream().map(params -> jedisCluster.eval(scriptBytes, keyCount, params))
+						.collect(Collectors.toList());
+			}
+			Jedis jedis = (Jedis) connection.getNativeConnection();
+			byte[] sha = jedis.scriptLoad(scriptBytes);
+			Pipeline pipeline = jedis.pipelined();
+			keysAndArgs.forEach(params -> pipeline.evalsha(sha, keyCount, params));
+			return pipeline.syncAndReturnAll();
+		});
+		return results.stream().map(result -> Long.valueOf(1).equals(result)).collect(Collectors.toList());
+	}
+
+	/**
+	 * Run one command per item, pipelined in a single round trip. Redis Cluster connections cannot pipeline,
+	 * so on a cluster every command is sent on its own to the node serving its key.
+	 * @param items List of items
+	 * @param command issues the command for an item
+	 * @return <b>List</b> of the command results, in the order of the items
+	 */
+	private <T> List<Object> forEach(List<T> items, BiFunction<StringRedisConnection, T, Object> command) {
+		if (!redisConnectionFactory.isCluster()) {
+			return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+				items.forEach(item -> command.apply(stringRedisConnection, item));
+				return null;
+			}, (RedisSerializer<?>) null); // keep the bucket values as bytes
+		}
+		return stringRedisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+			StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+			List<Object> results = new ArrayList<>(items.size());
+			items.forEach(item -> results.add(command.apply(stringRedisConnection, item)));
+			return results;
+		});
+	}
+}
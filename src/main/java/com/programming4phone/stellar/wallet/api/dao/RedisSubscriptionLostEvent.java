@@ -0,0 +1,27 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when the Redis pub/sub subscriptions of the message listener container fail, e.g. on a lost
+ * connection. Messages published until the container has subscribed again are not received.
+ */
+public class RedisSubscriptionLostEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient Throwable cause;
+
+	/**
+	 * @param source the message listener container
+	 * @param cause Throwable the subscriptions failed with
+	 */
+	public RedisSubscriptionLostEvent(Object source, Throwable cause) {
+		super(source);
+		this.cause = cause;
+	}
+
+	public Throwable getCause() {
+		return cause;
+	}
+}
@@ -0,0 +1,242 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * Routes the secret seed reads of {@link KeyDao#getSecretSeed(String)} to Redis replicas when
+ * <i>wallet.redis.replica-reads.enabled</i> is set, so that reads scale out with the replicas while writes and
+ * deletes keep going to the masters.
+ * <br/><br/>
+ * The replicas are discovered from the <code>INFO replication</code> section of the master, or of every master
+ * of a Redis Cluster, where a key is read from a replica of the master serving its hash slot. The first read
+ * after <i>wallet.redis.replica-reads.refresh-millis</i> refreshes the replicas; concurrent reads meanwhile use
+ * the previous ones.
+ * <br/><br/>
+ * Staleness policy:
+ * <ul>
+ *   <li>a replica is only read while its replication link is online and it has acknowledged the replication
+ *   stream within the last <i>wallet.redis.replica-reads.max-lag-seconds</i>, so a replica read returns a value
+ *   at most about that old</li>
+ *   <li>a key missing on the replica is read again from the master, since it may just have been created
+ *   (<i>wallet.redis.replica-reads.verify-misses</i>)</li>
+ *   <li>a failed replica read, or a read finding no eligible replica, goes to the master</li>
+ * </ul>
+ */
+@Component
+public class ReplicaReadRouter implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private InstrumentedJedisConnectionFactory redisConnectionFactory;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Value("${wallet.redis.replica-reads.enabled:false}")
+	private boolean enabled;
+
+	@Value("${wallet.redis.replica-reads.max-lag-seconds:1}")
+	private long maxLagSeconds;
+
+	@Value("${wallet.redis.replica-reads.verify-misses:true}")
+	private boolean verifyMisses;
+
+	@Value("${wallet.redis.replica-reads.refresh-millis:5000}")
+	private long refreshMillis;
+
+	private volatile List<Shard> shards = Collections.emptyList();
+	private volatile long refreshedAt;
+	private final ReentrantLock refreshLock = new ReentrantLock();
+
+	private final Map<HostAndPort, JedisPool> pools = new ConcurrentHashMap<>();
+	private final Set<Jedis> readOnlyConnections = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	private final LongAdder replicaReads = new LongAdder();
+	private final LongAdder masterReads = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+
+	/**
+	 * A master, or null for a single Redis, and its eligible replicas.
+	 */
+	private static class Shard {
+		final RedisClusterNode master;
+		final List<HostAndPort> replicas;
+
+		Shard(RedisClusterNode master, List<HostAndPort> replicas) {
+			this.master = master;
+			this.replicas = replicas;
+		}
+	}
+
+	/**
+	 * Read a key from an eligible replica, or from the master.
+	 * @param key String
+	 * @param masterRead reads the key from the master
+	 * @return the value, or null if the key does not exist
+	 */
+	public String get(String key, Supplier<String> masterRead) {
+		if (!enabled) {
+			return masterRead.get();
+		}
+		HostAndPort replica = pick(key);
+		if (replica != null) {
+			try (Jedis jedis = pool(replica).getResource()) {
+				if (redisConnectionFactory.isCluster() && readOnlyConnections.add(jedis)) {
+					jedis.readonly(); // a cluster replica redirects reads to its master unless told otherwise
+				}
+				String value = jedis.get(key);
+				replicaReads.increment();
+				if (value != null || !verifyMisses) {
+					return value;
+				}
+				misses.increment();
+			}
+			catch (JedisException e) {
+				errors.increment();
+				logger.warn("Unable to read from replica {}, reading from the master: {}", replica, e.getMessage());
+			}
+		}
+		masterReads.increment();
+		return masterRead.get();
+	}
+
+	private HostAndPort pick(String key) {
+		refreshIfDue();
+		int slot = redisConnectionFactory.isCluster() ? ClusterSlotHashUtil.calculateSlot(key) : 0;
+		for (Shard shard : shards) {
+			if (shard.master == null || shard.master.servesSlot(slot)) {
+				return shard.replicas.isEmpty() ? null
+						: shard.replicas.get(ThreadLocalRandom.current().nextInt(shard.replicas.size()));
+			}
+		}
+		return null;
+	}
+
+	private void refreshIfDue() {
+		if (System.currentTimeMillis() - refreshedAt < refreshMillis || !refreshLock.tryLock()) {
+			return;
+		}
+		try {
+			if (System.currentTimeMillis() - refreshedAt >= refreshMillis) {
+				shards = discover();
+				refreshedAt = System.currentTimeMillis();
+			}
+		}
+		catch (RuntimeException e) {
+			shards = Collections.emptyList();
+			refreshedAt = System.currentTimeMillis();
+			logger.warn("Unable to discover the Redis replicas, reading from the masters: {}", e.getMessage());
+		}
+		finally {
+			refreshLock.unlock();
+		}
+	}
+
+	private List<Shard> discover() {
+		List<Shard> discovered = new ArrayList<>();
+		if (redisConnectionFactory.isCluster()) {
+			RedisClusterConnection connection = redisConnectionFactory.getClusterConnection();
+			try {
+				for (RedisClusterNode node : connection.clusterGetNodes()) {
+					if (node.isMaster() && !node.isMarkedAsFail()) {
+						discovered.add(new Shard(node, replicas(connection.info(node, "replication"))));
+					}
+				}
+			}
+			finally {
+				connection.close();
+			}
+		}
+		else {
+			Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("replication"));
+			discovered.add(new Shard(null, replicas(info)));
+		}
+		Set<HostAndPort> replicas = new HashSet<>();
+		discovered.forEach(shard -> replicas.addAll(shard.replicas));
+		pools.keySet().stream().filter(replica -> !replicas.contains(replica)).forEach(replica -> pools.remove(replica).close());
+		return discovered;
+	}
+
+	/**
+	 * @param info INFO replication section of a master, listing its replicas as
+	 * <code>slave0:ip=10.0.0.2,port=6379,state=online,offset=1234,lag=0</code>
+	 * @return the replicas that are online and lag at most <i>max-lag-seconds</i>
+	 */
+	private List<HostAndPort> replicas(Properties info) {
+		List<HostAndPort> replicas = new ArrayList<>();
+		for (String name : info.stringPropertyNames()) {
+			if (!name.matches("slave\\d+")) {
+				continue;
+			}
+			Map<String, String> fields = new HashMap<>();
+			for (String field : info.getProperty(name).split(",")) {
+				String[] pair = field.split("=", 2);
+				fields.put(pair[0], pair.length == 2 ? pair[1] : "");
+			}
+			if ("online".equals(fields.get("state")) && fields.containsKey("lag")
+					&& Long.parseLong(fields.get("lag")) <= maxLagSeconds) {
+				replicas.add(new HostAndPort(fields.get("ip"), Integer.parseInt(fields.get("port"))));
+			}
+		}
+		return replicas;
+	}
+
+	private JedisPool pool(HostAndPort replica) {
+		return pools.computeIfAbsent(replica, address -> new JedisPool(redisConnectionFactory.getPoolConfig(),
+				address.getHost(), address.getPort(), redisConnectionFactory.getTimeout(), redisConnectionFactory.getPassword(),
+				redisConnectionFactory.isCluster() ? 0 : redisConnectionFactory.getDatabase()));
+	}
+
+	@PreDestroy
+	public void close() {
+		pools.values().forEach(JedisPool::close);
+		pools.clear();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Long>("keys.replica.reads", replicaReads.sum()));
+		metrics.add(new Metric<Long>("keys.replica.master-reads", masterReads.sum()));
+		metrics.add(new Metric<Long>("keys.replica.misses", misses.sum()));
+		metrics.add(new Metric<Long>("keys.replica.errors", errors.sum()));
+		metrics.add(new Metric<Integer>("keys.replica.available", shards.stream().mapToInt(shard -> shard.replicas.size()).sum()));
+		return metrics;
+	}
+}
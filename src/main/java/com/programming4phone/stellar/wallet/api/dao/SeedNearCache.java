@@ -0,0 +1,185 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.cache.ExpiringLruCache;
+
+/**
+ * Optional in-process cache of the encrypted secret seeds read by {@link KeyDao}.
+ * <br/><br/>
+ * Only the ciphertext stored in Redis is cached, never a decrypted seed. Every node publishes the account
+ * numbers it changes on a Redis pub/sub channel, and every node drops those accounts from its own cache when
+ * the message arrives, so a stale seed survives at most for the pub/sub delivery time (or the TTL, should a
+ * message be lost).
+ * <br/><br/>
+ * Messages published while the subscription is down are lost as well, so the whole cache is dropped on
+ * every failed (re)subscription attempt, see {@link RedisSubscriptionLostEvent}.
+ */
+@Component
+public class SeedNearCache implements MessageListener, PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Value("${keys.near-cache.enabled:false}")
+	private boolean enabled;
+
+	@Value("${keys.near-cache.max-size:10000}")
+	private int maxSize;
+
+	@Value("${keys.near-cache.ttl-seconds:300}")
+	private long ttlSeconds;
+
+	@Value("${keys.near-cache.channel:wallet:key:invalidate}")
+	private String channel;
+
+	private ExpiringLruCache<String, String> cache;
+
+	private final AtomicLong generation = new AtomicLong();
+	private final LongAdder invalidationsReceived = new LongAdder();
+	private final LongAdder invalidationLagTotal = new LongAdder();
+	private volatile long invalidationLagMax;
+
+	@PostConstruct
+	public void init() {
+		cache = new ExpiringLruCache<>(maxSize);
+		if (enabled) {
+			redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(channel));
+		}
+	}
+
+	/**
+	 * @param accountNumber String
+	 * @return the cached encrypted secret seed, or null if it is not cached
+	 */
+	public String get(String accountNumber) {
+		return enabled ? cache.get(accountNumber) : null;
+	}
+
+	/**
+	 * The invalidation generation must be taken <i>before</i> reading the seed from Redis and passed
+	 * to {@link #put}, so that a seed read concurrently with an invalidation is not cached.
+	 * @return the current invalidation generation
+	 */
+	public long generation() {
+		return generation.get();
+	}
+
+	/**
+	 * Cache a secret seed read from Redis, unless any account was invalidated since the read started.
+	 * @param accountNumber String
+	 * @param secretSeed String encrypted secret seed
+	 * @param readGeneration long invalidation generation taken before the read
+	 */
+	public void put(String accountNumber, String secretSeed, long readGeneration) {
+		if (enabled && generation.get() == readGeneration) {
+			cache.put(accountNumber, secretSeed, System.currentTimeMillis() + ttlSeconds * 1000);
+		}
+	}
+
+	/**
+	 * Drop changed accounts from this node's cache and tell all other nodes to do the same.
+	 * @param accountNumbers Collection of String
+	 */
+	public void invalidate(Collection<String> accountNumbers) {
+		if (!enabled || accountNumbers.isEmpty()) {
+			return;
+		}
+		evict(accountNumbers);
+		stringRedisTemplate.convertAndSend(channel, message(System.currentTimeMillis(), accountNumbers));
+	}
+
+	private void evict(Collection<String> accountNumbers) {
+		generation.incrementAndGet();
+		accountNumbers.forEach(cache::remove);
+	}
+
+	/**
+	 * Drop every cached seed, as the invalidations published until the container has subscribed again are lost.
+	 * The container reports every failed attempt, so at most the seeds read since the last attempt are cached
+	 * once it has subscribed again.
+	 */
+	@EventListener
+	public void onSubscriptionLost(RedisSubscriptionLostEvent event) {
+		if (!enabled) {
+			return;
+		}
+		generation.incrementAndGet();
+		cache.clear();
+		logger.warn("near cache cleared, the pub/sub subscription failed");
+	}
+
+	/**
+	 * Invalidation message: publish time stamp followed by the account numbers, one per line.
+	 */
+	static String message(long publishedAt, Collection<String> accountNumbers) {
+		return publishedAt + "\n" + String.join("\n", accountNumbers);
+	}
+
+	@Override
+	public void onMessage(Message message, byte[] pattern) {
+		String[] lines = new String(message.getBody(), StandardCharsets.UTF_8).split("\n");
+		Collection<String> accountNumbers = new ArrayList<>();
+		for (int i = 1; i < lines.length; i++) {
+			accountNumbers.add(lines[i]);
+		}
+		evict(accountNumbers);
+		try {
+			long lag = Math.max(0, System.currentTimeMillis() - Long.parseLong(lines[0]));
+			invalidationsReceived.increment();
+			invalidationLagTotal.add(lag);
+			if (lag > invalidationLagMax) {
+				invalidationLagMax = lag;
+			}
+		}
+		catch(NumberFormatException e) {
+			logger.error("Invalid near cache invalidation message on channel {}", channel);
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (!enabled) {
+			return metrics;
+		}
+		long hits = cache.getHits();
+		long lookups = hits + cache.getMisses();
+		long received = invalidationsReceived.sum();
+		metrics.add(new Metric<Integer>("keys.near-cache.size", cache.size()));
+		metrics.add(new Metric<Long>("keys.near-cache.hits", hits));
+		metrics.add(new Metric<Long>("keys.near-cache.misses", cache.getMisses()));
+		metrics.add(new Metric<Double>("keys.near-cache.hit-ratio", lookups == 0 ? 0.0 : (double) hits / lookups));
+		metrics.add(new Metric<Long>("keys.near-cache.evictions", cache.getEvictions()));
+		metrics.add(new Metric<Long>("keys.near-cache.expirations", cache.getExpirations()));
+		metrics.add(new Metric<Long>("keys.near-cache.invalidations", received));
+		metrics.add(new Metric<Long>("keys.near-cache.invalidation.lag.mean", received == 0 ? 0 : invalidationLagTotal.sum() / received));
+		metrics.add(new Metric<Long>("keys.near-cache.invalidation.lag.max", invalidationLagMax));
+		return metrics;
+	}
+}
@@ -0,0 +1,509 @@
+package com.programming4phone.stellar.wallet.api.embedded;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+import com.programming4phone.stellar.wallet.api.error.InvalidKeyException;
+
+/**
+ * Embedded key store, selected with <i>wallet.store.type=embedded</i>, keeping the account number / encrypted
+ * secret seed pairs in an append-only log of memory-mapped {@link Segment} files in <i>wallet.store.embedded.dir</i>,
+ * with an in-memory hash index from every account number to the location of its latest record.
+ * A read is an index lookup and a copy out of the page cache, without any network hop or system call.
+ * <br/><br/>
+ * Writes append a record (a deletion appends a tombstone) to the active segment under a lock, then publish its
+ * location in the index; reads take no lock. When the active segment is full, a new one is started.
+ * Records are written to the page cache, so they survive a crash of the application; with
+ * <i>wallet.store.embedded.force-writes</i>, every write also waits until its segment is on disk, so that it survives
+ * a crash of the operating system.
+ * <br/><br/>
+ * At startup, the records of all segments are replayed into the index; the record with the highest sequence number
+ * wins, and a record torn by a crash ends the replay of its segment. Writes then go to a new segment.
+ * <br/><br/>
+ * Compaction runs in the background every <i>wallet.store.embedded.compaction-interval-seconds</i>, once superseded
+ * records make up <i>wallet.store.embedded.compaction-min-garbage-ratio</i> of all full segments, see {@link #compact()}.
+ */
+@Component
+@ConditionalOnProperty(name = "wallet.store.type", havingValue = "embedded")
+public class MappedLogKeyStore implements KeyStore, PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final Pattern SEGMENT_FILE = Pattern.compile("keys-(\\d+)\\.log");
+	private static final String COMPACTING_SUFFIX = ".compacting";
+
+	@Value("${wallet.store.embedded.dir:keystore}")
+	private String dir;
+
+	@Value("${wallet.store.embedded.segment-size-kb:65536}")
+	private int segmentSizeKb;
+
+	@Value("${wallet.store.embedded.force-writes:false}")
+	private boolean forceWrites;
+
+	@Value("${wallet.store.embedded.compaction-interval-seconds:60}")
+	private long compactionIntervalSeconds;
+
+	@Value("${wallet.store.embedded.compaction-min-garbage-ratio:0.5}")
+	private double compactionMinGarbageRatio;
+
+	private Path directory;
+	private final ConcurrentHashMap<String, Long> index = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+	private final AtomicInteger nextSegmentId = new AtomicInteger(1);
+	private volatile Segment active;
+	private long nextSequence = 1; // guarded by this
+	private final Object compactionLock = new Object();
+	private ScheduledExecutorService compactionExecutor;
+
+	private final LongAdder compactions = new LongAdder();
+	private final LongAdder reclaimedBytes = new LongAdder();
+
+	@PostConstruct
+	public void open() throws IOException {
+		long startMillis = System.currentTimeMillis();
+		directory = Paths.get(dir);
+		Files.createDirectories(directory);
+		TreeMap<Integer, Path> files = new TreeMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					files.put(Integer.valueOf(matcher.group(1)), file);
+				}
+				else if (file.getFileName().toString().endsWith(COMPACTING_SUFFIX)) {
+					Files.delete(file); // interrupted compaction
+				}
+			}
+		}
+		Set<Integer> replaced = new TreeSet<>();
+		for (Map.Entry<Integer, Path> file : files.entrySet()) {
+			Segment segment = Segment.open(file.getValue(), file.getKey());
+			segments.put(segment.id, segment);
+			for (int id : segment.replaces) {
+				replaced.add(id);
+			}
+			nextSegmentId.set(Math.max(nextSegmentId.get(), segment.id + 1));
+		}
+		for (int id : replaced) {
+			Segment segment = segments.remove(id);
+			if (segment != null) { // compaction completed, but interrupted before deleting its input
+				Files.delete(segment.file);
+			}
+			nextSegmentId.set(Math.max(nextSegmentId.get(), id + 1));
+		}
+		long maxSequence = replay();
+		synchronized (this) {
+			nextSequence = maxSequence + 1;
+			roll(0);
+		}
+		if (compactionIntervalSeconds > 0) {
+			compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "keystore-compaction");
+				thread.setDaemon(true);
+				return thread;
+			});
+			compactionExecutor.scheduleWithFixedDelay(this::compactIfNeeded,
+					compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+		}
+		logger.info("opened key store {}: {} keys in {} segments in {} ms",
+				directory.toAbsolutePath(), index.size(), segments.size(), System.currentTimeMillis() - startMillis);
+	}
+
+	/**
+	 * Rebuild the index from all segments.
+	 * @return the highest sequence number found
+	 */
+	private long replay() {
+		Map<String, Long> sequences = new HashMap<>();
+		long maxSequence = 0;
+		for (Segment segment : sortedSegments(segments.values())) {
+			int offset = segment.start;
+			for (int next = segment.next(offset); next > 0; offset = next, next = segment.next(offset)) {
+				long sequence = segment.sequence(offset);
+				maxSequence = Math.max(maxSequence, sequence);
+				String key = segment.key(offset);
+				Long known = sequences.get(key);
+				if (known != null && known >= sequence) {
+					segment.garbage.addAndGet(next - offset);
+					continue;
+				}
+				sequences.put(key, sequence);
+				publish(segment, offset, key);
+			}
+			if (!segment.isEnd(offset)) {
+				logger.warn("ignoring torn record at offset {} of {}", offset, segment);
+			}
+		}
+		return maxSequence;
+	}
+
+	@PreDestroy
+	public void close() throws InterruptedException {
+		if (compactionExecutor != null) {
+			compactionExecutor.shutdown();
+			compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		synchronized (this) {
+			active.force();
+		}
+	}
+
+	@Override
+	public String get(String accountNumber) {
+		for (;;) {
+			Long location = index.get(accountNumber);
+			if (location == null) {
+				return null;
+			}
+			Segment segment = segments.get(segmentId(location));
+			if (segment != null) { // else moved by a compaction meanwhile
+				return segment.value(offset(location));
+			}
+		}
+	}
+
+	@Override
+	public List<String> multiGet(List<String> accountNumbers) {
+		return accountNumbers.stream().map(this::get).collect(Collectors.toList());
+	}
+
+	@Override
+	public synchronized void set(String accountNumber, String secretSeed) {
+		append(accountNumber, secretSeed);
+		forceIfConfigured();
+	}
+
+	@Override
+	public synchronized void multiSet(List<String> accountNumbers, List<String> secretSeeds) {
+		for (int i = 0; i < accountNumbers.size(); i++) {
+			append(accountNumbers.get(i), secretSeeds.get(i));
+		}
+		forceIfConfigured();
+	}
+
+	@Override
+	public synchronized void delete(String accountNumber) {
+		if (index.containsKey(accountNumber)) {
+			append(accountNumber, null);
+			forceIfConfigured();
+		}
+	}
+
+	@Override
+	public synchronized List<Boolean> multiDelete(List<String> accountNumbers) {
+		List<Boolean> results = new ArrayList<>(accountNumbers.size());
+		for (String accountNumber : accountNumbers) {
+			boolean exists = index.containsKey(accountNumber);
+			if (exists) {
+				append(accountNumber, null);
+			}
+			results.add(exists);
+		}
+		forceIfConfigured();
+		return results;
+	}
+
+	@Override
+	public synchronized List<Boolean> multiReplace(List<String> accountNumbers, List<String> expectedSecretSeeds,
+			List<String> secretSeeds) {
+		List<Boolean> results = new ArrayList<>(accountNumbers.size());
+		for (int i = 0; i < accountNumbers.size(); i++) {
+			boolean replaced = expectedSecretSeeds.get(i).equals(get(accountNumbers.get(i)));
+			if (replaced) {
+				append(accountNumbers.get(i), secretSeeds.get(i));
+			}
+			results.add(replaced);
+		}
+		forceIfConfigured();
+		return results;
+	}
+
+	/**
+	 * Iterate over the keys of the index, without locking it.
+	 */
+	@Override
+	public void scan(int count, Consumer<List<String>> consumer) {
+		List<String> chunk = new ArrayList<>(count);
+		for (String accountNumber : index.keySet()) {
+			chunk.add(accountNumber);
+			if (chunk.size() == count) {
+				consumer.accept(chunk);
+				chunk = new ArrayList<>(count);
+			}
+		}
+		if (!chunk.isEmpty()) {
+			consumer.accept(chunk);
+		}
+	}
+
+	/**
+	 * Iterate over the keys of the index in sorted order, since the order of the index changes with every write.
+	 * The cursor is the last account number of the previous chunk.
+	 */
+	@Override
+	public void scan(String cursor, int count, BiConsumer<List<String>, String> consumer) {
+		List<String> accountNumbers = index.keySet().stream()
+				.filter(accountNumber -> cursor == null || accountNumber.compareTo(cursor) > 0)
+				.sorted().collect(Collectors.toList());
+		for (int start = 0; start < accountNumbers.size(); start += count) {
+			List<String> chunk = accountNumbers.subList(start, Math.min(start + count, accountNumbers.size()));
+			consumer.accept(chunk, start + count < accountNumbers.size() ? chunk.get(chunk.size() - 1) : null);
+		}
+	}
+
+	/**
+	 * Append a record to the active segment and publish it in the index; caller holds the lock.
+	 * @param key String
+	 * @param value String, or null to delete the key
+	 * @throws com.programming4phone.stellar.wallet.api.error.InvalidKeyException
+	 *   if the key is longer than 65535 UTF-8 bytes
+	 */
+	private void append(String key, String value) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > Segment.MAX_KEY_LENGTH) {
+			throw new InvalidKeyException();
+		}
+		byte[] record = Segment.record(nextSequence++, keyBytes, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+		if (!active.fits(record.length)) {
+			roll(record.length);
+		}
+		Segment segment = active;
+		publish(segment, segment.append(record), key);
+	}
+
+	/**
+	 * Point the index at the record of a key, or remove the key for a tombstone, and count the replaced
+	 * record as garbage.
+	 */
+	private void publish(Segment segment, int offset, String key) {
+		Long previous;
+		if (segment.isTombstone(offset)) {
+			previous = index.remove(key);
+			segment.garbage.addAndGet(segment.recordLength(offset));
+		}
+		else {
+			previous = index.put(key, location(segment.id, offset));
+		}
+		if (previous != null) {
+			addGarbage(previous);
+		}
+	}
+
+	private void addGarbage(long location) {
+		Segment segment = segments.get(segmentId(location));
+		if (segment != null) {
+			segment.garbage.addAndGet(segment.recordLength(offset(location)));
+		}
+	}
+
+	/**
+	 * Start a new active segment; caller holds the lock.
+	 * @param recordLength int length of the record to append, so that an oversized record gets a segment of its own
+	 */
+	private void roll(int recordLength) {
+		Segment previous = active;
+		try {
+			int id = nextSegmentId.getAndIncrement();
+			Segment segment = Segment.create(segmentFile(id), id,
+					Math.max(segmentSizeKb * 1024, Segment.headerLength(0) + recordLength), new int[0]);
+			segments.put(id, segment);
+			active = segment;
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (previous != null) {
+			previous.force();
+		}
+	}
+
+	private void forceIfConfigured() {
+		if (forceWrites) {
+			active.force();
+		}
+	}
+
+	private void compactIfNeeded() {
+		try {
+			Segment current = active;
+			long used = 0;
+			long garbage = 0;
+			for (Segment segment : segments.values()) {
+				if (segment != current) {
+					used += segment.end - segment.start;
+					garbage += segment.garbage.get();
+				}
+			}
+			if (used > 0 && garbage >= used * compactionMinGarbageRatio) {
+				compact();
+			}
+		}
+		catch(Exception e) { // keep the schedule running
+			logger.error("Unable to compact key store {}", directory, e);
+		}
+	}
+
+	/**
+	 * Rewrite the live records of all full segments into new segments, and delete the full segments.
+	 * Reads and writes continue meanwhile: a record is only copied while the index still points at it, and the
+	 * index is only moved to the copy if no write replaced the record in between. Tombstones are dropped, since
+	 * all older records of their key are compacted along with them.
+	 * <br/><br/>
+	 * The copies are forced to disk, then a header-only segment listing the compacted segments is created (written
+	 * under a temporary name, then renamed), and only then are the compacted segments deleted, so that a crash at
+	 * any point leaves either the compacted segments, or their copies, or both with identical sequence numbers.
+	 * @return the number of bytes reclaimed
+	 * @throws IOException
+	 */
+	public long compact() throws IOException {
+		synchronized (compactionLock) {
+			Segment current = active;
+			List<Segment> inputs = sortedSegments(segments.values().stream().filter(segment -> segment != current)
+					.collect(Collectors.toList()));
+			if (inputs.isEmpty()) {
+				return 0;
+			}
+			long before = 0;
+			Set<Integer> replaced = new TreeSet<>();
+			for (Segment input : inputs) {
+				before += input.end - input.start;
+				replaced.add(input.id);
+				for (int id : input.replaces) {
+					replaced.add(id); // in case a previous compaction could not delete its input
+				}
+			}
+			List<Segment> outputs = new ArrayList<>();
+			Segment output = null;
+			for (Segment input : inputs) {
+				for (int offset = input.start; offset < input.end; offset += input.recordLength(offset)) {
+					if (input.isTombstone(offset)) {
+						continue;
+					}
+					String key = input.key(offset);
+					long location = location(input.id, offset);
+					if (!Long.valueOf(location).equals(index.get(key))) {
+						continue;
+					}
+					byte[] record = input.record(offset);
+					if (output == null || !output.fits(record.length)) {
+						if (output != null) {
+							output.force();
+						}
+						int id = nextSegmentId.getAndIncrement();
+						output = Segment.create(segmentFile(id), id,
+								Math.max(segmentSizeKb * 1024, Segment.headerLength(0) + record.length), new int[0]);
+						segments.put(id, output);
+						outputs.add(output);
+					}
+					int copied = output.append(record);
+					if (!index.replace(key, location, location(output.id, copied))) {
+						output.garbage.addAndGet(record.length);
+					}
+				}
+			}
+			if (output != null) {
+				output.force();
+			}
+			int markerId = nextSegmentId.getAndIncrement();
+			Path markerFile = segmentFile(markerId);
+			Path temporary = markerFile.resolveSibling(markerFile.getFileName() + COMPACTING_SUFFIX);
+			int[] replacedIds = replaced.stream().mapToInt(Integer::intValue).toArray();
+			Segment.create(temporary, markerId, Segment.headerLength(replacedIds.length), replacedIds).force();
+			Files.move(temporary, markerFile, StandardCopyOption.ATOMIC_MOVE);
+			segments.put(markerId, Segment.open(markerFile, markerId));
+			for (Segment input : inputs) {
+				segments.remove(input.id);
+				try {
+					Files.delete(input.file);
+				}
+				catch(IOException e) {
+					logger.warn("Unable to delete compacted segment {}: {}", input, e.toString());
+				}
+			}
+			long after = outputs.stream().mapToLong(segment -> segment.end - segment.start).sum();
+			compactions.increment();
+			reclaimedBytes.add(before - after);
+			logger.info("compacted {} segments into {}: {} bytes reclaimed", inputs.size(), outputs.size(), before - after);
+			return before - after;
+		}
+	}
+
+	private Path segmentFile(int id) {
+		return directory.resolve(String.format("keys-%08d.log", id));
+	}
+
+	private static List<Segment> sortedSegments(Collection<Segment> segments) {
+		List<Segment> sorted = new ArrayList<>(segments);
+		sorted.sort(Comparator.comparingInt(segment -> segment.id));
+		return sorted;
+	}
+
+	private static long location(int segmentId, int offset) {
+		return ((long) segmentId << 32) | offset;
+	}
+
+	private static int segmentId(long location) {
+		return (int) (location >>> 32);
+	}
+
+	private static int offset(long location) {
+		return (int) location;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		long bytes = 0;
+		long garbage = 0;
+		for (Segment segment : segments.values()) {
+			bytes += segment.end - segment.start;
+			garbage += segment.garbage.get();
+		}
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Integer>("keys.store.keys", index.size()));
+		metrics.add(new Metric<Integer>("keys.store.segments", segments.size()));
+		metrics.add(new Metric<Long>("keys.store.bytes", bytes));
+		metrics.add(new Metric<Long>("keys.store.garbage-bytes", garbage));
+		metrics.add(new Metric<Long>("keys.store.compactions", compactions.sum()));
+		metrics.add(new Metric<Long>("keys.store.reclaimed-bytes", reclaimedBytes.sum()));
+		return metrics;
+	}
+}
@@ -0,0 +1,230 @@
+package com.programming4phone.stellar.wallet.api.embedded;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A memory-mapped file of the {@link MappedLogKeyStore} log, holding records appended one after the other.
+ * <br/><br/>
+ * File format, all integers big-endian:
+ * <ul>
+ *   <li>magic number <code>WKS1</code> (4 bytes), number of replaced segments (4 bytes), their ids (4 bytes each)</li>
+ *   <li>per record: sequence number (8 bytes), key length (2 bytes), value length (4 bytes, -1 for a deletion),
+ *   UTF-8 key, UTF-8 value, CRC32 of the preceding record bytes (4 bytes)</li>
+ * </ul>
+ * The file is created with its full size, so the bytes after the last record are zero, i.e. sequence number 0.
+ * <br/><br/>
+ * Records are only appended by one thread at a time and read with absolute positions, so a segment is read
+ * concurrently without locks; a record is read once its location has been published through the index.
+ */
+class Segment {
+
+	static final int MAGIC = 0x574b5331; // "WKS1"
+	static final int TOMBSTONE = -1;
+	static final int MAX_KEY_LENGTH = 0xffff;
+	private static final int RECORD_HEADER = 14;
+	private static final int CRC_LENGTH = 4;
+
+	final int id;
+	final Path file;
+	final int[] replaces;
+	final int start;
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * Offset after the last record, only changed by the appending thread.
+	 */
+	volatile int end;
+
+	/**
+	 * Bytes of the records superseded by a later write or deletion, and of the deletions themselves.
+	 */
+	final AtomicLong garbage = new AtomicLong();
+
+	private Segment(int id, Path file, MappedByteBuffer buffer, int[] replaces) {
+		this.id = id;
+		this.file = file;
+		this.buffer = buffer;
+		this.replaces = replaces;
+		this.start = headerLength(replaces.length);
+		this.end = start;
+	}
+
+	static int headerLength(int replaced) {
+		return 8 + 4 * replaced;
+	}
+
+	/**
+	 * @param file Path of the new file
+	 * @param id int segment id
+	 * @param capacity size of the file
+	 * @param replaces ids of the segments this segment supersedes once complete, see {@link MappedLogKeyStore#compact()}
+	 * @return the empty segment
+	 * @throws IOException if the file exists or cannot be mapped
+	 */
+	static Segment create(Path file, int id, int capacity, int[] replaces) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, replaces.length);
+			for (int i = 0; i < replaces.length; i++) {
+				buffer.putInt(8 + 4 * i, replaces[i]);
+			}
+			return new Segment(id, file, buffer, replaces);
+		}
+	}
+
+	/**
+	 * Map an existing file. Its records are read by {@link #next(int)}, which finds the end of the segment.
+	 * @param file Path
+	 * @param id int segment id
+	 * @return the segment
+	 * @throws IOException if the file cannot be mapped or is not a segment
+	 */
+	static Segment open(Path file, int id) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() < headerLength(0) || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Not a key store segment: " + file);
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			int replaced = buffer.getInt(4);
+			if (buffer.getInt(0) != MAGIC || replaced < 0 || headerLength(replaced) > buffer.capacity()) {
+				throw new IOException("Not a key store segment: " + file);
+			}
+			int[] replaces = new int[replaced];
+			for (int i = 0; i < replaced; i++) {
+				replaces[i] = buffer.getInt(8 + 4 * i);
+			}
+			return new Segment(id, file, buffer, replaces);
+		}
+	}
+
+	/**
+	 * @param sequence long, greater than 0
+	 * @param key byte[] UTF-8 key, 1 to {@value #MAX_KEY_LENGTH} bytes
+	 * @param value byte[] UTF-8 value, or null for a deletion
+	 * @return the record bytes
+	 */
+	static byte[] record(long sequence, byte[] key, byte[] value) {
+		int valueLength = value == null ? 0 : value.length;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + key.length + valueLength + CRC_LENGTH);
+		record.putLong(sequence).putShort((short) key.length).putInt(value == null ? TOMBSTONE : value.length).put(key);
+		if (value != null) {
+			record.put(value);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int) crc.getValue());
+		return record.array();
+	}
+
+	boolean fits(int length) {
+		return (long) end + length <= buffer.capacity();
+	}
+
+	/**
+	 * Append a record; the caller checks that it {@link #fits(int)}.
+	 * @param record byte[] as built by {@link #record(long, byte[], byte[])}
+	 * @return the offset of the record
+	 */
+	int append(byte[] record) {
+		int offset = end;
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.put(record);
+		end = offset + record.length;
+		return offset;
+	}
+
+	void force() {
+		buffer.force();
+	}
+
+	long sequence(int offset) {
+		return buffer.getLong(offset);
+	}
+
+	int keyLength(int offset) {
+		return buffer.getShort(offset + 8) & 0xffff;
+	}
+
+	int valueLength(int offset) {
+		return buffer.getInt(offset + 10);
+	}
+
+	boolean isTombstone(int offset) {
+		return valueLength(offset) == TOMBSTONE;
+	}
+
+	int recordLength(int offset) {
+		return RECORD_HEADER + keyLength(offset) + Math.max(valueLength(offset), 0) + CRC_LENGTH;
+	}
+
+	String key(int offset) {
+		return new String(bytes(offset + RECORD_HEADER, keyLength(offset)), StandardCharsets.UTF_8);
+	}
+
+	String value(int offset) {
+		return new String(bytes(offset + RECORD_HEADER + keyLength(offset), valueLength(offset)), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return a copy of the bytes of the record at the offset, e.g. to {@link #append(byte[])} it to another segment
+	 */
+	byte[] record(int offset) {
+		return bytes(offset, recordLength(offset));
+	}
+
+	private byte[] bytes(int offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Validate the record at an offset of a mapped file, and set the end of the segment after it.
+	 * @param offset int
+	 * @return the offset of the next record, or -1 if there is no valid record at the offset: the end
+	 * of the log, or a record torn by a crash
+	 */
+	int next(int offset) {
+		int capacity = buffer.capacity();
+		if (offset + RECORD_HEADER + CRC_LENGTH > capacity || sequence(offset) <= 0) {
+			return -1;
+		}
+		int valueLength = valueLength(offset);
+		long length = (long) RECORD_HEADER + keyLength(offset) + Math.max(valueLength, 0) + CRC_LENGTH;
+		if (keyLength(offset) == 0 || valueLength < TOMBSTONE || offset + length > capacity) {
+			return -1;
+		}
+		byte[] record = bytes(offset, (int) length);
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length - CRC_LENGTH);
+		if ((int) crc.getValue() != ByteBuffer.wrap(record, record.length - CRC_LENGTH, CRC_LENGTH).getInt()) {
+			return -1;
+		}
+		end = offset + (int) length;
+		return end;
+	}
+
+	/**
+	 * @return true if no record was ever written at the offset, false for a valid or a torn record
+	 */
+	boolean isEnd(int offset) {
+		return offset + 8 > buffer.capacity() || sequence(offset) == 0;
+	}
+
+	@Override
+	public String toString() {
+		return file.getFileName().toString();
+	}
+}
@@ -19,9 +19,20 @@ public class WalletKeys {
 		return this;
 	}
 	
+	/**
+	 * The secret seed is masked, so that it is never written to a log.
+	 */
 	@Override
 	public String toString() {
-		return "WalletKeys [accountNumber=" + accountNumber + ", secretSeed=" + secretSeed + "]";
+		return "WalletKeys [accountNumber=" + accountNumber + ", secretSeed=" + mask(secretSeed) + "]";
+	}
+	
+	/**
+	 * @param secret String, may be null
+	 * @return <b>String</b> of asterisks, revealing neither the secret nor its length, or null
+	 */
+	static String mask(String secret) {
+		return secret == null ? null : "****";
 	}
 	
 }
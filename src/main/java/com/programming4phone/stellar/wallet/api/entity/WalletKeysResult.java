@@ -0,0 +1,39 @@
+package com.programming4phone.stellar.wallet.api.entity;
+
+/**
+ * Outcome of one item of a batch request. The status is the HTTP status code the
+ * equivalent single-account request would have returned (200, 201, 400 or 404).
+ */
+public class WalletKeysResult {
+	private String accountNumber;
+	private String secretSeed;
+	private int status;
+
+	public String getAccountNumber() {
+		return accountNumber;
+	}
+	public WalletKeysResult setAccountNumber(String accountNumber) {
+		this.accountNumber = accountNumber;
+		return this;
+	}
+	public String getSecretSeed() {
+		return secretSeed;
+	}
+	public WalletKeysResult setSecretSeed(String secretSeed) {
+		this.secretSeed = secretSeed;
+		return this;
+	}
+	public int getStatus() {
+		return status;
+	}
+	public WalletKeysResult setStatus(int status) {
+		this.status = status;
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "WalletKeysResult [accountNumber=" + accountNumber + ", secretSeed=" + WalletKeys.mask(secretSeed) + ", status=" + status + "]";
+	}
+
+}
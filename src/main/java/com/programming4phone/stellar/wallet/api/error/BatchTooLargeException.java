@@ -0,0 +1,5 @@
+package com.programming4phone.stellar.wallet.api.error;
+
+public class BatchTooLargeException extends RuntimeException{
+	private static final long serialVersionUID = 3286417650871269302L;
+}
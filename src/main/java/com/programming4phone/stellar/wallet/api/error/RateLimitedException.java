@@ -0,0 +1,18 @@
+package com.programming4phone.stellar.wallet.api.error;
+
+public class RateLimitedException extends RuntimeException{
+	private static final long serialVersionUID = 3920174456781203325L;
+
+	private final long retryAfterSeconds;
+
+	/**
+	 * @param retryAfterSeconds time after which the client may send its next request
+	 */
+	public RateLimitedException(long retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,5 @@
+package com.programming4phone.stellar.wallet.api.error;
+
+public class TokenVerificationUnavailableException extends RuntimeException{
+	private static final long serialVersionUID = 6305591127482364417L;
+}
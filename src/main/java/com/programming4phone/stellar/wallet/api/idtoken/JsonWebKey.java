@@ -0,0 +1,63 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+public class JsonWebKey {
+	/*
+	 * One entry of https://www.googleapis.com/oauth2/v3/certs
+	 *
+	 {
+	  "kid": "ba4ded7f5a92429f233561a36ff613ed38762c3d",
+	  "kty": "RSA",
+	  "alg": "RS256",
+	  "use": "sig",
+	  "n": "2K7epoJWl_aBoYGpXmDBBiEnwQ0QdVRU1gsbGXNrEbrZEQdY5KjH5P...",
+	  "e": "AQAB"
+	 }
+	 */
+	private String kid;
+	private String kty;
+	private String alg;
+	private String use;
+	private String n;
+	private String e;
+	public String getKid() {
+		return kid;
+	}
+	public void setKid(String kid) {
+		this.kid = kid;
+	}
+	public String getKty() {
+		return kty;
+	}
+	public void setKty(String kty) {
+		this.kty = kty;
+	}
+	public String getAlg() {
+		return alg;
+	}
+	public void setAlg(String alg) {
+		this.alg = alg;
+	}
+	public String getUse() {
+		return use;
+	}
+	public void setUse(String use) {
+		this.use = use;
+	}
+	public String getN() {
+		return n;
+	}
+	public void setN(String n) {
+		this.n = n;
+	}
+	public String getE() {
+		return e;
+	}
+	public void setE(String e) {
+		this.e = e;
+	}
+
+	@Override
+	public String toString() {
+		return "JsonWebKey [kid=" + kid + ", kty=" + kty + ", alg=" + alg + ", use=" + use + "]";
+	}
+}
@@ -0,0 +1,20 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonWebKeySet {
+	private List<JsonWebKey> keys = new ArrayList<>();
+
+	public List<JsonWebKey> getKeys() {
+		return keys;
+	}
+	public void setKeys(List<JsonWebKey> keys) {
+		this.keys = keys;
+	}
+
+	@Override
+	public String toString() {
+		return "JsonWebKeySet [keys=" + keys + "]";
+	}
+}
@@ -0,0 +1,126 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+@Component
+public class JwksKeyCache {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private RestTemplate restTemplate;
+
+	@Value("${token.jwks.url:https://www.googleapis.com/oauth2/v3/certs}")
+	private String jwksUrl;
+
+	@Value("${token.jwks.refresh-seconds:3600}")
+	private long refreshSeconds;
+
+	@Value("${token.jwks.min-refresh-seconds:60}")
+	private long minRefreshSeconds;
+
+	private volatile Map<String, PublicKey> keys = Collections.emptyMap();
+	private volatile long loadedAt;
+	private long lastAttempt;
+	private final ReentrantLock refreshLock = new ReentrantLock();
+
+	/**
+	 * Retrieve the RSA public key that Google used to sign ID tokens carrying the given key id.
+	 * The key set is downloaded once and reused until it is older than <i>token.jwks.refresh-seconds</i>.
+	 * Google rotates its signing keys, so an unknown key id triggers an early reload, but never more
+	 * often than once every <i>token.jwks.min-refresh-seconds</i>.
+	 * <br/><br/>
+	 * A single thread reloads the key set, while the others keep using the loaded keys rather than waiting
+	 * for the download. Only when no keys have been loaded at all do they wait for it.
+	 * @param kid String key id taken from the ID token header
+	 * @return <b>PublicKey</b> for the key id, or null if the key id is not (yet) known
+	 */
+	public PublicKey getKey(String kid) {
+		PublicKey key = keys.get(kid);
+		if (key == null || System.currentTimeMillis() - loadedAt > refreshSeconds * 1000) {
+			if (keys.isEmpty()) {
+				refreshLock.lock();
+			}
+			else if (!refreshLock.tryLock()) {
+				return key; // another thread is reloading
+			}
+			try {
+				refresh();
+			}
+			finally {
+				refreshLock.unlock();
+			}
+			key = keys.get(kid);
+		}
+		return key;
+	}
+
+	/**
+	 * Reload the key set, must be called holding the refresh lock.
+	 */
+	private void refresh() {
+		long now = System.currentTimeMillis();
+		if (now - lastAttempt < minRefreshSeconds * 1000) {
+			return; // another thread just reloaded, or the last reload failed very recently
+		}
+		lastAttempt = now;
+		try {
+			JsonWebKeySet keySet = restTemplate.getForObject(jwksUrl, JsonWebKeySet.class);
+			if (keySet == null || keySet.getKeys() == null) {
+				logger.error("Empty signing key set returned from {}", jwksUrl);
+				return;
+			}
+			Map<String, PublicKey> loaded = new HashMap<>();
+			for (JsonWebKey jwk : keySet.getKeys()) {
+				if ("RSA".equals(jwk.getKty())) {
+					loaded.put(jwk.getKid(), toPublicKey(jwk));
+				}
+			}
+			keys = Collections.unmodifiableMap(loaded);
+			loadedAt = now;
+			logger.info("loaded signing keys: {}", loaded.keySet());
+		}
+		catch(RestClientException | GeneralSecurityException e) {
+			// Keep serving the previous keys, unknown key ids fall back to tokeninfo
+			logger.error("Unable to load signing keys from {}", jwksUrl, e);
+		}
+	}
+
+	private static PublicKey toPublicKey(JsonWebKey jwk) throws GeneralSecurityException {
+		BigInteger modulus = new BigInteger(1, Base64.decodeBase64(jwk.getN()));
+		BigInteger exponent = new BigInteger(1, Base64.decodeBase64(jwk.getE()));
+		return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+	}
+
+	/**
+	 * Forget all loaded keys so that the next lookup downloads the key set again.
+	 */
+	void reset() {
+		refreshLock.lock();
+		try {
+			keys = Collections.emptyMap();
+			loadedAt = 0;
+			lastAttempt = 0;
+		}
+		finally {
+			refreshLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+
+@Component
+public class LocalTokenVerifier {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final String SIGNATURE_ALGORITHM = "RS256";
+	private static final List<String> ISSUERS = Arrays.asList("accounts.google.com", "https://accounts.google.com");
+
+	private final ObjectMapper objectMapper = new ObjectMapper()
+			.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+	@Autowired
+	private JwksKeyCache jwksKeyCache;
+
+	@Value("${client.id}")
+	private String clientId;
+
+	@Value("${token.clock-skew-seconds:300}")
+	private long clockSkewSeconds;
+
+	/**
+	 * Verify a Google ID token without calling the tokeninfo endpoint. The token is split into its
+	 * header, payload and signature; the RS256 signature is checked against Google's published signing
+	 * key and the iss, aud, exp and iat claims are validated in-process, the same checks tokeninfo performs.
+	 * See https://developers.google.com/identity/sign-in/web/backend-auth
+	 * @param authToken String containing the raw ID token (without the Bearer prefix)
+	 * @return <b>TokenClaims</b> if the token is valid, or null if the signing key id is unknown
+	 * and the token must be verified by tokeninfo instead
+	 * @throws com.programming4phone.stellar.wallet.api.error.TokenVerificationException
+	 */
+	public TokenClaims verify(String authToken) {
+		String[] parts = authToken.split("\\.");
+		if (parts.length != 3) {
+			logger.error("Unable to verify token, it is not a signed JWT.");
+			throw new TokenVerificationException();
+		}
+		try {
+			JsonNode header = objectMapper.readTree(Base64.decodeBase64(parts[0]));
+			if (!SIGNATURE_ALGORITHM.equals(header.path("alg").asText())) {
+				logger.error("Unable to verify token due to unsupported alg: {}", header.path("alg").asText());
+				throw new TokenVerificationException();
+			}
+			PublicKey key = jwksKeyCache.getKey(header.path("kid").asText());
+			if (key == null) {
+				logger.info("Unknown signing key id: {}", header.path("kid").asText());
+				return null;
+			}
+			Signature signature = Signature.getInstance("SHA256withRSA");
+			signature.initVerify(key);
+			signature.update((parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII));
+			if (!signature.verify(Base64.decodeBase64(parts[2]))) {
+				logger.error("Unable to verify token due to invalid signature.");
+				throw new TokenVerificationException();
+			}
+			TokenClaims tokenClaims = objectMapper.readValue(Base64.decodeBase64(parts[1]), TokenClaims.class);
+			validateClaims(tokenClaims);
+			return tokenClaims;
+		}
+		catch(IOException | GeneralSecurityException | IllegalArgumentException e) {
+			logger.error("Unable to verify token", e);
+			throw new TokenVerificationException();
+		}
+	}
+
+	private void validateClaims(TokenClaims tokenClaims) {
+		long now = System.currentTimeMillis() / 1000;
+		if (!ISSUERS.contains(tokenClaims.getIss())) {
+			logger.error("Unable to verify token due to iss claim mismatch.");
+			throw new TokenVerificationException();
+		}
+		if (!clientId.equals(tokenClaims.getAud())) {
+			logger.error("Unable to verify token due to aud claim mismatch.");
+			throw new TokenVerificationException();
+		}
+		if (Long.parseLong(tokenClaims.getExp()) + clockSkewSeconds < now) {
+			logger.error("Unable to verify token due to expired exp claim.");
+			throw new TokenVerificationException();
+		}
+		if (Long.parseLong(tokenClaims.getIat()) - clockSkewSeconds > now) {
+			logger.error("Unable to verify token due to iat claim in the future.");
+			throw new TokenVerificationException();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.cache.ExpiringLruCache;
+
+@Component
+public class TokenCache implements PublicMetrics {
+
+	@Value("${token.cache.enabled:true}")
+	private boolean enabled;
+
+	@Value("${token.cache.max-size:10000}")
+	private int maxSize;
+
+	private ExpiringLruCache<String, TokenClaims> cache;
+
+	@PostConstruct
+	public void init() {
+		cache = new ExpiringLruCache<>(maxSize);
+	}
+
+	/**
+	 * Retrieve the claims of a token that has already been verified. Tokens are cached
+	 * under their SHA-256 hash, so the raw tokens are never held in memory.
+	 * @param authToken String containing the raw ID token
+	 * @return <b>TokenClaims</b> of the verified token, or null if the token has not been verified
+	 * yet or has expired in the meantime
+	 */
+	public TokenClaims get(String authToken) {
+		return enabled ? cache.get(DigestUtils.sha256Hex(authToken)) : null;
+	}
+
+	/**
+	 * Remember a verified token until the time stamp in its exp claim.
+	 * @param authToken String containing the raw ID token
+	 * @param tokenClaims TokenClaims of the verified token
+	 */
+	public void put(String authToken, TokenClaims tokenClaims) {
+		if (!enabled || tokenClaims.getExp() == null) {
+			return;
+		}
+		try {
+			long expiresAt = Long.parseLong(tokenClaims.getExp()) * 1000;
+			cache.put(DigestUtils.sha256Hex(authToken), tokenClaims, expiresAt);
+		}
+		catch(NumberFormatException e) {
+			// without a usable exp claim the token cannot be cached safely
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Integer>("token.cache.size", cache.size()));
+		metrics.add(new Metric<Long>("token.cache.hits", cache.getHits()));
+		metrics.add(new Metric<Long>("token.cache.misses", cache.getMisses()));
+		metrics.add(new Metric<Long>("token.cache.evictions", cache.getEvictions()));
+		metrics.add(new Metric<Long>("token.cache.expirations", cache.getExpirations()));
+		return metrics;
+	}
+}
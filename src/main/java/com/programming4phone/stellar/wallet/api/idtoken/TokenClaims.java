@@ -111,10 +111,12 @@ public class TokenClaims {
 		this.locale = locale;
 	}
 	
+	/**
+	 * The profile claims identifying the user (email, name, picture) are left out, so that they are never written to a log.
+	 */
 	@Override
 	public String toString() {
 		return "TokenClaims [iss=" + iss + ", sub=" + sub + ", azp=" + azp + ", aud=" + aud + ", iat=" + iat + ", exp="
-				+ exp + ", email=" + email + ", email_verified=" + email_verified + ", name=" + name + ", picture="
-				+ picture + ", given_name=" + given_name + ", family_name=" + family_name + ", locale=" + locale + "]";
+				+ exp + ", email_verified=" + email_verified + ", locale=" + locale + "]";
 	}
 }
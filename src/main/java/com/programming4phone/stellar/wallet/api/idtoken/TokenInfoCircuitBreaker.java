@@ -0,0 +1,223 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Circuit breaker guarding the calls to the Google tokeninfo endpoint, so that requests are rejected at once
+ * while tokeninfo fails or answers slowly, instead of each of them waiting for it.
+ * <br/><br/>
+ * While <b>closed</b>, the outcomes of the last <i>window-size</i> calls are kept. Once at least
+ * <i>minimum-calls</i> have been made, and the share of failed calls reaches <i>failure-rate-threshold</i> or the
+ * share of calls slower than <i>slow-call-millis</i> reaches <i>slow-call-rate-threshold</i>, the breaker
+ * <b>opens</b> and rejects every call for <i>open-millis</i>. It then turns <b>half-open</b> and lets
+ * <i>half-open-calls</i> probe calls through: the breaker closes again if all of them succeed in time, and opens
+ * again on the first probe that fails or is slow.
+ * <br/><br/>
+ * A call fails when tokeninfo cannot be reached, times out or answers with a 5xx status. A 4xx status only means
+ * that the token is invalid, so it counts as a successful call.
+ */
+@Component
+public class TokenInfoCircuitBreaker implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	@Value("${token.verify.circuit-breaker.enabled:true}")
+	private boolean enabled;
+
+	@Value("${token.verify.circuit-breaker.window-size:20}")
+	private int windowSize;
+
+	@Value("${token.verify.circuit-breaker.minimum-calls:10}")
+	private int minimumCalls;
+
+	@Value("${token.verify.circuit-breaker.failure-rate-threshold:0.5}")
+	private double failureRateThreshold;
+
+	@Value("${token.verify.circuit-breaker.slow-call-millis:2000}")
+	private long slowCallMillis;
+
+	@Value("${token.verify.circuit-breaker.slow-call-rate-threshold:0.5}")
+	private double slowCallRateThreshold;
+
+	@Value("${token.verify.circuit-breaker.open-millis:10000}")
+	private long openMillis;
+
+	@Value("${token.verify.circuit-breaker.half-open-calls:3}")
+	private int halfOpenCalls;
+
+	private State state = State.CLOSED;
+
+	/*
+	 * Ring of the outcomes of the last calls while closed.
+	 */
+	private boolean[] failedCalls;
+	private boolean[] slowCalls;
+	private int calls;
+	private int next;
+	private int failed;
+	private int slow;
+
+	private long openedAt;
+	private int probes;
+	private int probeSuccesses;
+
+	private long permitted;
+	private long rejected;
+	private long failures;
+	private long slowOutcomes;
+	private long opened;
+
+	@PostConstruct
+	public void init() {
+		failedCalls = new boolean[windowSize];
+		slowCalls = new boolean[windowSize];
+	}
+
+	/**
+	 * Ask for permission to call tokeninfo. Every permitted call must be followed by {@link #onSuccess(long)},
+	 * {@link #onFailure(long)} or, if the call was not made after all, {@link #release()}.
+	 * @return true if the call may be made, false if the breaker rejects it
+	 */
+	public synchronized boolean tryAcquire() {
+		if (!enabled) {
+			return true;
+		}
+		if (state == State.OPEN) {
+			if (System.nanoTime() - openedAt < TimeUnit.MILLISECONDS.toNanos(openMillis)) {
+				rejected++;
+				return false;
+			}
+			state = State.HALF_OPEN;
+			probes = 0;
+			probeSuccesses = 0;
+			logger.info("tokeninfo circuit breaker half-open, probing with {} calls", halfOpenCalls);
+		}
+		if (state == State.HALF_OPEN) {
+			if (probes >= halfOpenCalls) {
+				rejected++;
+				return false;
+			}
+			probes++;
+		}
+		permitted++;
+		return true;
+	}
+
+	/**
+	 * Give back the permission for a call that was not made.
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN && probes > 0) {
+			probes--;
+		}
+	}
+
+	/**
+	 * @param nanos duration of the call
+	 */
+	public synchronized void onSuccess(long nanos) {
+		record(false, nanos);
+	}
+
+	/**
+	 * @param nanos duration of the call
+	 */
+	public synchronized void onFailure(long nanos) {
+		record(true, nanos);
+	}
+
+	private void record(boolean failure, long nanos) {
+		if (!enabled) {
+			return;
+		}
+		boolean isSlow = nanos > TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+		failures += failure ? 1 : 0;
+		slowOutcomes += isSlow ? 1 : 0;
+		if (state == State.HALF_OPEN) {
+			if (failure || isSlow) {
+				open();
+			}
+			else if (++probeSuccesses >= halfOpenCalls) {
+				close();
+			}
+			return;
+		}
+		if (state == State.OPEN) { // a call permitted before the breaker opened
+			return;
+		}
+		if (calls == windowSize) {
+			failed -= failedCalls[next] ? 1 : 0;
+			slow -= slowCalls[next] ? 1 : 0;
+		}
+		else {
+			calls++;
+		}
+		failedCalls[next] = failure;
+		slowCalls[next] = isSlow;
+		failed += failure ? 1 : 0;
+		slow += isSlow ? 1 : 0;
+		next = (next + 1) % windowSize;
+		if (calls >= minimumCalls && (failed >= failureRateThreshold * calls || slow >= slowCallRateThreshold * calls)) {
+			logger.warn("tokeninfo circuit breaker open: {} of the last {} calls failed, {} were slow", failed, calls, slow);
+			open();
+		}
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		opened++;
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		calls = 0;
+		next = 0;
+		failed = 0;
+		slow = 0;
+		logger.info("tokeninfo circuit breaker closed");
+	}
+
+	/**
+	 * Close the breaker and forget the outcomes of the previous calls.
+	 */
+	synchronized void reset() {
+		close();
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * The state is published as 0 (closed), 1 (open) or 2 (half-open).
+	 */
+	@Override
+	public synchronized Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (!enabled) {
+			return metrics;
+		}
+		metrics.add(new Metric<Integer>("token.verify.circuit-breaker.state", state.ordinal()));
+		metrics.add(new Metric<Long>("token.verify.circuit-breaker.permitted", permitted));
+		metrics.add(new Metric<Long>("token.verify.circuit-breaker.rejected", rejected));
+		metrics.add(new Metric<Long>("token.verify.circuit-breaker.failures", failures));
+		metrics.add(new Metric<Long>("token.verify.circuit-breaker.slow-calls", slowOutcomes));
+		metrics.add(new Metric<Long>("token.verify.circuit-breaker.opened", opened));
+		metrics.add(new Metric<Double>("token.verify.circuit-breaker.failure-rate", calls == 0 ? 0.0 : (double) failed / calls));
+		return metrics;
+	}
+}
@@ -0,0 +1,170 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Optional hedging of the calls to the Google tokeninfo endpoint: when a call has not been answered after the
+ * <i>percentile</i> of the recent tokeninfo latencies, {@link TokenVerifier} sends a second, identical call, uses
+ * whichever answer arrives first and cancels the other call. A few slow answers then no longer drive the tail
+ * latency of the web services.
+ * <br/><br/>
+ * The hedge delay is the <i>percentile</i> of the latencies of the last <i>window-size</i> answered calls, but
+ * at least <i>min-delay-millis</i>; no call is hedged before <i>min-samples</i> latencies are known. Every call
+ * adds <i>max-rate</i> to a budget of at most <i>max-burst</i> hedges, and every hedge takes one from it, so that
+ * at most a <i>max-rate</i> share of the calls is hedged, and a slow tokeninfo does not get twice the load.
+ */
+@Component
+public class TokenInfoHedging implements PublicMetrics {
+
+	@Value("${token.verify.hedging.enabled:false}")
+	private boolean enabled;
+
+	@Value("${token.verify.hedging.percentile:0.95}")
+	private double percentile;
+
+	@Value("${token.verify.hedging.min-delay-millis:20}")
+	private long minDelayMillis;
+
+	@Value("${token.verify.hedging.window-size:1000}")
+	private int windowSize;
+
+	@Value("${token.verify.hedging.min-samples:100}")
+	private int minSamples;
+
+	@Value("${token.verify.hedging.max-rate:0.05}")
+	private double maxRate;
+
+	@Value("${token.verify.hedging.max-burst:10}")
+	private double maxBurst;
+
+	/*
+	 * Ring of the latencies of the last answered calls, in nanoseconds.
+	 */
+	private long[] latencies;
+	private int samples;
+	private int next;
+	private int samplesSinceUpdate;
+	private volatile long delayNanos = -1;
+
+	private double budget;
+
+	private ScheduledExecutorService hedgeScheduler;
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder fired = new LongAdder();
+	private final LongAdder won = new LongAdder();
+	private final LongAdder denied = new LongAdder();
+
+	@PostConstruct
+	public void init() {
+		if (enabled) {
+			latencies = new long[windowSize];
+			hedgeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "token-verify-hedge");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		if (hedgeScheduler != null) {
+			hedgeScheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Count a call to tokeninfo, and tell when to hedge it.
+	 * @return the hedge delay in nanoseconds, or -1 if the call is not to be hedged
+	 */
+	public long startCall() {
+		if (!enabled) {
+			return -1;
+		}
+		calls.increment();
+		synchronized (this) {
+			budget = Math.min(maxBurst, budget + maxRate);
+		}
+		return delayNanos;
+	}
+
+	/**
+	 * Take a hedge from the budget.
+	 * @return true if the call may be hedged
+	 */
+	public synchronized boolean tryHedge() {
+		if (budget < 1) {
+			denied.increment();
+			return false;
+		}
+		budget--;
+		fired.increment();
+		return true;
+	}
+
+	/**
+	 * Count a hedge answered before the call it hedged.
+	 */
+	public void won() {
+		won.increment();
+	}
+
+	/**
+	 * Record the latency of an answered call, successful or not.
+	 * @param nanos duration of the call
+	 */
+	public synchronized void record(long nanos) {
+		if (!enabled) {
+			return;
+		}
+		latencies[next] = nanos;
+		next = (next + 1) % windowSize;
+		samples = Math.min(samples + 1, windowSize);
+		// sorting the window takes microseconds, a tokeninfo call milliseconds
+		if (samples >= minSamples && ++samplesSinceUpdate >= Math.max(1, minSamples / 10)) {
+			samplesSinceUpdate = 0;
+			long[] sorted = Arrays.copyOf(latencies, samples);
+			Arrays.sort(sorted);
+			long latency = sorted[Math.max(0, (int) Math.ceil(percentile * samples) - 1)];
+			delayNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(minDelayMillis), latency);
+		}
+	}
+
+	/**
+	 * @param hedge Runnable sending the hedge, if the call is still unanswered
+	 * @param delayNanos as returned by {@link #startCall()}
+	 */
+	public void schedule(Runnable hedge, long delayNanos) {
+		hedgeScheduler.schedule(hedge, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (!enabled) {
+			return metrics;
+		}
+		long delayNanos = this.delayNanos;
+		metrics.add(new Metric<Double>("token.verify.hedging.delay", delayNanos < 0 ? -1.0 : delayNanos / 1e6));
+		metrics.add(new Metric<Long>("token.verify.hedging.calls", calls.sum()));
+		metrics.add(new Metric<Long>("token.verify.hedging.fired", fired.sum()));
+		metrics.add(new Metric<Long>("token.verify.hedging.won", won.sum()));
+		metrics.add(new Metric<Long>("token.verify.hedging.denied", denied.sum()));
+		return metrics;
+	}
+}
@@ -1,17 +1,39 @@
 package com.programming4phone.stellar.wallet.api.idtoken;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestClientException;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import com.programming4phone.stellar.wallet.api.error.TokenMissingException;
 import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationUnavailableException;
+import com.programming4phone.stellar.wallet.api.ratelimit.RateLimiter;
 
 @Component
 public class TokenVerifier {
@@ -23,54 +45,464 @@ public class TokenVerifier {
 	@Autowired
 	private RestTemplate restTemplate;
 	
+	@Autowired
+	private AsyncRestTemplate asyncRestTemplate;
+	
+	@Autowired
+	private LocalTokenVerifier localTokenVerifier;
+	
+	@Autowired
+	private TokenCache tokenCache;
+	
+	@Autowired
+	private RateLimiter rateLimiter;
+	
+	@Autowired
+	private TokenInfoCircuitBreaker tokenInfoCircuitBreaker;
+	
+	@Autowired
+	private TokenInfoHedging tokenInfoHedging;
+	
+	@Autowired
+	@Qualifier("tokenVerifyExecutor")
+	private AsyncTaskExecutor tokenVerifyExecutor;
+	
 	@Value("${client.id}")
 	private String clientId;
 	
+	@Value("${token.verify.url:" + VERIFY_URL + "}")
+	private String verifyUrl;
+	
+	@Value("${token.local-verification:true}")
+	private boolean localVerification;
+	
+	@Value("${token.verify.timeout-millis:10000}")
+	private long verifyTimeoutMillis;
+	
+	@Value("${token.verify.bulkhead.timeout-millis:3000}")
+	private long bulkheadTimeoutMillis;
+	
+	private final ConcurrentHashMap<String, CompletableFuture<TokenClaims>> inFlight = new ConcurrentHashMap<>();
+	
 	/**
 	 * Verify that token supplied at UI login is indeed meant for the wallet application client.
 	 * The token is transported to the wallet web services in the Authorization request header.
 	 * The header value is prefixed with <i>Bearer</i>. A token that is validly issued for an application 
 	 * can still fail to verify if the token expiration time stamp has passed. 
+	 * <br/><br/>
+	 * When <i>token.local-verification</i> is enabled the token signature and claims are checked in-process
+	 * against Google's cached signing keys, and the tokeninfo endpoint is only called for tokens signed
+	 * with a key id that is not known yet. Verified tokens are cached until they expire, so repeated
+	 * requests carrying the same token are not verified again, and concurrent requests carrying the
+	 * same token share a single verification.
+	 * <br/><br/>
+	 * Calls to tokeninfo run on the bounded <i>tokenVerifyExecutor</i> (bulkhead), and are guarded by the
+	 * {@link TokenInfoCircuitBreaker}: while tokeninfo fails or is slow, requests needing it are rejected at once.
+	 * With <i>token.verify.hedging.enabled</i> a slow call is hedged with a second one, see {@link TokenInfoHedging}.
+	 * <br/><br/>
+	 * With <i>wallet.rate-limit.enabled</i> every verified request takes a token from the bucket of the
+	 * subject (<i>sub</i> claim) of the token, see {@link RateLimiter}.
 	 * @param header String containing the value of the Authorization request header
 	 * @return <b>boolean</b> true, if the token is valid
 	 * @throws com.programming4phone.stellar.wallet.api.error.TokenMissingException
 	 * @throws com.programming4phone.stellar.wallet.api.error.TokenVerificationException
+	 * @throws com.programming4phone.stellar.wallet.api.error.TokenVerificationUnavailableException
+	 * if the circuit breaker is open, or tokeninfo has not answered within <i>token.verify.bulkhead.timeout-millis</i>
+	 * @throws java.util.concurrent.RejectedExecutionException if the bulkhead is full
+	 * @throws com.programming4phone.stellar.wallet.api.error.RateLimitedException
 	 */
 	public boolean verify(String header) {
 		Optional.ofNullable(header).orElseThrow(TokenMissingException::new);
 		String authToken = header.substring(7); // Header value is prefixed with "Bearer"
 	
-		boolean result = true;
+		TokenClaims tokenClaims = tokenCache.get(authToken);
+		if (tokenClaims == null) {
+			tokenClaims = verifyOnce(authToken);
+		}
+		rateLimiter.acquireSubject(tokenClaims.getSub());
+		return true;
+	}
+	
+	/**
+	 * Non-blocking variant of {@link #verify}. The calling thread never waits for the tokeninfo endpoint:
+	 * the request is sent over non-blocking I/O and the returned future completes when the response arrives.
+	 * Cached tokens, local verification, the sharing of concurrent verifications, the circuit breaker and the
+	 * rate limit per subject work as in {@link #verify}; no bulkhead is needed, as no thread waits for tokeninfo.
+	 * @param header String containing the value of the Authorization request header
+	 * @return <b>CompletableFuture</b> completing with true if the token is valid, or completing exceptionally with
+	 * TokenMissingException, TokenVerificationException, TokenVerificationUnavailableException or RateLimitedException
+	 */
+	public CompletableFuture<Boolean> verifyAsync(String header) {
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		if (header == null) {
+			result.completeExceptionally(new TokenMissingException());
+			return result;
+		}
+		String authToken = header.substring(7); // Header value is prefixed with "Bearer"
+		TokenClaims cachedClaims = tokenCache.get(authToken);
+		if (cachedClaims != null) {
+			completeRateLimited(result, cachedClaims);
+			return result;
+		}
+		CompletableFuture<TokenClaims> verification = new CompletableFuture<>();
+		CompletableFuture<TokenClaims> inProgress = inFlight.putIfAbsent(authToken, verification);
+		if (inProgress == null) {
+			inProgress = verification;
+			verifyAsyncOnce(authToken, verification);
+		}
+		inProgress.whenComplete((tokenClaims, e) -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+			}
+			else {
+				completeRateLimited(result, tokenClaims);
+			}
+		});
+		return result;
+	}
+	
+	private void completeRateLimited(CompletableFuture<Boolean> result, TokenClaims tokenClaims) {
+		try {
+			rateLimiter.acquireSubject(tokenClaims.getSub());
+			result.complete(true);
+		}
+		catch(RuntimeException e) {
+			result.completeExceptionally(e);
+		}
+	}
+	
+	private void verifyAsyncOnce(String authToken, CompletableFuture<TokenClaims> verification) {
+		try {
+			TokenClaims tokenClaims = localVerification ? localTokenVerifier.verify(authToken) : null;
+			if (tokenClaims != null) {
+				completeVerification(authToken, verification, tokenClaims);
+				return;
+			}
+			if (!tokenInfoCircuitBreaker.tryAcquire()) {
+				failVerification(authToken, verification, new TokenVerificationUnavailableException());
+				return;
+			}
+			new AsyncTokenInfoCall(authToken, verification).start();
+		}
+		catch(RuntimeException e) {
+			failVerification(authToken, verification, e);
+		}
+	}
+	
+	/*
+	 * Asynchronous tokeninfo call, hedged like the blocking one. Cancelling the other call aborts its request.
+	 */
+	private class AsyncTokenInfoCall {
+		
+		private final String authToken;
+		private final CompletableFuture<TokenClaims> verification;
+		private final List<ListenableFuture<ResponseEntity<TokenClaims>>> pending = new ArrayList<>(2);
+		private final List<ListenableFuture<ResponseEntity<TokenClaims>>> cancelled = new ArrayList<>(1);
+		private boolean answered;
+		
+		AsyncTokenInfoCall(String authToken, CompletableFuture<TokenClaims> verification) {
+			this.authToken = authToken;
+			this.verification = verification;
+		}
+		
+		void start() {
+			try {
+				send(false);
+			}
+			catch(RuntimeException e) {
+				tokenInfoCircuitBreaker.release();
+				throw e;
+			}
+			long hedgeDelayNanos = tokenInfoHedging.startCall();
+			if (hedgeDelayNanos >= 0) {
+				tokenInfoHedging.schedule(() -> {
+					// checked and sent under the lock, so that no hedge is sent once the call has been answered
+					synchronized (this) {
+						if (!answered) {
+							hedge(() -> send(true));
+						}
+					}
+				}, hedgeDelayNanos);
+			}
+		}
+		
+		private synchronized ListenableFuture<ResponseEntity<TokenClaims>> send(boolean hedge) {
+			long start = System.nanoTime();
+			ListenableFuture<ResponseEntity<TokenClaims>> call = asyncRestTemplate.getForEntity(verifyUrl, TokenClaims.class, authToken);
+			pending.add(call);
+			call.addCallback(
+				response -> answer(call, hedge, start, response.getBody(), null),
+				e -> answer(call, hedge, start, null, e));
+			return call;
+		}
+		
+		private void answer(ListenableFuture<ResponseEntity<TokenClaims>> call, boolean hedge, long start,
+				TokenClaims tokenClaims, Throwable failure) {
+			long nanos = System.nanoTime() - start;
+			List<ListenableFuture<ResponseEntity<TokenClaims>>> others;
+			synchronized (this) {
+				pending.remove(call);
+				if (answered) {
+					if (!cancelled.remove(call)) { // answered after the other call, its permit is still held
+						tokenInfoCircuitBreaker.release();
+					}
+					return;
+				}
+				recordAnswer(failure, nanos);
+				if (failure != null && !(failure instanceof HttpClientErrorException) && !pending.isEmpty()) {
+					return; // wait for the other call
+				}
+				answered = true;
+				others = new ArrayList<>(pending);
+				cancelled.addAll(others);
+			}
+			cancel(others);
+			if (hedge && (failure == null || failure instanceof HttpClientErrorException)) {
+				tokenInfoHedging.won();
+			}
+			if (failure != null) {
+				logger.error("Unable to verify token", failure);
+				failVerification(authToken, verification, new TokenVerificationException());
+				return;
+			}
+			try {
+				completeVerification(authToken, verification, checkAudience(tokenClaims));
+			}
+			catch(RuntimeException e) {
+				failVerification(authToken, verification, e);
+			}
+		}
+	}
+	
+	private void completeVerification(String authToken, CompletableFuture<TokenClaims> verification, TokenClaims tokenClaims) {
+		tokenCache.put(authToken, tokenClaims);
+		inFlight.remove(authToken, verification);
+		verification.complete(tokenClaims);
+	}
+	
+	private void failVerification(String authToken, CompletableFuture<TokenClaims> verification, RuntimeException e) {
+		inFlight.remove(authToken, verification);
+		verification.completeExceptionally(e);
+	}
+	
+	/*
+	 * The first caller for a token performs the verification. Callers arriving while it is in progress
+	 * wait for its outcome, success or failure, for at most token.verify.timeout-millis.
+	 */
+	private TokenClaims verifyOnce(String authToken) {
+		CompletableFuture<TokenClaims> verification = new CompletableFuture<>();
+		CompletableFuture<TokenClaims> inProgress = inFlight.putIfAbsent(authToken, verification);
+		if (inProgress != null) {
+			return await(inProgress);
+		}
+		try {
+			TokenClaims tokenClaims = localVerification ? localTokenVerifier.verify(authToken) : null;
+			if (tokenClaims == null) {
+				tokenClaims = verifyRemotely(authToken);
+			}
+			tokenCache.put(authToken, tokenClaims);
+			verification.complete(tokenClaims);
+			return tokenClaims;
+		}
+		catch(RuntimeException | Error e) {
+			verification.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			inFlight.remove(authToken, verification);
+		}
+	}
+	
+	private TokenClaims await(CompletableFuture<TokenClaims> inProgress) {
+		try {
+			return inProgress.get(verifyTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch(ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new TokenVerificationException();
+		}
+		catch(TimeoutException e) {
+			logger.error("Timed out waiting for a concurrent verification of the same token.");
+			throw new TokenVerificationException();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TokenVerificationException();
+		}
+	}
+	
+	/*
+	 * The first tokeninfo call runs on the bulkhead. With token.verify.hedging.enabled a second call is sent when
+	 * the first has not been answered after the hedge delay, and the first answer is used, unless it is a failure
+	 * other than a 4xx while the other call is still pending. The other call is then cancelled: its thread is
+	 * interrupted, although the blocked read itself only ends with its answer or the read timeout.
+	 */
+	private TokenClaims verifyRemotely(String authToken) {
+		if (!tokenInfoCircuitBreaker.tryAcquire()) {
+			throw new TokenVerificationUnavailableException();
+		}
+		CompletionService<TokenClaims> calls = new ExecutorCompletionService<>(tokenVerifyExecutor);
+		Map<Future<TokenClaims>, Long> pending = new HashMap<>();
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(bulkheadTimeoutMillis);
+		Future<TokenClaims> primary;
+		try {
+			primary = calls.submit(tokenInfoCall(authToken));
+		}
+		catch(RuntimeException e) { // bulkhead full
+			tokenInfoCircuitBreaker.release();
+			throw e;
+		}
+		pending.put(primary, start);
+		Future<TokenClaims> hedge = null;
+		long hedgeDelayNanos = tokenInfoHedging.startCall();
+		boolean hedgeDue = hedgeDelayNanos >= 0;
+		long hedgeAt = start + hedgeDelayNanos;
 		try {
-			/*
-			 * See https://developers.google.com/identity/sign-in/web/backend-auth
-			 * If the token is properly signed and the iss and exp claims have the  
-			 * expected values, you will get a HTTP 200 response. 
-			 * 
-			 * The aud claim should contain your app's client IDs. If it does not 
-			 * then the token is invalid!
-			 */
-			TokenClaims tokenClaims = restTemplate.getForObject(VERIFY_URL, TokenClaims.class, authToken);
-			logger.info("tokenClaims: " + tokenClaims.toString());
-			if(!clientId.equals(tokenClaims.getAud())) {
-				logger.error("Unable to verify token due to aud claim mismatch.");
+			while (true) {
+				long now = System.nanoTime();
+				Future<TokenClaims> done = calls.poll(hedgeDue ? Math.min(deadline - now, hedgeAt - now) : deadline - now,
+						TimeUnit.NANOSECONDS);
+				if (done == null) {
+					if (hedgeDue && System.nanoTime() - hedgeAt >= 0) {
+						hedgeDue = false;
+						hedge = hedge(() -> calls.submit(tokenInfoCall(authToken)));
+						if (hedge != null) {
+							pending.put(hedge, System.nanoTime());
+						}
+					}
+					else if (System.nanoTime() - deadline >= 0) {
+						// the blocked read cannot be interrupted, the bulkhead thread is freed by the read timeout
+						if (pending.remove(primary) != null) {
+							primary.cancel(true);
+							tokenInfoCircuitBreaker.onFailure(System.nanoTime() - start);
+						}
+						cancel(pending.keySet());
+						logger.error("tokeninfo has not answered within {} ms", bulkheadTimeoutMillis);
+						throw new TokenVerificationUnavailableException();
+					}
+					continue;
+				}
+				long nanos = System.nanoTime() - pending.remove(done);
+				TokenClaims tokenClaims = null;
+				Throwable failure = null;
+				try {
+					tokenClaims = done.get();
+				}
+				catch(ExecutionException e) {
+					failure = e.getCause();
+				}
+				recordAnswer(failure, nanos);
+				if (failure != null && !(failure instanceof HttpClientErrorException) && !pending.isEmpty()) {
+					continue; // wait for the other call
+				}
+				cancel(pending.keySet());
+				if (done == hedge && (failure == null || failure instanceof HttpClientErrorException)) {
+					tokenInfoHedging.won();
+				}
+				if (failure == null) {
+					return checkAudience(tokenClaims);
+				}
+				logger.error("Unable to verify token", failure);
+				/*
+				 * If the token is expired (exp claim contains long value of time) or
+				 * the token has been corrupted in any way, the Google API web service  
+				 * invocation will return http status 400 BAD_REQUEST.
+				 * 
+				 * To quickly convert the value of the exp claim to a real time/date value
+				 * enter the long value here: https://www.epochconverter.com/
+				 * 
+				 * From testing it appears that the token expires after about an hour.
+				 */
 				throw new TokenVerificationException();
 			}
 		}
-		catch(RestClientException e) {
-			logger.error("Unable to verify token",e);
-			/*
-			 * If the token is expired (exp claim contains long value of time) or
-			 * the token has been corrupted in any way, the Google API web service  
-			 * invocation will return http status 400 BAD_REQUEST.
-			 * 
-			 * To quickly convert the value of the exp claim to a real time/date value
-			 * enter the long value here: https://www.epochconverter.com/
-			 * 
-			 * From testing it appears that the token expires after about an hour.
-			 */
+		catch(InterruptedException e) {
+			cancel(pending.keySet());
+			Thread.currentThread().interrupt();
 			throw new TokenVerificationException();
 		}
-		return result;
+	}
+	
+	private Callable<TokenClaims> tokenInfoCall(String authToken) {
+		/*
+		 * See https://developers.google.com/identity/sign-in/web/backend-auth
+		 * If the token is properly signed and the iss and exp claims have the  
+		 * expected values, you will get a HTTP 200 response. 
+		 * 
+		 * The aud claim should contain your app's client IDs. If it does not 
+		 * then the token is invalid!
+		 */
+		return () -> restTemplate.getForObject(verifyUrl, TokenClaims.class, authToken);
+	}
+	
+	/*
+	 * Send a hedge if both the circuit breaker and the hedge budget allow it.
+	 * Returns null if no hedge was sent.
+	 */
+	private <T> T hedge(Supplier<T> send) {
+		if (!tokenInfoCircuitBreaker.tryAcquire()) {
+			return null;
+		}
+		if (!tokenInfoHedging.tryHedge()) {
+			tokenInfoCircuitBreaker.release();
+			return null;
+		}
+		try {
+			return send.get();
+		}
+		catch(RuntimeException e) { // bulkhead or connection pool full, the call is not hedged
+			tokenInfoCircuitBreaker.release();
+			logger.debug("Unable to send a hedged tokeninfo call", e);
+			return null;
+		}
+	}
+	
+	/*
+	 * Calls whose answer is not used are left out of the circuit breaker.
+	 */
+	private void cancel(Collection<? extends Future<?>> calls) {
+		for (Future<?> call : calls) {
+			tokenInfoCircuitBreaker.release();
+			call.cancel(true);
+		}
+	}
+	
+	/*
+	 * A 4xx status is an answer as well, meaning that tokeninfo rejected the token.
+	 */
+	private void recordAnswer(Throwable failure, long nanos) {
+		if (failure == null || failure instanceof HttpClientErrorException) {
+			tokenInfoHedging.record(nanos);
+		}
+		if (failure == null) {
+			tokenInfoCircuitBreaker.onSuccess(nanos);
+		}
+		else {
+			recordFailure(failure, nanos);
+		}
+	}
+	
+	/*
+	 * A 4xx status means that tokeninfo rejected the token, not that it failed.
+	 */
+	private void recordFailure(Throwable e, long nanos) {
+		if (e instanceof HttpClientErrorException) {
+			tokenInfoCircuitBreaker.onSuccess(nanos);
+		}
+		else {
+			tokenInfoCircuitBreaker.onFailure(nanos);
+		}
+	}
+	
+	private TokenClaims checkAudience(TokenClaims tokenClaims) {
+		logger.debug("tokenClaims: {}", tokenClaims);
+		if(!clientId.equals(tokenClaims.getAud())) {
+			logger.error("Unable to verify token due to aud claim mismatch.");
+			throw new TokenVerificationException();
+		}
+		return tokenClaims;
 	}
 }
@@ -0,0 +1,34 @@
+package com.programming4phone.stellar.wallet.api.logging;
+
+import ch.qos.logback.core.PropertyDefinerBase;
+
+/**
+ * Logback property definer choosing between two values, depending on whether a log file is configured with
+ * <i>logging.file</i> or <i>logging.path</i>, which Spring Boot passes to Logback as the LOG_FILE system property.
+ * Logback cannot test a property without Janino, which the application does not depend on.
+ */
+public class LogFilePropertyDefiner extends PropertyDefinerBase {
+
+	private String withFile;
+	private String withoutFile;
+
+	/**
+	 * @param withFile String, the value if a log file is configured
+	 */
+	public void setWithFile(String withFile) {
+		this.withFile = withFile;
+	}
+
+	/**
+	 * @param withoutFile String, the value otherwise
+	 */
+	public void setWithoutFile(String withoutFile) {
+		this.withoutFile = withoutFile;
+	}
+
+	@Override
+	public String getPropertyValue() {
+		boolean configured = getContext().getProperty("LOG_FILE") != null || System.getProperty("LOG_FILE") != null;
+		return configured ? withFile : withoutFile;
+	}
+}
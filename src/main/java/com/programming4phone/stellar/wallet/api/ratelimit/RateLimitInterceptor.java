@@ -0,0 +1,28 @@
+package com.programming4phone.stellar.wallet.api.ratelimit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Rejects requests from client addresses that exceed their rate before the web service runs, so that neither
+ * the token verification nor Redis are called for them, see {@link RateLimiter}.
+ * <br/><br/>
+ * The client address is the remote address of the connection. Behind a load balancer or proxy set
+ * <i>server.use-forward-headers=true</i>, so that it is taken from the <i>X-Forwarded-For</i> header instead.
+ */
+@Component
+public class RateLimitInterceptor extends HandlerInterceptorAdapter {
+
+	@Autowired
+	private RateLimiter rateLimiter;
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		rateLimiter.acquireClient(request.getRemoteAddr());
+		return true;
+	}
+}
@@ -0,0 +1,198 @@
+package com.programming4phone.stellar.wallet.api.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.cache.ExpiringLruCache;
+import com.programming4phone.stellar.wallet.api.error.RateLimitedException;
+
+/**
+ * Optional admission control for the key web services: a {@link TokenBucket} per client address, checked before
+ * the token is verified, and one per verified subject (the <i>sub</i> claim of the token), checked after it is
+ * verified. A request finding its bucket empty is rejected with {@link RateLimitedException}, which the web services
+ * answer with 429 (TOO_MANY_REQUESTS) and a <i>Retry-After</i> header.
+ * <br/><br/>
+ * By default every node holds its own buckets, so a client may send up to the configured rate to every node.
+ * With <i>wallet.rate-limit.shared</i> the buckets are kept in Redis and updated by a script, so that the rates
+ * apply across all nodes; should Redis fail, the local buckets are used instead.
+ * <br/><br/>
+ * Local buckets are held in an LRU cache of <i>max-buckets</i> entries, and dropped once they have had time
+ * to fill up, as a full bucket is no different from a new one.
+ * <br/><br/>
+ * The shared buckets are keys starting with <i>key-prefix</i>, in the Redis of the account keys, so account numbers
+ * with that prefix are rejected by the web services and skipped by the jobs scanning the keys, see
+ * {@link #isBucketKey(String)}. Otherwise a caller could reset its own bucket by deleting or overwriting it.
+ */
+@Component
+public class RateLimiter implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	public static final String CLIENT = "client";
+	public static final String SUBJECT = "subject";
+
+	/*
+	 * KEYS[1] bucket, ARGV[1] capacity, ARGV[2] tokens per millisecond, ARGV[3] now in milliseconds.
+	 * Returns 0 if a token was taken, otherwise the milliseconds until the next token is available.
+	 */
+	private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+			"local capacity = tonumber(ARGV[1])\n" +
+			"local rate = tonumber(ARGV[2])\n" +
+			"local now = tonumber(ARGV[3])\n" +
+			"local state = redis.call('HMGET', KEYS[1], 'tokens', 'updated')\n" +
+			"local tokens = tonumber(state[1]) or capacity\n" +
+			"local updated = tonumber(state[2]) or now\n" +
+			"tokens = math.min(capacity, tokens + math.max(0, now - updated) * rate)\n" +
+			"local wait = 0\n" +
+			"if tokens >= 1 then tokens = tokens - 1 else wait = math.ceil((1 - tokens) / rate) end\n" +
+			"redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'updated', tostring(now))\n" +
+			"redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate))\n" +
+			"return wait", Long.class);
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Value("${wallet.rate-limit.enabled:false}")
+	private boolean enabled;
+
+	@Value("${wallet.rate-limit.shared:false}")
+	private boolean shared;
+
+	@Value("${wallet.rate-limit.client.capacity:100}")
+	private double clientCapacity;
+
+	@Value("${wallet.rate-limit.client.per-second:50}")
+	private double clientPerSecond;
+
+	@Value("${wallet.rate-limit.subject.capacity:20}")
+	private double subjectCapacity;
+
+	@Value("${wallet.rate-limit.subject.per-second:10}")
+	private double subjectPerSecond;
+
+	@Value("${wallet.rate-limit.max-buckets:100000}")
+	private int maxBuckets;
+
+	@Value("${wallet.rate-limit.key-prefix:wallet:rate:}")
+	private String keyPrefix;
+
+	private ExpiringLruCache<String, TokenBucket> buckets;
+
+	private final LongAdder clientAllowed = new LongAdder();
+	private final LongAdder clientRejected = new LongAdder();
+	private final LongAdder subjectAllowed = new LongAdder();
+	private final LongAdder subjectRejected = new LongAdder();
+	private final LongAdder redisErrors = new LongAdder();
+
+	@PostConstruct
+	public void init() {
+		buckets = new ExpiringLruCache<>(maxBuckets);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Whether a key names a shared bucket, regardless of rate limiting being enabled, as other nodes may share theirs.
+	 * @param key String, a Redis key or an account number
+	 * @return true if the key may be a shared bucket, and so is not an account number
+	 */
+	public boolean isBucketKey(String key) {
+		return key.startsWith(keyPrefix);
+	}
+
+	/**
+	 * Take a token from the bucket of a client address.
+	 * @param address String containing the IP address of the client
+	 * @throws com.programming4phone.stellar.wallet.api.error.RateLimitedException
+	 */
+	public void acquireClient(String address) {
+		if (enabled && address != null) {
+			acquire(CLIENT, address, clientCapacity, clientPerSecond, clientAllowed, clientRejected);
+		}
+	}
+
+	/**
+	 * Take a token from the bucket of a verified subject.
+	 * @param subject String containing the sub claim of a verified token
+	 * @throws com.programming4phone.stellar.wallet.api.error.RateLimitedException
+	 */
+	public void acquireSubject(String subject) {
+		if (enabled && subject != null) {
+			acquire(SUBJECT, subject, subjectCapacity, subjectPerSecond, subjectAllowed, subjectRejected);
+		}
+	}
+
+	private void acquire(String kind, String id, double capacity, double perSecond, LongAdder allowed, LongAdder rejected) {
+		String key = keyPrefix + kind + ":" + id;
+		long waitNanos = shared ? acquireShared(key, capacity, perSecond) : -1;
+		if (waitNanos < 0) {
+			waitNanos = acquireLocal(key, capacity, perSecond);
+		}
+		if (waitNanos == 0) {
+			allowed.increment();
+			return;
+		}
+		rejected.increment();
+		logger.debug("rate limited {} {} for {} ns", kind, id, waitNanos);
+		throw new RateLimitedException(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999999999L)));
+	}
+
+	private long acquireLocal(String key, double capacity, double perSecond) {
+		long now = System.nanoTime();
+		// once the bucket is idle for the time it takes to fill up, it is the same as a new bucket and may be dropped
+		long expiresAt = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(TokenBucket.refillNanos(capacity, perSecond));
+		return buckets.getOrCreate(key, k -> new TokenBucket(capacity, perSecond, now), expiresAt).tryAcquire(now);
+	}
+
+	/**
+	 * @return the wait time in nanoseconds, or -1 if Redis could not be reached
+	 */
+	private long acquireShared(String key, double capacity, double perSecond) {
+		try {
+			Long waitMillis = stringRedisTemplate.execute(ACQUIRE_SCRIPT, Collections.singletonList(key),
+					String.valueOf(capacity), String.valueOf(perSecond / 1000), String.valueOf(System.currentTimeMillis()));
+			return TimeUnit.MILLISECONDS.toNanos(waitMillis);
+		}
+		catch(RuntimeException e) { // do not turn a Redis outage into an outage of the web services
+			redisErrors.increment();
+			logger.debug("Unable to update the shared rate limit {}", key, e);
+			return -1;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (!enabled) {
+			return metrics;
+		}
+		metrics.add(new Metric<Long>("ratelimit.client.allowed", clientAllowed.sum()));
+		metrics.add(new Metric<Long>("ratelimit.client.rejected", clientRejected.sum()));
+		metrics.add(new Metric<Long>("ratelimit.subject.allowed", subjectAllowed.sum()));
+		metrics.add(new Metric<Long>("ratelimit.subject.rejected", subjectRejected.sum()));
+		metrics.add(new Metric<Integer>("ratelimit.buckets", buckets.size()));
+		metrics.add(new Metric<Long>("ratelimit.evictions", buckets.getEvictions()));
+		if (shared) {
+			metrics.add(new Metric<Long>("ratelimit.redis.errors", redisErrors.sum()));
+		}
+		return metrics;
+	}
+}
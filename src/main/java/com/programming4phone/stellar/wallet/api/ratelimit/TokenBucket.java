@@ -0,0 +1,52 @@
+package com.programming4phone.stellar.wallet.api.ratelimit;
+
+/**
+ * A token bucket holding at most <i>capacity</i> tokens, refilled at a constant rate. Every request takes one
+ * token, so a client may send a burst of <i>capacity</i> requests, then <i>tokensPerSecond</i> requests per second.
+ * <br/><br/>
+ * The bucket is refilled lazily from the elapsed time when a token is taken, so an idle bucket costs nothing.
+ */
+public class TokenBucket {
+
+	private final double capacity;
+	private final double tokensPerNano;
+
+	private double tokens;
+	private long updated;
+
+	/**
+	 * @param capacity maximum number of tokens, the size of the largest burst
+	 * @param tokensPerSecond refill rate
+	 * @param now time stamp from {@link System#nanoTime()}
+	 */
+	public TokenBucket(double capacity, double tokensPerSecond, long now) {
+		this.capacity = capacity;
+		this.tokensPerNano = tokensPerSecond / 1e9;
+		this.tokens = capacity;
+		this.updated = now;
+	}
+
+	/**
+	 * Take a token if one is available.
+	 * @param now time stamp from {@link System#nanoTime()}
+	 * @return 0 if a token was taken, otherwise the time in nanoseconds until the next token is available
+	 */
+	public synchronized long tryAcquire(long now) {
+		tokens = Math.min(capacity, tokens + Math.max(0, now - updated) * tokensPerNano);
+		updated = now;
+		if (tokens >= 1) {
+			tokens--;
+			return 0;
+		}
+		return (long) Math.ceil((1 - tokens) / tokensPerNano);
+	}
+
+	/**
+	 * @param capacity maximum number of tokens
+	 * @param tokensPerSecond refill rate
+	 * @return time in nanoseconds an empty bucket takes to fill up, after which it is the same as a new bucket
+	 */
+	public static long refillNanos(double capacity, double tokensPerSecond) {
+		return (long) Math.ceil(capacity / tokensPerSecond * 1e9);
+	}
+}
@@ -0,0 +1,74 @@
+package com.programming4phone.stellar.wallet.api.reencrypt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs {@link SeedReEncryptor} once at startup and stops the application, when <i>wallet.reencrypt.run</i> is set.
+ * The exit code is 0 if every seed has been scanned and none was skipped, and 1 otherwise; run again to resume from
+ * the checkpoint. Skipped seeds could be decrypted with neither passphrase, usually because the old one is wrong.
+ * <br/><br/>
+ * Pass the passphrases as environment variables (<code>WALLET_REENCRYPT_OLD_PASSWORD</code>,
+ * <code>WALLET_REENCRYPT_NEW_PASSWORD</code>) rather than on the command line, where they would be visible
+ * to other users of the host.
+ */
+@Component
+public class ReEncryptionRunner implements ApplicationRunner {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private SeedReEncryptor seedReEncryptor;
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Value("${wallet.reencrypt.run:false}")
+	private boolean run;
+
+	@Value("${wallet.reencrypt.old-password:}")
+	private String oldPassword;
+
+	@Value("${wallet.reencrypt.new-password:}")
+	private String newPassword;
+
+	@Value("${wallet.reencrypt.key-length:256}")
+	private int keyLength;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!run) {
+			return;
+		}
+		int exitCode = 1;
+		if (oldPassword.isEmpty() || newPassword.isEmpty()) {
+			logger.error("wallet.reencrypt.old-password and wallet.reencrypt.new-password are required");
+		}
+		else {
+			try {
+				long reEncrypted = seedReEncryptor.reEncrypt(oldPassword.toCharArray(), newPassword.toCharArray(), keyLength);
+				long skipped = seedReEncryptor.getSkipped();
+				if (skipped > 0) {
+					logger.error("re-encryption incomplete, re-encrypted seeds: " + reEncrypted + ", skipped seeds: " + skipped
+							+ " could be decrypted with neither wallet.reencrypt.old-password nor wallet.reencrypt.new-password");
+				}
+				else {
+					logger.info("re-encryption complete, re-encrypted seeds: " + reEncrypted);
+					exitCode = 0;
+				}
+			}
+			catch(Exception e) {
+				logger.error("re-encryption failed, run again to resume from the checkpoint", e);
+			}
+		}
+		int status = exitCode;
+		System.exit(SpringApplication.exit(applicationContext, () -> status));
+	}
+}
@@ -0,0 +1,277 @@
+package com.programming4phone.stellar.wallet.api.reencrypt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.aes.AES;
+import com.programming4phone.stellar.wallet.api.dao.GlobPattern;
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+import com.programming4phone.stellar.wallet.api.dao.SeedNearCache;
+
+/**
+ * Batch re-encryption of the secret seeds stored by {@link com.programming4phone.stellar.wallet.api.dao.KeyDao},
+ * to rotate the passphrase or move to a longer key.
+ * <br/><br/>
+ * The account numbers are scanned in chunks through the {@link KeyStore}, so that every store and Redis layout is
+ * covered. Each chunk is read with a single {@link KeyStore#multiGet(List)}, decrypted and re-encrypted in parallel
+ * on a ForkJoinPool sized to the cores (decryption derives a key per seed, which is what makes the job CPU-bound),
+ * and written back with {@link KeyStore#multiReplace(List, List, List)}, a compare-and-set per seed, so that a seed
+ * changed through the web services in the meantime is never overwritten. All seeds are re-encrypted with a single
+ * {@link AES.DerivedKey}.
+ * <br/><br/>
+ * The scan cursor is saved to a checkpoint file after every chunk, and a later run resumes from it. Seeds that
+ * can only be decrypted with the new passphrase have already been re-encrypted and are left alone, so a chunk may
+ * safely be processed twice. Seeds that can be decrypted with neither passphrase are skipped and counted, since
+ * they usually mean that the old passphrase is wrong.
+ */
+@Component
+public class SeedReEncryptor implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@Autowired
+	private SeedNearCache seedNearCache;
+
+	@Value("${wallet.reencrypt.match:*}")
+	private String match;
+
+	@Value("${wallet.reencrypt.scan-count:500}")
+	private int scanCount;
+
+	@Value("${wallet.reencrypt.parallelism:0}")
+	private int parallelism;
+
+	@Value("${wallet.reencrypt.checkpoint-file:reencrypt.checkpoint}")
+	private String checkpointFile;
+
+	private final LongAdder scanned = new LongAdder();
+	private final LongAdder reEncrypted = new LongAdder();
+	private final LongAdder alreadyReEncrypted = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder conflicts = new LongAdder();
+	private volatile boolean running;
+	private volatile long startedAt;
+
+	/**
+	 * Outcome of the re-encryption of a single stored value.
+	 */
+	private static class Entry {
+		final String accountNumber;
+		final String oldValue;
+		final String newValue;
+		final boolean current;
+		Entry(String accountNumber, String oldValue, String newValue, boolean current) {
+			this.accountNumber = accountNumber;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+			this.current = current;
+		}
+	}
+
+	/**
+	 * Re-encrypt all stored secret seeds, resuming from the checkpoint file if it exists.
+	 * The checkpoint file is removed once the whole key space has been scanned.
+	 * @param oldPassword passphrase the seeds are currently encrypted with
+	 * @param newPassword passphrase to encrypt the seeds with
+	 * @param keyLength key length to encrypt the seeds with (128, 192, or 256)
+	 * @return the number of re-encrypted seeds
+	 * @throws AES.InvalidKeyLengthException
+	 *   if keyLength is not 128, 192, or 256
+	 * @throws AES.StrongEncryptionNotAvailableException
+	 *   if keyLength is 192 or 256, but the Java runtime's jurisdiction
+	 *   policy files do not allow 192- or 256-bit encryption
+	 * @throws IOException
+	 *   if the checkpoint file cannot be read or written
+	 */
+	public synchronized long reEncrypt(char[] oldPassword, char[] newPassword, int keyLength)
+			throws AES.InvalidKeyLengthException, AES.StrongEncryptionNotAvailableException, IOException {
+		Path checkpoint = Paths.get(checkpointFile);
+		String cursor = Files.exists(checkpoint) ? new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim() : null;
+		logger.info("re-encrypting seeds matching " + match + " with " + keyLength + "-bit keys, starting at "
+				+ (cursor == null ? "the beginning" : "cursor " + cursor));
+		GlobPattern pattern = new GlobPattern(match);
+		long reEncryptedBefore = reEncrypted.sum();
+		ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+		running = true;
+		startedAt = System.currentTimeMillis();
+		try (AES.DerivedKey derivedKey = AES.deriveKey(keyLength, newPassword)) {
+			keyStore.scan(cursor, scanCount, (chunk, next) -> {
+				try {
+					reEncrypt(chunk.stream().filter(pattern).collect(Collectors.toList()), oldPassword, newPassword, derivedKey, pool);
+					if (next != null) {
+						saveCheckpoint(checkpoint, next);
+					}
+				}
+				catch(AES.StrongEncryptionNotAvailableException e) {
+					throw new IllegalStateException(e); // unwrapped below
+				}
+				catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				logger.info((next == null ? "end" : "cursor " + next) + ": scanned " + scanned.sum() + ", re-encrypted " + reEncrypted.sum()
+						+ ", already re-encrypted " + alreadyReEncrypted.sum() + ", skipped " + skipped.sum() + ", conflicts " + conflicts.sum() + ", " + throughput() + " seeds/s");
+			});
+			Files.deleteIfExists(checkpoint);
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+		catch(IllegalStateException e) {
+			if (e.getCause() instanceof AES.StrongEncryptionNotAvailableException) {
+				throw (AES.StrongEncryptionNotAvailableException) e.getCause();
+			}
+			throw e;
+		}
+		finally {
+			running = false;
+			pool.shutdown();
+		}
+		return reEncrypted.sum() - reEncryptedBefore;
+	}
+
+	private void reEncrypt(List<String> accountNumbers, char[] oldPassword, char[] newPassword, AES.DerivedKey derivedKey,
+			ForkJoinPool pool)
+			throws AES.StrongEncryptionNotAvailableException {
+		if (accountNumbers.isEmpty()) {
+			return;
+		}
+		scanned.add(accountNumbers.size());
+		List<String> values = keyStore.multiGet(accountNumbers);
+		List<Entry> entries;
+		try {
+			entries = pool.submit(() -> IntStream.range(0, accountNumbers.size()).parallel()
+					.mapToObj(i -> reEncrypt(accountNumbers.get(i), values.get(i), oldPassword, newPassword, derivedKey))
+					.collect(Collectors.toList())).get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		catch(ExecutionException e) {
+			for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if (cause instanceof AES.StrongEncryptionNotAvailableException) {
+					throw (AES.StrongEncryptionNotAvailableException) cause;
+				}
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		List<Entry> changed = entries.stream().filter(entry -> entry.newValue != null).collect(Collectors.toList());
+		long current = entries.stream().filter(entry -> entry.current).count();
+		alreadyReEncrypted.add(current);
+		skipped.add(entries.size() - changed.size() - current);
+		if (changed.isEmpty()) {
+			return;
+		}
+		List<Boolean> results = keyStore.multiReplace(
+				changed.stream().map(entry -> entry.accountNumber).collect(Collectors.toList()),
+				changed.stream().map(entry -> entry.oldValue).collect(Collectors.toList()),
+				changed.stream().map(entry -> entry.newValue).collect(Collectors.toList()));
+		List<String> written = new ArrayList<>(changed.size());
+		for (int i = 0; i < changed.size(); i++) {
+			if (results.get(i)) {
+				written.add(changed.get(i).accountNumber);
+			}
+		}
+		reEncrypted.add(written.size());
+		conflicts.add(changed.size() - written.size());
+		seedNearCache.invalidate(written);
+	}
+
+	/**
+	 * @return the re-encrypted value, or an entry without new value if the stored value is missing
+	 * or cannot be decrypted with the old passphrase
+	 */
+	private static Entry reEncrypt(String accountNumber, String value, char[] oldPassword, char[] newPassword,
+			AES.DerivedKey derivedKey) {
+		if (value == null) { // deleted since the scan, or not an account
+			return new Entry(accountNumber, null, null, false);
+		}
+		byte[] plainText;
+		try {
+			plainText = AES.decrypt(oldPassword, Base64.decodeBase64(value));
+		}
+		catch(AES.InvalidPasswordException | AES.InvalidAESStreamException | AES.StrongEncryptionNotAvailableException e) {
+			return new Entry(accountNumber, value, null, isEncryptedWith(newPassword, value));
+		}
+		try {
+			return new Entry(accountNumber, value, Base64.encodeBase64String(derivedKey.encrypt(plainText)), false);
+		}
+		catch(AES.StrongEncryptionNotAvailableException e) {
+			throw new IllegalStateException(e); // unwrapped by the caller
+		}
+		finally {
+			Arrays.fill(plainText, (byte) 0);
+		}
+	}
+
+	private static boolean isEncryptedWith(char[] password, String value) {
+		try {
+			Arrays.fill(AES.decrypt(password, Base64.decodeBase64(value)), (byte) 0);
+			return true;
+		}
+		catch(AES.InvalidPasswordException | AES.InvalidAESStreamException | AES.StrongEncryptionNotAvailableException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of seeds skipped since the application started, because they could be decrypted with
+	 * neither the old nor the new passphrase
+	 */
+	public long getSkipped() {
+		return skipped.sum();
+	}
+
+	/**
+	 * Write the cursor to a temporary file first, so that a crash never leaves a truncated checkpoint.
+	 */
+	private static void saveCheckpoint(Path checkpoint, String cursor) throws IOException {
+		Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+		Files.write(temporary, cursor.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private long throughput() {
+		long elapsedMillis = System.currentTimeMillis() - startedAt;
+		return elapsedMillis == 0 ? 0 : reEncrypted.sum() * 1000 / elapsedMillis;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Integer>("keys.reencrypt.running", running ? 1 : 0));
+		metrics.add(new Metric<Long>("keys.reencrypt.scanned", scanned.sum()));
+		metrics.add(new Metric<Long>("keys.reencrypt.reencrypted", reEncrypted.sum()));
+		metrics.add(new Metric<Long>("keys.reencrypt.already-reencrypted", alreadyReEncrypted.sum()));
+		metrics.add(new Metric<Long>("keys.reencrypt.skipped", skipped.sum()));
+		metrics.add(new Metric<Long>("keys.reencrypt.conflicts", conflicts.sum()));
+		metrics.add(new Metric<Long>("keys.reencrypt.throughput", running ? throughput() : 0));
+		return metrics;
+	}
+}
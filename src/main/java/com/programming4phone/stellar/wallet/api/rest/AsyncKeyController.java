@@ -0,0 +1,90 @@
+package com.programming4phone.stellar.wallet.api.rest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.programming4phone.stellar.wallet.api.dao.KeyDao;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.idtoken.TokenVerifier;
+
+/**
+ * Asynchronous variant of the {@link KeyController} web services. The request thread is released as soon as
+ * the token verification has been started; the response is written when the verification and the Redis
+ * command have completed. Token verification calls to Google use non-blocking I/O, and Redis commands run on
+ * the small <i>redisExecutor</i> pool, so a few threads can serve thousands of concurrent requests.
+ * Status codes are the same as for the blocking web services.
+ */
+@CrossOrigin
+@RestController
+@RequestMapping("/wallet/async/key")
+public class AsyncKeyController {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private TokenVerifier tokenVerifier;
+
+	@Autowired
+	@Qualifier("redisExecutor")
+	private Executor redisExecutor;
+
+	/**
+	 * Retrieve the account keys associated with a specific account number from the Redis database.
+	 * See {@link KeyController#getAccountKeys(String, String)}.
+	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
+	 * @param accountNumber Stellar account number (hashed public key)
+	 * @return <b>CompletableFuture</b> of the WalletKeys object containing hashed public key and encrypted private key
+	 */
+	@RequestMapping(value="/{accountNumber}", method=RequestMethod.GET, produces="application/json")
+	public CompletableFuture<WalletKeys> getAccountKeys(@RequestHeader("Authorization") String authHeader, @PathVariable String accountNumber) {
+		logger.debug("accountNumber: {}", accountNumber);
+		return tokenVerifier.verifyAsync(authHeader)
+				.thenApplyAsync(verified -> keyDao.getSecretSeed(accountNumber), redisExecutor);
+	}
+
+	/**
+	 * Store the account keys associated with a specific account number into the Redis database.
+	 * See {@link KeyController#saveAccount(String, WalletKeys)}.
+	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
+	 * @param walletKeys Object containing hashed public key and encrypted private key
+	 * @return <b>CompletableFuture</b> completing when the account keys are stored
+	 */
+	@RequestMapping(method=RequestMethod.PUT, consumes="application/json")
+	@ResponseStatus(HttpStatus.CREATED)
+	public CompletableFuture<Void> saveAccount(@RequestHeader("Authorization") String authHeader, @RequestBody WalletKeys walletKeys) {
+		logger.debug("accountKeys: {}", walletKeys);
+		return tokenVerifier.verifyAsync(authHeader)
+				.thenAcceptAsync(verified -> keyDao.saveAccount(walletKeys), redisExecutor);
+	}
+
+	/**
+	 * Remove the account keys associated with a specific account number from the Redis database.
+	 * See {@link KeyController#removeAccount(String, String)}.
+	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
+	 * @param accountNumber Stellar account number (hashed public key)
+	 * @return <b>CompletableFuture</b> completing when the account keys are removed
+	 */
+	@RequestMapping(value="/delete/{accountNumber}", method=RequestMethod.DELETE)
+	public CompletableFuture<Void> removeAccount(@RequestHeader("Authorization") String authHeader, @PathVariable String accountNumber) {
+		logger.debug("accountNumber: {}", accountNumber);
+		return tokenVerifier.verifyAsync(authHeader)
+				.thenAcceptAsync(verified -> keyDao.removeAccount(accountNumber), redisExecutor);
+	}
+}
@@ -0,0 +1,104 @@
+package com.programming4phone.stellar.wallet.api.rest;
+
+import java.util.function.Supplier;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers for the stages of a key web service request, and counters for its client errors, published with
+ * the other Micrometer meters on the actuator <code>/prometheus</code> endpoint:
+ * <ul>
+ *   <li><b>wallet.key.stage</b>: time spent in token verification (<i>token</i>), in Redis (<i>redis</i>),
+ *   and reading or writing JSON (<i>deserialization</i>, <i>serialization</i>), with a percentile histogram</li>
+ *   <li><b>wallet.key.client-errors</b>: responses with status 400 (BAD_REQUEST), 401 (UNAUTHORIZED),
+ *   404 (NOT_FOUND) or any other 4xx status</li>
+ * </ul>
+ * Both are tagged with the HTTP method and the URI template of the web service, like the end-to-end
+ * <i>http.server.requests</i> timer.
+ */
+@Component
+public class KeyApiMetrics extends HandlerInterceptorAdapter {
+
+	public static final String TOKEN = "token";
+	public static final String REDIS = "redis";
+	public static final String SERIALIZATION = "serialization";
+	public static final String DESERIALIZATION = "deserialization";
+
+	private static final String UNKNOWN = "UNKNOWN";
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	/**
+	 * @param stage one of the stage names
+	 * @return the timer of a stage of the current request, to record work done on another thread
+	 */
+	public Timer timer(String stage) {
+		HttpServletRequest request = currentRequest();
+		return Timer.builder("wallet.key.stage")
+				.description("Time spent in a stage of a key web service request")
+				.tags("method", request == null ? UNKNOWN : request.getMethod(), "uri", uri(request), "stage", stage)
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Run and time a stage of the current request.
+	 * @param stage one of the stage names
+	 * @param work the stage
+	 * @return the result of the stage
+	 */
+	public <T> T time(String stage, Supplier<T> work) {
+		return timer(stage).record(work);
+	}
+
+	/**
+	 * Run and time a stage of the current request.
+	 * @param stage one of the stage names
+	 * @param work the stage
+	 */
+	public void time(String stage, Runnable work) {
+		timer(stage).record(work);
+	}
+
+	/**
+	 * Count client errors once the response status is known, after any exception handler has run.
+	 */
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		int status = response.getStatus();
+		if (status >= 400 && status < 500) {
+			meterRegistry.counter("wallet.key.client-errors",
+					"method", request.getMethod(), "uri", uri(request), "status", String.valueOf(status)).increment();
+		}
+	}
+
+	/**
+	 * @return true if the current request is handled by a key web service
+	 */
+	boolean isKeyRequest() {
+		return uri(currentRequest()).startsWith("/wallet/");
+	}
+
+	private static HttpServletRequest currentRequest() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		return attributes instanceof ServletRequestAttributes ? ((ServletRequestAttributes) attributes).getRequest() : null;
+	}
+
+	private static String uri(HttpServletRequest request) {
+		Object pattern = request == null ? null : request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		return pattern == null ? UNKNOWN : pattern.toString();
+	}
+}
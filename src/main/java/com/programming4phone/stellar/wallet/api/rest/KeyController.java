@@ -1,11 +1,12 @@
 package com.programming4phone.stellar.wallet.api.rest;
 
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.CrossOrigin;
-import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
@@ -16,10 +17,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.programming4phone.stellar.wallet.api.dao.KeyDao;
 import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
-import com.programming4phone.stellar.wallet.api.error.InvalidKeyException;
-import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
-import com.programming4phone.stellar.wallet.api.error.TokenMissingException;
-import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeysResult;
 import com.programming4phone.stellar.wallet.api.idtoken.TokenVerifier;
 
 @CrossOrigin
@@ -35,20 +33,27 @@ public class KeyController {
 	@Autowired
 	private TokenVerifier tokenVerifier;
 	
+	@Autowired
+	private SpeculativeKeyReader speculativeKeyReader;
+	
+	@Autowired
+	private KeyApiMetrics keyApiMetrics;
+	
 	/**
 	 * Retrieve the account keys associated with a specific account number from the Redis database.  
 	 * If the account key is not found in the database, this web service will return HTTP status code  
 	 * 404 (NOT_FOUND). If the Google authentication token provided in the Authorization request header
 	 * cannot be verified, this web service will return HTTP status code 401 (UNAUTHORIZED).
+	 * With <i>wallet.speculative-read.enabled</i> the Redis read runs concurrently with the token verification,
+	 * see {@link SpeculativeKeyReader}.
 	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
 	 * @param accountNumber Stellar account number (hashed public key)
 	 * @return <b>WalletKeys</b> object containing hashed public key and encrypted private key
 	 */
 	@RequestMapping(value="/{accountNumber}", method=RequestMethod.GET, produces="application/json")
 	public WalletKeys getAccountKeys(@RequestHeader("Authorization") String authHeader, @PathVariable String accountNumber) {
-		tokenVerifier.verify(authHeader);
-		logger.info("accountNumber: " + accountNumber);
-		return keyDao.getSecretSeed(accountNumber);
+		logger.debug("accountNumber: {}", accountNumber);
+		return speculativeKeyReader.getAccountKeys(authHeader, accountNumber);
 	}
 
 	/**
@@ -62,9 +67,9 @@ public class KeyController {
 	@RequestMapping(method=RequestMethod.PUT, consumes="application/json")
 	@ResponseStatus(HttpStatus.CREATED)
 	public void saveAccount(@RequestHeader("Authorization") String authHeader, @RequestBody WalletKeys walletKeys) {
-		tokenVerifier.verify(authHeader);
-		logger.info("accountKeys: " + walletKeys.toString());
-		keyDao.saveAccount(walletKeys);
+		keyApiMetrics.time(KeyApiMetrics.TOKEN, () -> tokenVerifier.verify(authHeader));
+		logger.debug("accountKeys: {}", walletKeys);
+		keyApiMetrics.time(KeyApiMetrics.REDIS, () -> keyDao.saveAccount(walletKeys));
 	}
 	
 	/**
@@ -76,40 +81,63 @@ public class KeyController {
 	 */
 	@RequestMapping(value="/delete/{accountNumber}", method=RequestMethod.DELETE)
 	public void removeAccount(@RequestHeader("Authorization") String authHeader, @PathVariable String accountNumber) {
-		tokenVerifier.verify(authHeader);
-		logger.info("accountNumber: " + accountNumber);
-		keyDao.removeAccount(accountNumber);
-	}
-	
-	/**
-	 * Exception handler that converts KeyNotFoundException to HTTP status 404 (NOT_FOUND)
-	 */
-	@ExceptionHandler(KeyNotFoundException.class)
-	@ResponseStatus(HttpStatus.NOT_FOUND)
-	public void noAccountFound() {
+		keyApiMetrics.time(KeyApiMetrics.TOKEN, () -> tokenVerifier.verify(authHeader));
+		logger.debug("accountNumber: {}", accountNumber);
+		keyApiMetrics.time(KeyApiMetrics.REDIS, () -> keyDao.removeAccount(accountNumber));
 	}
 	
 	/**
-	 * Exception handler that converts InvalidKeyException to HTTP status 400 (BAD_REQUEST)
+	 * Retrieve the account keys for a list of account numbers from the Redis database, using a single
+	 * token verification and a single Redis round trip. Every account number gets its own result with 
+	 * status 200 (OK) and the account keys, or 404 (NOT_FOUND) if the account key is not found. If the 
+	 * list holds more than <i>wallet.batch.max-size</i> account numbers, this web service will return 
+	 * HTTP status code 413 (PAYLOAD_TOO_LARGE). If the Google authentication token provided in the 
+	 * Authorization request header cannot be verified, this web service will return HTTP status code 401 (UNAUTHORIZED).
+	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
+	 * @param accountNumbers List of Stellar account numbers (hashed public keys)
+	 * @return <b>List</b> of WalletKeysResult objects, in the order of the account numbers
 	 */
-	@ExceptionHandler(InvalidKeyException.class)
-	@ResponseStatus(HttpStatus.BAD_REQUEST)
-	public void invalidKey() {
+	@RequestMapping(value="/batch", method=RequestMethod.POST, consumes="application/json", produces="application/json")
+	public List<WalletKeysResult> getAccountKeys(@RequestHeader("Authorization") String authHeader, @RequestBody List<String> accountNumbers) {
+		keyApiMetrics.time(KeyApiMetrics.TOKEN, () -> tokenVerifier.verify(authHeader));
+		logger.debug("accountNumbers: {}", accountNumbers);
+		return keyApiMetrics.time(KeyApiMetrics.REDIS, () -> keyDao.getSecretSeeds(accountNumbers));
 	}
 	
 	/**
-	 * Exception handler that converts TokenMissingException to HTTP status 400 (BAD_REQUEST)
+	 * Store the account keys for a list of accounts into the Redis database, using a single
+	 * token verification and a single pipelined Redis round trip. Every account gets its own result with
+	 * status 201 (CREATED), or 400 (BAD_REQUEST) if either of its account keys is invalid. If the 
+	 * list holds more than <i>wallet.batch.max-size</i> accounts, this web service will return 
+	 * HTTP status code 413 (PAYLOAD_TOO_LARGE). If the Google authentication token provided in the 
+	 * Authorization request header cannot be verified, this web service will return HTTP status code 401 (UNAUTHORIZED).
+	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
+	 * @param walletKeys List of objects containing hashed public key and encrypted private key
+	 * @return <b>List</b> of WalletKeysResult objects, in the order of the accounts
 	 */
-	@ExceptionHandler(TokenMissingException.class)
-	@ResponseStatus(HttpStatus.BAD_REQUEST)
-	public void tokenMissing() {
+	@RequestMapping(value="/batch", method=RequestMethod.PUT, consumes="application/json", produces="application/json")
+	public List<WalletKeysResult> saveAccounts(@RequestHeader("Authorization") String authHeader, @RequestBody List<WalletKeys> walletKeys) {
+		keyApiMetrics.time(KeyApiMetrics.TOKEN, () -> tokenVerifier.verify(authHeader));
+		logger.debug("accountKeys: {}", walletKeys.size());
+		return keyApiMetrics.time(KeyApiMetrics.REDIS, () -> keyDao.saveAccounts(walletKeys));
 	}
 	
 	/**
-	 * Exception handler that converts TokenVerificationException to HTTP status 401 (UNAUTHORIZED)
+	 * Remove the account keys for a list of account numbers from the Redis database, using a single
+	 * token verification and a single pipelined Redis round trip. Every account number gets its own result 
+	 * with status 200 (OK), or 404 (NOT_FOUND) if the account key did not exist. POST is used because 
+	 * a request body on DELETE is not reliably supported by HTTP clients and proxies. If the 
+	 * list holds more than <i>wallet.batch.max-size</i> account numbers, this web service will return 
+	 * HTTP status code 413 (PAYLOAD_TOO_LARGE). If the Google authentication token provided in the 
+	 * Authorization request header cannot be verified, this web service will return HTTP status code 401 (UNAUTHORIZED).
+	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
+	 * @param accountNumbers List of Stellar account numbers (hashed public keys)
+	 * @return <b>List</b> of WalletKeysResult objects, in the order of the account numbers
 	 */
-	@ExceptionHandler(TokenVerificationException.class)
-	@ResponseStatus(HttpStatus.UNAUTHORIZED)
-	public void tokenNotVerified() {
+	@RequestMapping(value="/delete", method=RequestMethod.POST, consumes="application/json", produces="application/json")
+	public List<WalletKeysResult> removeAccounts(@RequestHeader("Authorization") String authHeader, @RequestBody List<String> accountNumbers) {
+		keyApiMetrics.time(KeyApiMetrics.TOKEN, () -> tokenVerifier.verify(authHeader));
+		logger.debug("accountNumbers: {}", accountNumbers);
+		return keyApiMetrics.time(KeyApiMetrics.REDIS, () -> keyDao.removeAccounts(accountNumbers));
 	}
 }
@@ -0,0 +1,93 @@
+package com.programming4phone.stellar.wallet.api.rest;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.programming4phone.stellar.wallet.api.error.BatchTooLargeException;
+import com.programming4phone.stellar.wallet.api.error.InvalidKeyException;
+import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+import com.programming4phone.stellar.wallet.api.error.RateLimitedException;
+import com.programming4phone.stellar.wallet.api.error.TokenMissingException;
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationUnavailableException;
+
+/**
+ * Exception handlers shared by the blocking and the asynchronous key web services.
+ * Exceptions completing an asynchronous result are matched on their cause as well.
+ */
+@ControllerAdvice(basePackageClasses = KeyExceptionHandler.class)
+public class KeyExceptionHandler {
+
+	/**
+	 * Exception handler that converts KeyNotFoundException to HTTP status 404 (NOT_FOUND)
+	 */
+	@ExceptionHandler(KeyNotFoundException.class)
+	@ResponseStatus(HttpStatus.NOT_FOUND)
+	public void noAccountFound() {
+	}
+	
+	/**
+	 * Exception handler that converts InvalidKeyException to HTTP status 400 (BAD_REQUEST)
+	 */
+	@ExceptionHandler(InvalidKeyException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void invalidKey() {
+	}
+	
+	/**
+	 * Exception handler that converts BatchTooLargeException to HTTP status 413 (PAYLOAD_TOO_LARGE)
+	 */
+	@ExceptionHandler(BatchTooLargeException.class)
+	@ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+	public void batchTooLarge() {
+	}
+	
+	/**
+	 * Exception handler that converts TokenMissingException to HTTP status 400 (BAD_REQUEST)
+	 */
+	@ExceptionHandler(TokenMissingException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public void tokenMissing() {
+	}
+	
+	/**
+	 * Exception handler that converts TokenVerificationException to HTTP status 401 (UNAUTHORIZED)
+	 */
+	@ExceptionHandler(TokenVerificationException.class)
+	@ResponseStatus(HttpStatus.UNAUTHORIZED)
+	public void tokenNotVerified() {
+	}
+	
+	/**
+	 * Exception handler that converts TokenVerificationUnavailableException to HTTP status 503 (SERVICE_UNAVAILABLE)
+	 */
+	@ExceptionHandler(TokenVerificationUnavailableException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public void tokenVerificationUnavailable() {
+	}
+	
+	/**
+	 * Exception handler that converts RejectedExecutionException to HTTP status 503 (SERVICE_UNAVAILABLE)
+	 */
+	@ExceptionHandler(RejectedExecutionException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public void overloaded() {
+	}
+	
+	/**
+	 * Exception handler that converts RateLimitedException to HTTP status 429 (TOO_MANY_REQUESTS),
+	 * telling the client in the Retry-After header how many seconds to wait
+	 */
+	@ExceptionHandler(RateLimitedException.class)
+	@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+	public void rateLimited(RateLimitedException e, HttpServletResponse response) {
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+	}
+}
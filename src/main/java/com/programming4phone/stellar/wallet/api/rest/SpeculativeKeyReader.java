@@ -0,0 +1,113 @@
+package com.programming4phone.stellar.wallet.api.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.dao.KeyDao;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.idtoken.TokenVerifier;
+
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Token verification followed by the Redis lookup of the GET web service.
+ * <br/><br/>
+ * In speculative mode the Redis read is started on the <i>speculativeReadExecutor</i> before the token is
+ * verified, so the latency of a GET is the longer of the two instead of their sum. The result of the read,
+ * including a 404 (NOT_FOUND), is only released once the token has been verified, and it is discarded if the
+ * verification fails. When the executor is saturated the lookup falls back to running after the verification.
+ */
+@Component
+public class SpeculativeKeyReader implements PublicMetrics {
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private TokenVerifier tokenVerifier;
+
+	@Autowired
+	private KeyApiMetrics keyApiMetrics;
+
+	@Autowired
+	@Qualifier("speculativeReadExecutor")
+	private Executor speculativeReadExecutor;
+
+	@Value("${wallet.speculative-read.enabled:false}")
+	private boolean enabled;
+
+	private final LongAdder started = new LongAdder();
+	private final LongAdder discarded = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * Verify the token and retrieve the secret seed for an account number.
+	 * @param authHeader HTTP Authorization request header (Bearer + Google authentication token)
+	 * @param accountNumber Stellar account number (hashed public key)
+	 * @return <b>WalletKeys</b> containing account number and secret seed
+	 * @throws com.programming4phone.stellar.wallet.api.error.TokenMissingException
+	 * @throws com.programming4phone.stellar.wallet.api.error.TokenVerificationException
+	 * @throws com.programming4phone.stellar.wallet.api.error.KeyNotFoundException
+	 */
+	public WalletKeys getAccountKeys(String authHeader, String accountNumber) {
+		CompletableFuture<WalletKeys> read = enabled ? startRead(accountNumber) : null;
+		if (read == null) {
+			keyApiMetrics.time(KeyApiMetrics.TOKEN, () -> tokenVerifier.verify(authHeader));
+			return keyApiMetrics.time(KeyApiMetrics.REDIS, () -> keyDao.getSecretSeed(accountNumber));
+		}
+		try {
+			keyApiMetrics.time(KeyApiMetrics.TOKEN, () -> tokenVerifier.verify(authHeader));
+		}
+		catch(RuntimeException e) {
+			discarded.increment();
+			throw e;
+		}
+		try {
+			return read.join();
+		}
+		catch(CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private CompletableFuture<WalletKeys> startRead(String accountNumber) {
+		try {
+			Timer redisTimer = keyApiMetrics.timer(KeyApiMetrics.REDIS);
+			CompletableFuture<WalletKeys> read = CompletableFuture.supplyAsync(
+					() -> redisTimer.record(() -> keyDao.getSecretSeed(accountNumber)), speculativeReadExecutor);
+			started.increment();
+			return read;
+		}
+		catch(RejectedExecutionException e) {
+			rejected.increment();
+			return null;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (!enabled) {
+			return metrics;
+		}
+		metrics.add(new Metric<Long>("keys.speculative-read.started", started.sum()));
+		metrics.add(new Metric<Long>("keys.speculative-read.discarded", discarded.sum()));
+		metrics.add(new Metric<Long>("keys.speculative-read.rejected", rejected.sum()));
+		return metrics;
+	}
+}
@@ -0,0 +1,62 @@
+package com.programming4phone.stellar.wallet.api.rest;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * JSON converter recording the time spent reading request bodies and writing response bodies of the key
+ * web services as their <i>deserialization</i> and <i>serialization</i> stages, see {@link KeyApiMetrics}.
+ */
+public class TimedJackson2HttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+	private final KeyApiMetrics keyApiMetrics;
+
+	public TimedJackson2HttpMessageConverter(ObjectMapper objectMapper, KeyApiMetrics keyApiMetrics) {
+		super(objectMapper);
+		this.keyApiMetrics = keyApiMetrics;
+	}
+
+	@Override
+	public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+			throws IOException, HttpMessageNotReadableException {
+		if (!keyApiMetrics.isKeyRequest()) {
+			return super.read(type, contextClass, inputMessage);
+		}
+		long start = System.nanoTime();
+		try {
+			return super.read(type, contextClass, inputMessage);
+		}
+		finally {
+			record(KeyApiMetrics.DESERIALIZATION, start);
+		}
+	}
+
+	@Override
+	protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+			throws IOException, HttpMessageNotWritableException {
+		if (!keyApiMetrics.isKeyRequest()) {
+			super.writeInternal(object, type, outputMessage);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			super.writeInternal(object, type, outputMessage);
+		}
+		finally {
+			record(KeyApiMetrics.SERIALIZATION, start);
+		}
+	}
+
+	private void record(String stage, long start) {
+		keyApiMetrics.timer(stage).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+}
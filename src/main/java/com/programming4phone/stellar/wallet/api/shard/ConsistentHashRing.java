@@ -0,0 +1,44 @@
+package com.programming4phone.stellar.wallet.api.shard;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import redis.clients.util.Hashing;
+
+/**
+ * Consistent hash ring mapping keys to nodes. Every node is placed on the ring at <i>virtualNodes</i> positions
+ * derived from its name, and a key belongs to the node at the first position at or after the hash of the key.
+ * <br/><br/>
+ * The positions only depend on the node names, so adding a node to N nodes only moves the keys it takes over,
+ * about 1/(N+1) of them, and removing a node only moves its own keys. More virtual nodes spread the keys more
+ * evenly: with 160 per node, the share of every node is typically within 10% of the average.
+ * Hashing uses 64-bit MurmurHash2, as the Jedis sharding does.
+ */
+public class ConsistentHashRing<T> {
+
+	private final TreeMap<Long, T> ring = new TreeMap<>();
+
+	/**
+	 * @param nodes Map of node names to nodes, not empty
+	 * @param virtualNodes number of positions of every node on the ring
+	 */
+	public ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+		if (nodes.isEmpty() || virtualNodes < 1) {
+			throw new IllegalArgumentException("At least one node and one virtual node per node are required");
+		}
+		nodes.forEach((name, node) -> {
+			for (int i = 0; i < virtualNodes; i++) {
+				ring.put(Hashing.MURMUR_HASH.hash(name + "#" + i), node);
+			}
+		});
+	}
+
+	/**
+	 * @param key String
+	 * @return the node owning the key
+	 */
+	public T get(String key) {
+		Map.Entry<Long, T> entry = ring.ceilingEntry(Hashing.MURMUR_HASH.hash(key));
+		return (entry == null ? ring.firstEntry() : entry).getValue();
+	}
+}
@@ -0,0 +1,63 @@
+package com.programming4phone.stellar.wallet.api.shard;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs {@link ShardRebalancer} once in the background at startup, when <i>wallet.redis.shards.rebalance.enabled</i>
+ * is set, while the application keeps serving requests. Enable it on a single instance only.
+ * Once the rebalancing is complete, remove <i>wallet.redis.shards.previous-nodes</i> from every instance.
+ */
+@Component
+public class RebalanceRunner implements ApplicationRunner {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private ShardRebalancer shardRebalancer;
+
+	@Value("${wallet.redis.shards.rebalance.enabled:false}")
+	private boolean enabled;
+
+	private Thread thread;
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!enabled) {
+			return;
+		}
+		thread = new Thread(() -> {
+			try {
+				long errors = shardRebalancer.rebalance();
+				if (errors == 0) {
+					logger.info("rebalancing complete, remove wallet.redis.shards.previous-nodes");
+				}
+				else {
+					logger.error("rebalancing incomplete, keys not moved: {}, restart to retry", errors);
+				}
+			}
+			catch(InterruptedException e) {
+				logger.info("rebalancing interrupted");
+			}
+			catch(Exception e) {
+				logger.error("rebalancing failed, restart to retry", e);
+			}
+		}, "shard-rebalance");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package com.programming4phone.stellar.wallet.api.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import com.programming4phone.stellar.wallet.api.dao.InstrumentedJedisConnectionFactory;
+import com.programming4phone.stellar.wallet.api.dao.RedisKeyStore;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * Client-side sharding of the account keys across independent Redis instances, for deployments without
+ * Redis Cluster. Enabled by listing the instances in <i>wallet.redis.shards.nodes</i>; every account number
+ * is stored on the instance chosen by a {@link ConsistentHashRing} with <i>wallet.redis.shards.virtual-nodes</i>
+ * positions per instance, and every instance gets its own connection pool, sized like the <i>spring.redis.pool</i>.
+ * The Redis configured by <i>spring.redis.*</i> still carries the near cache invalidation messages.
+ * <br/><br/>
+ * To add (or remove) instances online, set <i>wallet.redis.shards.previous-nodes</i> to the former list
+ * while {@link ShardRebalancer} moves the keys whose owner changed. Meanwhile:
+ * <ul>
+ *   <li>a key missing on its owner is read from its previous owner, then from its owner again, in case the
+ *   key was moved in between</li>
+ *   <li>a write goes to the owner, then deletes the key from the previous owner</li>
+ *   <li>a delete removes the key from the previous owner first, then from the owner, so that a concurrent
+ *   move cannot bring it back</li>
+ * </ul>
+ */
+@Component
+public class RedisShards implements PublicMetrics {
+
+	@Autowired
+	private InstrumentedJedisConnectionFactory redisConnectionFactory;
+
+	@Value("${wallet.redis.shards.nodes:}")
+	private String nodes;
+
+	@Value("${wallet.redis.shards.previous-nodes:}")
+	private String previousNodes;
+
+	@Value("${wallet.redis.shards.virtual-nodes:160}")
+	private int virtualNodes;
+
+	private final Map<String, Shard> shards = new LinkedHashMap<>();
+	private ConsistentHashRing<Shard> ring;
+	private ConsistentHashRing<Shard> previousRing;
+	private final Collection<Shard> previousShards = new LinkedHashSet<>();
+
+	private final LongAdder previousReads = new LongAdder();
+
+	/**
+	 * A Redis instance holding a share of the keys.
+	 */
+	static class Shard {
+		final String name;
+		final InstrumentedJedisConnectionFactory connectionFactory;
+		final StringRedisTemplate stringRedisTemplate;
+
+		Shard(String name, InstrumentedJedisConnectionFactory connectionFactory) {
+			this.name = name;
+			this.connectionFactory = connectionFactory;
+			this.stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		if (!StringUtils.hasText(nodes)) {
+			return;
+		}
+		ring = new ConsistentHashRing<>(connect(nodes), virtualNodes);
+		if (StringUtils.hasText(previousNodes)) {
+			Map<String, Shard> previous = connect(previousNodes);
+			previousRing = new ConsistentHashRing<>(previous, virtualNodes);
+			previousShards.addAll(previous.values());
+		}
+	}
+
+	private Map<String, Shard> connect(String nodes) {
+		Map<String, Shard> ringNodes = new LinkedHashMap<>();
+		for (String name : StringUtils.commaDelimitedListToSet(StringUtils.trimAllWhitespace(nodes))) {
+			ringNodes.put(name, shards.computeIfAbsent(name, this::connectShard));
+		}
+		return ringNodes;
+	}
+
+	private Shard connectShard(String name) {
+		int separator = name.lastIndexOf(':');
+		InstrumentedJedisConnectionFactory cf = new InstrumentedJedisConnectionFactory(redisConnectionFactory.getPoolConfig());
+		cf.setHostName(name.substring(0, separator));
+		cf.setPort(Integer.parseInt(name.substring(separator + 1)));
+		cf.setDatabase(redisConnectionFactory.getDatabase());
+		cf.setTimeout(redisConnectionFactory.getTimeout());
+		cf.afterPropertiesSet();
+		return new Shard(name, cf);
+	}
+
+	@PreDestroy
+	public void close() {
+		shards.values().forEach(shard -> shard.connectionFactory.destroy());
+	}
+
+	/**
+	 * @return true if the keys are sharded across <i>wallet.redis.shards.nodes</i>
+	 */
+	public boolean isEnabled() {
+		return ring != null;
+	}
+
+	/**
+	 * @return the connection factories of all instances, including the previous ones while rebalancing
+	 */
+	public Collection<InstrumentedJedisConnectionFactory> connectionFactories() {
+		return shards.values().stream().map(shard -> shard.connectionFactory).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return true while <i>wallet.redis.shards.previous-nodes</i> is set
+	 */
+	public boolean isRebalancing() {
+		return previousRing != null;
+	}
+
+	Shard owner(String key) {
+		return ring.get(key);
+	}
+
+	/**
+	 * @return the previous owner of the key while rebalancing, or null if it is the owner
+	 */
+	Shard previousOwner(String key) {
+		if (previousRing == null) {
+			return null;
+		}
+		Shard previous = previousRing.get(key);
+		return previous == ring.get(key) ? null : previous;
+	}
+
+	/**
+	 * @return the shards of <i>wallet.redis.shards.previous-nodes</i>
+	 */
+	Collection<Shard> previousShards() {
+		return previousShards;
+	}
+
+	/**
+	 * @param key String
+	 * @return the value of the key, or null if it does not exist
+	 */
+	public String get(String key) {
+		Shard owner = owner(key);
+		String value = owner.stringRedisTemplate.opsForValue().get(key);
+		Shard previous = value == null ? previousOwner(key) : null;
+		if (previous != null) {
+			value = previous.stringRedisTemplate.opsForValue().get(key);
+			if (value != null) {
+				previousReads.increment();
+			}
+			else {
+				value = owner.stringRedisTemplate.opsForValue().get(key);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @param key String
+	 * @param value String
+	 */
+	public void set(String key, String value) {
+		owner(key).stringRedisTemplate.opsForValue().set(key, value);
+		Shard previous = previousOwner(key);
+		if (previous != null) {
+			previous.stringRedisTemplate.delete(key);
+		}
+	}
+
+	/**
+	 * @param key String
+	 */
+	public void delete(String key) {
+		Shard previous = previousOwner(key);
+		if (previous != null) {
+			previous.stringRedisTemplate.delete(key);
+		}
+		owner(key).stringRedisTemplate.delete(key);
+	}
+
+	/**
+	 * Read a list of keys with one pipeline per shard.
+	 * @param keys List of String
+	 * @return <b>List</b> of the values, null for keys that do not exist, in the order of the keys
+	 */
+	public List<String> multiGet(List<String> keys) {
+		List<Object> values = pipeline(keys, this::owner, (connection, i) -> connection.get(keys.get(i)));
+		List<String> results = new ArrayList<>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			String value = (String) values.get(i);
+			results.add(value == null && previousOwner(keys.get(i)) != null ? get(keys.get(i)) : value);
+		}
+		return results;
+	}
+
+	/**
+	 * Write a list of keys with one pipeline per shard.
+	 * @param keys List of String
+	 * @param values List of String, in the order of the keys
+	 */
+	public void multiSet(List<String> keys, List<String> values) {
+		pipeline(keys, this::owner, (connection, i) -> connection.set(keys.get(i), values.get(i)));
+		if (previousRing != null) {
+			pipeline(keys, this::previousOwner, (connection, i) -> connection.del(keys.get(i)));
+		}
+	}
+
+	/**
+	 * Delete a list of keys with one pipeline per shard.
+	 * @param keys List of String
+	 * @return <b>List</b> of Boolean, true if the key existed, in the order of the keys
+	 */
+	public List<Boolean> multiDelete(List<String> keys) {
+		List<Object> previous = previousRing == null ? null
+				: pipeline(keys, this::previousOwner, (connection, i) -> connection.del(keys.get(i)));
+		List<Object> deleted = pipeline(keys, this::owner, (connection, i) -> connection.del(keys.get(i)));
+		List<Boolean> results = new ArrayList<>(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			results.add(Long.valueOf(1).equals(deleted.get(i)) || (previous != null && Long.valueOf(1).equals(previous.get(i))));
+		}
+		return results;
+	}
+
+	/**
+	 * Replace the values of a list of keys, each only if it still holds the expected value, with one pipeline of
+	 * {@link RedisKeyStore#REPLACE_SCRIPT} per shard. While rebalancing, the keys not found with the expected value
+	 * on their owner are tried on their previous owner, where they are left for the rebalancer to move.
+	 * @param keys List of String
+	 * @param expectedValues List of String, in the order of the keys
+	 * @param values List of String, in the order of the keys
+	 * @return <b>List</b> of Boolean, true if the value was replaced, in the order of the keys
+	 */
+	public List<Boolean> multiReplace(List<String> keys, List<String> expectedValues, List<String> values) {
+		List<Boolean> results = replace(keys, expectedValues, values, i -> owner(keys.get(i)));
+		if (previousRing != null) {
+			List<Boolean> previous = replace(keys, expectedValues, values,
+					i -> results.get(i) ? null : previousOwner(keys.get(i)));
+			for (int i = 0; i < keys.size(); i++) {
+				results.set(i, results.get(i) || previous.get(i));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Spring Data Redis does not pipeline scripts with Jedis, so the native pipeline of every shard is used.
+	 */
+	private List<Boolean> replace(List<String> keys, List<String> expectedValues, List<String> values, IntFunction<Shard> router) {
+		Map<Shard, List<Integer>> indexesByShard = groupByShard(keys, router);
+		Boolean[] results = new Boolean[keys.size()];
+		Arrays.fill(results, Boolean.FALSE);
+		byte[] script = RedisKeyStore.REPLACE_SCRIPT.getBytes(StandardCharsets.UTF_8);
+		indexesByShard.forEach((shard, indexes) -> {
+			List<Object> shardResults = shard.stringRedisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+				Jedis jedis = (Jedis) connection.getNativeConnection();
+				byte[] sha = jedis.scriptLoad(script);
+				Pipeline pipeline = jedis.pipelined();
+				indexes.forEach(i -> pipeline.evalsha(sha, 1, keys.get(i).getBytes(StandardCharsets.UTF_8),
+						expectedValues.get(i).getBytes(StandardCharsets.UTF_8), values.get(i).getBytes(StandardCharsets.UTF_8)));
+				return pipeline.syncAndReturnAll();
+			});
+			for (int j = 0; j < shardResults.size(); j++) {
+				results[indexes.get(j)] = Long.valueOf(1).equals(shardResults.get(j));
+			}
+		});
+		return new ArrayList<>(Arrays.asList(results));
+	}
+
+	/**
+	 * @param router chooses the shard of the key at an index, or null to skip the key
+	 */
+	private static Map<Shard, List<Integer>> groupByShard(List<String> keys, IntFunction<Shard> router) {
+		Map<Shard, List<Integer>> indexesByShard = new LinkedHashMap<>();
+		for (int i = 0; i < keys.size(); i++) {
+			Shard shard = router.apply(i);
+			if (shard != null) {
+				indexesByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+			}
+		}
+		return indexesByShard;
+	}
+
+	/**
+	 * Send one command per key to the shard chosen for the key, pipelined per shard.
+	 * @param keys List of String
+	 * @param router chooses the shard of a key, or null to skip the key
+	 * @param command issues the command for the key at an index
+	 * @return <b>List</b> of the command results in the order of the keys, null for skipped keys and
+	 * commands with a status reply, such as SET
+	 */
+	private List<Object> pipeline(List<String> keys, Function<String, Shard> router, ObjIntConsumer<StringRedisConnection> command) {
+		Map<Shard, List<Integer>> indexesByShard = groupByShard(keys, i -> router.apply(keys.get(i)));
+		Object[] results = new Object[keys.size()];
+		indexesByShard.forEach((shard, indexes) -> {
+			List<Object> shardResults = shard.stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+				indexes.forEach(i -> command.accept(stringRedisConnection, i));
+				return null;
+			});
+			for (int j = 0; j < shardResults.size(); j++) {
+				results[indexes.get(j)] = shardResults.get(j);
+			}
+		});
+		return Arrays.asList(results);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		if (!isEnabled()) {
+			return metrics;
+		}
+		metrics.add(new Metric<Long>("keys.shard.previous-reads", previousReads.sum()));
+		int index = 0;
+		for (Shard shard : shards.values()) {
+			String prefix = "redis.shard." + index++ + ".";
+			shard.connectionFactory.metrics().forEach(metric ->
+					metrics.add(new Metric<Number>(prefix + metric.getName().substring("redis.".length()), metric.getValue())));
+		}
+		return metrics;
+	}
+}
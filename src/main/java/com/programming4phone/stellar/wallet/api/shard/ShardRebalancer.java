@@ -0,0 +1,149 @@
+package com.programming4phone.stellar.wallet.api.shard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.stereotype.Component;
+
+import com.programming4phone.stellar.wallet.api.shard.RedisShards.Shard;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Moves the keys whose shard changed between <i>wallet.redis.shards.previous-nodes</i> and
+ * <i>wallet.redis.shards.nodes</i> to their new shard, while the web services keep running, see {@link RedisShards}.
+ * <br/><br/>
+ * The keys of every previous shard are SCANned in chunks, and the keys of each chunk that belong to another
+ * shard are moved with one pipelined MIGRATE per key. MIGRATE copies the key to the new shard and deletes it
+ * from the old one atomically, so the key can always be found on one of them. If the new shard already holds
+ * the key, it was written there since the rebalancing started, and the stale copy on the old shard is deleted.
+ * Keys that could not be moved stay on their old shard, where they are still read, and a later run picks them up:
+ * the old shards only ever hold keys still to be moved.
+ * <br/><br/>
+ * The previous shards must be able to reach the new ones at the addresses listed in <i>wallet.redis.shards.nodes</i>.
+ */
+@Component
+public class ShardRebalancer implements PublicMetrics {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired
+	private RedisShards redisShards;
+
+	@Value("${wallet.redis.shards.rebalance.match:*}")
+	private String match;
+
+	@Value("${wallet.redis.shards.rebalance.scan-count:500}")
+	private int scanCount;
+
+	@Value("${wallet.redis.shards.rebalance.migrate-timeout-millis:5000}")
+	private int migrateTimeoutMillis;
+
+	private final LongAdder scanned = new LongAdder();
+	private final LongAdder migrated = new LongAdder();
+	private final LongAdder stale = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private volatile boolean running;
+
+	/**
+	 * Move every key not stored on its shard.
+	 * @return the number of keys that could not be moved, 0 once the rebalancing is complete
+	 * @throws IllegalStateException
+	 *   if <i>wallet.redis.shards.previous-nodes</i> is not set
+	 * @throws InterruptedException
+	 *   if the thread is interrupted, in which case the keys moved so far stay moved
+	 */
+	public synchronized long rebalance() throws InterruptedException {
+		if (!redisShards.isRebalancing()) {
+			throw new IllegalStateException("wallet.redis.shards.previous-nodes is not set");
+		}
+		long errorsBefore = errors.sum();
+		running = true;
+		try {
+			for (Shard source : redisShards.previousShards()) {
+				logger.info("moving keys matching {} from shard {}", match, source);
+				String cursor = ScanParams.SCAN_POINTER_START;
+				do {
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+					ScanResult<String> chunk = scan(source, cursor);
+					move(source, chunk.getResult());
+					cursor = chunk.getStringCursor();
+				} while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+				logger.info("shard {} done: scanned {}, migrated {}, stale {}, errors {}",
+						source, scanned.sum(), migrated.sum(), stale.sum(), errors.sum());
+			}
+		}
+		finally {
+			running = false;
+		}
+		return errors.sum() - errorsBefore;
+	}
+
+	private ScanResult<String> scan(Shard shard, String cursor) {
+		ScanParams params = new ScanParams().match(match).count(scanCount);
+		return shard.stringRedisTemplate.execute((RedisCallback<ScanResult<String>>) connection ->
+				((Jedis) connection.getNativeConnection()).scan(cursor, params));
+	}
+
+	private void move(Shard source, List<String> keys) {
+		scanned.add(keys.size());
+		List<String> moving = keys.stream().filter(key -> redisShards.owner(key) != source).collect(Collectors.toList());
+		if (moving.isEmpty()) {
+			return;
+		}
+		List<Object> results = source.stringRedisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+			Pipeline pipeline = ((Jedis) connection.getNativeConnection()).pipelined();
+			moving.forEach(key -> {
+				Shard target = redisShards.owner(key);
+				pipeline.migrate(target.connectionFactory.getHostName(), target.connectionFactory.getPort(), key,
+						target.connectionFactory.getDatabase(), migrateTimeoutMillis);
+			});
+			return pipeline.syncAndReturnAll();
+		});
+		List<String> staleKeys = new ArrayList<>();
+		for (int i = 0; i < moving.size(); i++) {
+			Object result = results.get(i);
+			if ("OK".equals(result)) {
+				migrated.increment();
+			}
+			else if (result instanceof JedisDataException && String.valueOf(((JedisDataException) result).getMessage()).startsWith("BUSYKEY")) {
+				staleKeys.add(moving.get(i));
+			}
+			else if (!"NOKEY".equals(result)) { // NOKEY: deleted since the SCAN
+				errors.increment();
+				logger.warn("Unable to move key {} from shard {}: {}", moving.get(i), source, result);
+			}
+		}
+		if (!staleKeys.isEmpty()) {
+			source.stringRedisTemplate.delete(staleKeys);
+			stale.add(staleKeys.size());
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<Integer>("keys.rebalance.running", running ? 1 : 0));
+		metrics.add(new Metric<Long>("keys.rebalance.scanned", scanned.sum()));
+		metrics.add(new Metric<Long>("keys.rebalance.migrated", migrated.sum()));
+		metrics.add(new Metric<Long>("keys.rebalance.stale", stale.sum()));
+		metrics.add(new Metric<Long>("keys.rebalance.errors", errors.sum()));
+		return metrics;
+	}
+}
@@ -0,0 +1,8 @@
+package com.programming4phone.stellar.wallet.api;
+
+/**
+ * JUnit category of the load tests, which take seconds of wall-clock time and depend on the speed of the machine.
+ * They are excluded from the unit tests and run with <code>mvn -Pload-test test</code>.
+ */
+public interface LoadTest {
+}
@@ -0,0 +1,163 @@
+package com.programming4phone.stellar.wallet.api.aes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the password based key derivation and of {@link AES#encrypt} and {@link AES#decrypt},
+ * for every key length and for payloads from a Stellar secret seed (56 characters) up to a megabyte.
+ * The <i>WithDerivedKey</i> and <i>WithKeyCache</i> variants show the cost once key derivation is skipped,
+ * for streams, byte arrays and direct byte buffers; compare their <i>gc.alloc.rate.norm</i> (bytes per operation).
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=AESBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AESBenchmark {
+
+	private static final char[] PASSWORD = "bad weather chicago good weather phoenix".toCharArray();
+
+	@State(Scope.Benchmark)
+	public static class KeyState {
+
+		@Param({ "128", "192", "256" })
+		public int keyLength;
+
+		public byte[] salt = new byte[16];
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			new SecureRandom().nextBytes(salt);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class PayloadState {
+
+		@Param({ "128", "192", "256" })
+		public int keyLength;
+
+		@Param({ "56", "4096", "1048576" })
+		public int payloadSize;
+
+		public byte[] plainText;
+		public byte[] cipherText;
+		public AES.DerivedKey derivedKey;
+		public ByteBuffer directPlainText;
+		public ByteBuffer directCipherText;
+		public ByteBuffer directOutput;
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			plainText = new byte[payloadSize];
+			new SecureRandom().nextBytes(plainText);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			AES.encrypt(keyLength, PASSWORD, new ByteArrayInputStream(plainText), output);
+			cipherText = output.toByteArray();
+			derivedKey = AES.deriveKey(keyLength, PASSWORD);
+			directPlainText = ByteBuffer.allocateDirect(payloadSize);
+			directPlainText.put(plainText).flip();
+			directCipherText = ByteBuffer.allocateDirect(cipherText.length);
+			directCipherText.put(cipherText).flip();
+			directOutput = ByteBuffer.allocateDirect(cipherText.length);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			derivedKey.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class KeyCacheState {
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			AES.enableKeyCache(16);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			AES.disableKeyCache();
+		}
+	}
+
+	@Benchmark
+	public Object keygen(KeyState state) {
+		return AES.keygen(state.keyLength, PASSWORD, state.salt);
+	}
+
+	@Benchmark
+	public byte[] encrypt(PayloadState state) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(state.payloadSize + 64);
+		AES.encrypt(state.keyLength, PASSWORD, new ByteArrayInputStream(state.plainText), output);
+		return output.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] decrypt(PayloadState state) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(state.payloadSize);
+		AES.decrypt(PASSWORD, new ByteArrayInputStream(state.cipherText), output);
+		return output.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] encryptWithDerivedKey(PayloadState state) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(state.payloadSize + 64);
+		state.derivedKey.encrypt(new ByteArrayInputStream(state.plainText), output);
+		return output.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] decryptWithKeyCache(PayloadState state, KeyCacheState keyCache) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream(state.payloadSize);
+		AES.decrypt(PASSWORD, new ByteArrayInputStream(state.cipherText), output);
+		return output.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] encryptBytesWithDerivedKey(PayloadState state) throws Exception {
+		return state.derivedKey.encrypt(state.plainText);
+	}
+
+	@Benchmark
+	public ByteBuffer encryptDirectBufferWithDerivedKey(PayloadState state) throws Exception {
+		state.directPlainText.rewind();
+		state.directOutput.clear();
+		state.derivedKey.encrypt(state.directPlainText, state.directOutput);
+		return state.directOutput;
+	}
+
+	@Benchmark
+	public byte[] decryptBytesWithKeyCache(PayloadState state, KeyCacheState keyCache) throws Exception {
+		return AES.decrypt(PASSWORD, state.cipherText);
+	}
+
+	@Benchmark
+	public ByteBuffer decryptDirectBufferWithKeyCache(PayloadState state, KeyCacheState keyCache) throws Exception {
+		state.directCipherText.rewind();
+		state.directOutput.clear();
+		AES.decrypt(PASSWORD, state.directCipherText, state.directOutput);
+		return state.directOutput;
+	}
+}
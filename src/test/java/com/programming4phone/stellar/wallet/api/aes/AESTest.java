@@ -0,0 +1,140 @@
+package com.programming4phone.stellar.wallet.api.aes;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AESTest {
+
+	private static final char[] PASSWORD = "bad weather chicago good weather phoenix".toCharArray();
+	private static final String SECRET_SEED = "SBKYUD4DRNFUVCYEBWCTTZOMV5P3OT7EXZUVYMHOSLQZQGLWLRT6YPA6";
+
+	@After
+	public void tearDown() {
+		AES.disableKeyCache();
+	}
+
+	private static String decrypt(char[] password, byte[] cipherText) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		AES.decrypt(password, new ByteArrayInputStream(cipherText), output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] encrypt(AES.DerivedKey derivedKey, String plainText) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		derivedKey.encrypt(new ByteArrayInputStream(plainText.getBytes(StandardCharsets.UTF_8)), output);
+		return output.toByteArray();
+	}
+
+	@Test
+	public void derivedKeyKeepsStreamFormat() throws Exception {
+		byte[] first;
+		byte[] second;
+		try (AES.DerivedKey derivedKey = AES.deriveKey(256, PASSWORD)) {
+			first = encrypt(derivedKey, SECRET_SEED);
+			second = encrypt(derivedKey, SECRET_SEED);
+		}
+		// same key length, salt and authentication key, different IV
+		assertThat(Arrays.copyOfRange(first, 0, 25), equalTo(Arrays.copyOfRange(second, 0, 25)));
+		assertThat(Arrays.copyOfRange(first, 25, 41), not(equalTo(Arrays.copyOfRange(second, 25, 41))));
+		assertThat(first[0], equalTo((byte) 32));
+		assertThat(decrypt(PASSWORD, first), equalTo(SECRET_SEED));
+		assertThat(decrypt(PASSWORD, second), equalTo(SECRET_SEED));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedDerivedKeyCannotEncrypt() throws Exception {
+		AES.DerivedKey derivedKey = AES.deriveKey(128, PASSWORD);
+		derivedKey.close();
+		encrypt(derivedKey, SECRET_SEED);
+	}
+
+	@Test
+	public void keyCacheIsBoundedAndChecksPassword() throws Exception {
+		AES.enableKeyCache(2);
+		byte[][] cipherTexts = new byte[3][];
+		for (int i = 0; i < cipherTexts.length; i++) {
+			try (AES.DerivedKey derivedKey = AES.deriveKey(128, PASSWORD)) {
+				cipherTexts[i] = encrypt(derivedKey, SECRET_SEED + i);
+			}
+		}
+		for (int i = 0; i < cipherTexts.length; i++) {
+			assertThat(decrypt(PASSWORD, cipherTexts[i]), equalTo(SECRET_SEED + i));
+			assertThat(decrypt(PASSWORD, cipherTexts[i]), equalTo(SECRET_SEED + i));
+		}
+		assertThat(AES.keyCacheSize(), equalTo(2));
+		try {
+			decrypt("wrong password".toCharArray(), cipherTexts[2]);
+			fail("Decrypted with a wrong password");
+		} catch(AES.InvalidPasswordException e) {
+			assertNotNull(e);
+		}
+		AES.disableKeyCache();
+		assertThat(AES.keyCacheSize(), equalTo(0));
+	}
+
+	@Test
+	public void byteArraysAndStreamsShareFormat() throws Exception {
+		byte[] plainText = SECRET_SEED.getBytes(StandardCharsets.UTF_8);
+		byte[] cipherText = AES.encrypt(192, PASSWORD, plainText);
+		assertThat(cipherText.length, equalTo(AES.encryptedLength(plainText.length)));
+		assertThat(decrypt(PASSWORD, cipherText), equalTo(SECRET_SEED));
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		AES.encrypt(128, PASSWORD, new ByteArrayInputStream(plainText), output);
+		assertThat(AES.decrypt(PASSWORD, output.toByteArray()), equalTo(plainText));
+
+		try (AES.DerivedKey derivedKey = AES.deriveKey(256, PASSWORD)) {
+			assertThat(AES.decrypt(PASSWORD, derivedKey.encrypt(plainText)), equalTo(plainText));
+		}
+	}
+
+	@Test
+	public void directBuffersRoundTrip() throws Exception {
+		byte[] plainText = new byte[5000];
+		Arrays.fill(plainText, (byte) 7);
+		ByteBuffer input = ByteBuffer.allocateDirect(plainText.length);
+		input.put(plainText).flip();
+		ByteBuffer encrypted = ByteBuffer.allocateDirect(AES.encryptedLength(plainText.length));
+		AES.encrypt(256, PASSWORD, input, encrypted);
+		assertThat(input.remaining(), equalTo(0));
+		assertThat(encrypted.remaining(), equalTo(0));
+		encrypted.flip();
+
+		ByteBuffer decrypted = ByteBuffer.allocateDirect(encrypted.remaining());
+		assertThat(AES.decrypt(PASSWORD, encrypted, decrypted), equalTo(256));
+		decrypted.flip();
+		byte[] result = new byte[decrypted.remaining()];
+		decrypted.get(result);
+		assertThat(result, equalTo(plainText));
+	}
+
+	@Test(expected = BufferOverflowException.class)
+	public void shortOutputBufferIsRejected() throws Exception {
+		AES.encrypt(128, PASSWORD, ByteBuffer.wrap(new byte[32]), ByteBuffer.allocate(AES.encryptedLength(32) - 1));
+	}
+
+	@Test(expected = AES.InvalidAESStreamException.class)
+	public void truncatedDataIsRejected() throws Exception {
+		byte[] cipherText = AES.encrypt(128, PASSWORD, SECRET_SEED.getBytes(StandardCharsets.UTF_8));
+		AES.decrypt(PASSWORD, Arrays.copyOf(cipherText, 30));
+	}
+
+	@Test
+	public void destroyedKeysAreWiped() {
+		AES.Keys keys = AES.keygen(128, PASSWORD, new byte[16]);
+		keys.destroy();
+		assertTrue(keys.isDestroyed());
+		assertThat(keys.authentication(), equalTo(new byte[8]));
+		assertThat(keys.encryption().getEncoded(), equalTo(new byte[16]));
+	}
+}
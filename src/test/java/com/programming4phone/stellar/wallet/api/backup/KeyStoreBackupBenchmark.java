@@ -0,0 +1,134 @@
+package com.programming4phone.stellar.wallet.api.backup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.bucket.BucketLayout;
+import com.programming4phone.stellar.wallet.api.dao.AccountNumberFilter;
+import com.programming4phone.stellar.wallet.api.dao.InstrumentedJedisConnectionFactory;
+import com.programming4phone.stellar.wallet.api.dao.RedisKeyStore;
+import com.programming4phone.stellar.wallet.api.dao.ReplicaReadRouter;
+import com.programming4phone.stellar.wallet.api.dao.SeedNearCache;
+import com.programming4phone.stellar.wallet.api.shard.RedisShards;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * JMH benchmarks of a full {@link KeyStoreBackup} export and import of up to a million keys. Requires a Redis
+ * instance running on localhost; the keys are removed afterwards. Logging is limited to warnings.
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=KeyStoreBackupBenchmark</code>.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyStoreBackupBenchmark {
+
+	private static final String ACCOUNT_PREFIX = "backupbenchmark-";
+	private static final String SECRET_SEED = "EFYy0Z3X0kO6m6y6o0yJr3vX6qM8m5m0d8D4mQ2jvQxw0c0B3e7q1Q9k2q7Yh1Zm3m1fM7k5o4Q6c8w==";
+
+	@Param({ "100000", "1000000" })
+	public int keys;
+
+	private InstrumentedJedisConnectionFactory connectionFactory;
+	private StringRedisTemplate stringRedisTemplate;
+	private KeyStoreBackup keyStoreBackup;
+	private Path exportFile;
+	private Path importFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+		connectionFactory = new InstrumentedJedisConnectionFactory(new JedisPoolConfig());
+		connectionFactory.setHostName("127.0.0.1");
+		connectionFactory.setPort(6379);
+		connectionFactory.afterPropertiesSet();
+		stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+		stringRedisTemplate.afterPropertiesSet();
+		for (int start = 0; start < keys; start += 10000) {
+			int from = start;
+			stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+				for (int i = from; i < Math.min(from + 10000, keys); i++) {
+					stringRedisConnection.set(ACCOUNT_PREFIX + i, SECRET_SEED);
+				}
+				return null;
+			});
+		}
+		SeedNearCache seedNearCache = new SeedNearCache();
+		ReflectionTestUtils.setField(seedNearCache, "stringRedisTemplate", stringRedisTemplate);
+		ReflectionTestUtils.setField(seedNearCache, "redisMessageListenerContainer", new RedisMessageListenerContainer());
+		ReflectionTestUtils.setField(seedNearCache, "enabled", false);
+		seedNearCache.init();
+		BucketLayout bucketLayout = new BucketLayout();
+		ReflectionTestUtils.setField(bucketLayout, "layout", "strings");
+		RedisKeyStore keyStore = new RedisKeyStore();
+		ReflectionTestUtils.setField(keyStore, "stringRedisTemplate", stringRedisTemplate);
+		ReflectionTestUtils.setField(keyStore, "replicaReadRouter", new ReplicaReadRouter());
+		ReflectionTestUtils.setField(keyStore, "redisShards", new RedisShards());
+		ReflectionTestUtils.setField(keyStore, "redisConnectionFactory", connectionFactory);
+		ReflectionTestUtils.setField(keyStore, "bucketLayout", bucketLayout);
+		keyStoreBackup = new KeyStoreBackup();
+		ReflectionTestUtils.setField(keyStoreBackup, "keyStore", keyStore);
+		ReflectionTestUtils.setField(keyStoreBackup, "seedNearCache", seedNearCache);
+		ReflectionTestUtils.setField(keyStoreBackup, "accountNumberFilter", new AccountNumberFilter());
+		ReflectionTestUtils.setField(keyStoreBackup, "match", ACCOUNT_PREFIX + "*");
+		ReflectionTestUtils.setField(keyStoreBackup, "scanCount", 1000);
+		ReflectionTestUtils.setField(keyStoreBackup, "batchSize", 1000);
+		exportFile = Files.createTempFile("keystorebackupbenchmark", ".wkb");
+		importFile = Files.createTempFile("keystorebackupbenchmark", ".wkb");
+		keyStoreBackup.exportTo(importFile);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(exportFile);
+		Files.deleteIfExists(importFile);
+		for (int start = 0; start < keys; start += 10000) {
+			int from = start;
+			stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+				StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+				for (int i = from; i < Math.min(from + 10000, keys); i++) {
+					stringRedisConnection.del(ACCOUNT_PREFIX + i);
+				}
+				return null;
+			});
+		}
+		connectionFactory.destroy();
+	}
+
+	@Benchmark
+	public long exportTo() throws Exception {
+		return keyStoreBackup.exportTo(exportFile);
+	}
+
+	@Benchmark
+	public long importFrom() throws Exception {
+		return keyStoreBackup.importFrom(importFile);
+	}
+}
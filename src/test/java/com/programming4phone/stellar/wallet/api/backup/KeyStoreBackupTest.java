@@ -0,0 +1,76 @@
+package com.programming4phone.stellar.wallet.api.backup;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"wallet.backup.match=backuptest-*",
+		"wallet.backup.scan-count=3",
+		"wallet.backup.batch-size=2" })
+public class KeyStoreBackupTest {
+
+	private static final String ACCOUNT_PREFIX = "backuptest-";
+	private static final Path FILE = Paths.get("target/backuptest.wkb");
+
+	@Autowired
+	private KeyStoreBackup keyStoreBackup;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@After
+	public void tearDown() throws IOException {
+		stringRedisTemplate.delete(stringRedisTemplate.keys(ACCOUNT_PREFIX + "*"));
+		Files.deleteIfExists(FILE);
+	}
+
+	@Test
+	public void exportedPairsAreImported() throws IOException {
+		for (int i = 0; i < 7; i++) {
+			stringRedisTemplate.opsForValue().set(ACCOUNT_PREFIX + i, "seed é " + i);
+		}
+		assertThat(keyStoreBackup.exportTo(FILE), equalTo(7L));
+		stringRedisTemplate.delete(stringRedisTemplate.keys(ACCOUNT_PREFIX + "*"));
+
+		assertThat(keyStoreBackup.importFrom(FILE), equalTo(7L));
+		for (int i = 0; i < 7; i++) {
+			assertThat(stringRedisTemplate.opsForValue().get(ACCOUNT_PREFIX + i), equalTo("seed é " + i));
+		}
+	}
+
+	@Test
+	public void corruptedFileIsNotImported() throws IOException {
+		for (int i = 0; i < 7; i++) {
+			stringRedisTemplate.opsForValue().set(ACCOUNT_PREFIX + i, "seed " + i);
+		}
+		keyStoreBackup.exportTo(FILE);
+		stringRedisTemplate.delete(stringRedisTemplate.keys(ACCOUNT_PREFIX + "*"));
+		byte[] bytes = Files.readAllBytes(FILE);
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(FILE, bytes);
+		try {
+			keyStoreBackup.importFrom(FILE);
+			fail("Imported a corrupted file");
+		}
+		catch(IOException e) {
+			assertThat(stringRedisTemplate.keys(ACCOUNT_PREFIX + "*"), empty());
+		}
+	}
+}
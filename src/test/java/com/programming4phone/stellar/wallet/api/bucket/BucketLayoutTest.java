@@ -0,0 +1,164 @@
+package com.programming4phone.stellar.wallet.api.bucket;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.dao.KeyDao;
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeysResult;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"wallet.redis.layout=buckets",
+		"wallet.redis.buckets.migration.match=buckettest-*" })
+public class BucketLayoutTest {
+
+	private static final String PREFIX = "buckettest-";
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private BucketLayout bucketLayout;
+
+	@Autowired
+	private BucketMigrator bucketMigrator;
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	private final List<String> accountNumbers = Arrays.asList(PREFIX + 0, PREFIX + 1, PREFIX + 2);
+
+	@After
+	public void tearDown() {
+		accountNumbers.forEach(keyDao::removeAccount);
+	}
+
+	private static String seed(int i) {
+		byte[] ciphertext = new byte[80];
+		Arrays.fill(ciphertext, (byte) i);
+		return Base64.getEncoder().encodeToString(ciphertext);
+	}
+
+	private byte[] field(String accountNumber) {
+		return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+				connection.hGet(bucketLayout.bucket(accountNumber), accountNumber.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void encodesBase64SeedsAsBytes() {
+		String seed = seed(7);
+		byte[] encoded = BucketLayout.encode(seed);
+		assertThat(encoded.length, equalTo(81));
+		assertThat(BucketLayout.decode(encoded), equalTo(seed));
+
+		// not canonical Base64: kept as is
+		for (String secretSeed : new String[] { "new seed", "", "QUJD", "QUI=", "QUJ=" }) {
+			assertThat(BucketLayout.decode(BucketLayout.encode(secretSeed)), equalTo(secretSeed));
+		}
+		assertThat(BucketLayout.decode(null), nullValue());
+	}
+
+	@Test
+	public void bucketMapsToTheSlotOfTheAccount() {
+		for (String accountNumber : accountNumbers) {
+			String bucket = new String(bucketLayout.bucket(accountNumber), StandardCharsets.UTF_8);
+			assertThat(bucketLayout.isBucket(bucket), equalTo(true));
+			assertThat(ClusterSlotHashUtil.calculateSlot(bucket),
+					equalTo(ClusterSlotHashUtil.calculateSlot(accountNumber)));
+		}
+	}
+
+	@Test
+	public void accountsAreStoredInBuckets() {
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(PREFIX + 0).setSecretSeed(seed(0)));
+		keyDao.saveAccounts(Arrays.asList(
+				new WalletKeys().setAccountNumber(PREFIX + 1).setSecretSeed(seed(1)),
+				new WalletKeys().setAccountNumber(PREFIX + 2).setSecretSeed("not base64")));
+
+		assertThat(stringRedisTemplate.hasKey(PREFIX + 0), equalTo(false));
+		assertThat(field(PREFIX + 0), notNullValue());
+		assertThat(keyDao.getSecretSeed(PREFIX + 0).getSecretSeed(), equalTo(seed(0)));
+		assertThat(keyDao.getSecretSeeds(accountNumbers).stream().map(WalletKeysResult::getSecretSeed).collect(Collectors.toList()),
+				contains(seed(0), seed(1), "not base64"));
+
+		assertThat(keyDao.removeAccounts(accountNumbers).stream().map(WalletKeysResult::getStatus).collect(Collectors.toList()),
+				contains(200, 200, 200));
+		assertThat(keyDao.removeAccounts(accountNumbers).stream().map(WalletKeysResult::getStatus).collect(Collectors.toList()),
+				contains(404, 404, 404));
+	}
+
+	@Test
+	public void stringKeysAreReadAndMigrated() throws Exception {
+		List<String> secretSeeds = new ArrayList<>();
+		for (int i = 0; i < accountNumbers.size(); i++) {
+			secretSeeds.add(seed(i));
+			stringRedisTemplate.opsForValue().set(accountNumbers.get(i), seed(i));
+		}
+		// written since the string key: the bucket wins
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(PREFIX + 2).setSecretSeed(seed(9)));
+		stringRedisTemplate.opsForValue().set(PREFIX + 2, seed(2));
+		secretSeeds.set(2, seed(9));
+
+		assertThat(keyDao.getSecretSeed(PREFIX + 0).getSecretSeed(), equalTo(seed(0)));
+		assertThat(keyDao.getSecretSeeds(accountNumbers).stream().map(WalletKeysResult::getSecretSeed).collect(Collectors.toList()),
+				equalTo(secretSeeds));
+
+		assertThat(bucketMigrator.migrate(), equalTo(0L));
+
+		for (String accountNumber : accountNumbers) {
+			assertThat(stringRedisTemplate.hasKey(accountNumber), equalTo(false));
+			assertThat(field(accountNumber), notNullValue());
+		}
+		assertThat(keyDao.getSecretSeeds(accountNumbers).stream().map(WalletKeysResult::getSecretSeed).collect(Collectors.toList()),
+				equalTo(secretSeeds));
+	}
+
+	@Test
+	public void seedsAreReplacedInBucketsAndStringKeys() {
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(PREFIX + 0).setSecretSeed(seed(0)));
+		stringRedisTemplate.opsForValue().set(PREFIX + 1, seed(1));
+		List<String> scanned = new ArrayList<>();
+		keyStore.scan(null, 100, (chunk, next) -> scanned.addAll(chunk));
+		assertThat(scanned, hasItems(PREFIX + 0, PREFIX + 1));
+
+		assertThat(keyStore.multiReplace(accountNumbers, Arrays.asList(seed(0), seed(1), seed(2)),
+				Arrays.asList(seed(3), seed(4), seed(5))), contains(true, true, false));
+		assertThat(keyStore.multiReplace(accountNumbers.subList(0, 1), Arrays.asList(seed(0)), Arrays.asList(seed(6))),
+				contains(false));
+		assertThat(stringRedisTemplate.hasKey(PREFIX + 1), equalTo(false));
+		assertThat(keyStore.multiGet(accountNumbers), contains(seed(3), seed(4), null));
+	}
+
+	@Test
+	public void removeAccountDeletesTheStringKey() {
+		stringRedisTemplate.opsForValue().set(PREFIX + 0, seed(0));
+		keyDao.removeAccount(PREFIX + 0);
+		assertThat(stringRedisTemplate.hasKey(PREFIX + 0), equalTo(false));
+		assertThat(keyDao.removeAccounts(Arrays.asList(PREFIX + 0)).get(0).getStatus(), equalTo(404));
+	}
+}
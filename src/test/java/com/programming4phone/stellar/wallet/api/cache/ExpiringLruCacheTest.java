@@ -0,0 +1,55 @@
+package com.programming4phone.stellar.wallet.api.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ExpiringLruCacheTest {
+
+	private static final long LATER = System.currentTimeMillis() + 60000;
+
+	@Test
+	public void expiredEntriesAreNotReturned() {
+		ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(10);
+		cache.put("fresh", "value", LATER);
+		cache.put("stale", "value", System.currentTimeMillis() - 1);
+		assertEquals("value", cache.get("fresh"));
+		assertNull(cache.get("stale"));
+		assertNull(cache.get("unknown"));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getExpirations());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted() {
+		ExpiringLruCache<Integer, String> cache = new ExpiringLruCache<>(1);
+		cache.put(1, "one", LATER);
+		cache.put(2, "two", LATER);
+		assertNull(cache.get(1));
+		assertEquals("two", cache.get(2));
+		assertEquals(1, cache.getEvictions());
+
+		ExpiringLruCache<Integer, String> larger = new ExpiringLruCache<>(100);
+		for (int i = 0; i < 1000; i++) {
+			larger.put(i, Integer.toString(i), LATER);
+		}
+		assertEquals(100, larger.size());
+		assertEquals(900, larger.getEvictions());
+	}
+
+	@Test
+	public void getOrCreateReturnsTheCachedInstance() {
+		ExpiringLruCache<String, Object> cache = new ExpiringLruCache<>(10);
+		Object created = cache.getOrCreate("key", key -> new Object(), LATER);
+		assertSame(created, cache.getOrCreate("key", key -> new Object(), LATER));
+		cache.put("stale", created, System.currentTimeMillis() - 1);
+		assertEquals("recreated", cache.getOrCreate("stale", key -> "recreated", LATER));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getExpirations());
+	}
+}
@@ -0,0 +1,43 @@
+package com.programming4phone.stellar.wallet.api.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScalableBloomFilterTest {
+
+	@Test
+	public void addedStringsAreFound() {
+		ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+		assertFalse(filter.mightContain("account"));
+		filter.add("account");
+		assertTrue(filter.mightContain("account"));
+		assertEquals(1, filter.count());
+		filter.add("account");
+		assertEquals(1, filter.count());
+	}
+
+	@Test
+	public void growsAndKeepsTheFalsePositiveRate() {
+		ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+		for (int i = 0; i < 20000; i++) {
+			filter.add("account-" + i);
+		}
+		for (int i = 0; i < 20000; i++) {
+			assertTrue(filter.mightContain("account-" + i));
+		}
+		assertTrue(filter.stages() > 1);
+
+		// about 1% expected, some slack for the sampling error
+		int falsePositives = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (filter.mightContain("unknown-" + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives < 1200);
+		assertTrue(filter.expectedFalsePositiveRate() < 0.01);
+	}
+}
@@ -0,0 +1,111 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.bucket.BucketLayout;
+import com.programming4phone.stellar.wallet.api.cache.ScalableBloomFilter;
+import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+import com.programming4phone.stellar.wallet.api.shard.RedisShards;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * JMH benchmarks of {@link KeyDao#getSecretSeed(String)} for an account number that does not exist, against the
+ * Redis instance on localhost, with and without an {@link AccountNumberFilter} holding a million account numbers,
+ * and of a lookup in that filter alone. Logging is limited to warnings.
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=AccountNumberFilterBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountNumberFilterBenchmark {
+
+	private static final String UNKNOWN_ACCOUNT_NUMBER = "GFILTERBENCHMARKUNKNOWN0000000000000000000000000000000000";
+
+	@Param({ "false", "true" })
+	public boolean filter;
+
+	private InstrumentedJedisConnectionFactory connectionFactory;
+	private ScalableBloomFilter bloomFilter;
+	private KeyDao keyDao;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+		connectionFactory = new InstrumentedJedisConnectionFactory(new JedisPoolConfig());
+		connectionFactory.setHostName("127.0.0.1");
+		connectionFactory.setPort(6379);
+		connectionFactory.afterPropertiesSet();
+		StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+		stringRedisTemplate.afterPropertiesSet();
+		BucketLayout bucketLayout = new BucketLayout();
+		ReflectionTestUtils.setField(bucketLayout, "layout", "strings");
+		RedisKeyStore keyStore = new RedisKeyStore();
+		ReflectionTestUtils.setField(keyStore, "stringRedisTemplate", stringRedisTemplate);
+		ReflectionTestUtils.setField(keyStore, "replicaReadRouter", new ReplicaReadRouter());
+		ReflectionTestUtils.setField(keyStore, "redisShards", new RedisShards());
+		ReflectionTestUtils.setField(keyStore, "redisConnectionFactory", connectionFactory);
+		ReflectionTestUtils.setField(keyStore, "bucketLayout", bucketLayout);
+		SeedNearCache seedNearCache = new SeedNearCache();
+		ReflectionTestUtils.setField(seedNearCache, "redisMessageListenerContainer", new RedisMessageListenerContainer());
+		ReflectionTestUtils.setField(seedNearCache, "enabled", false);
+		seedNearCache.init();
+		bloomFilter = new ScalableBloomFilter(1000000, 0.01);
+		for (int i = 0; i < 1000000; i++) {
+			bloomFilter.add(String.format("GFILTERBENCHMARK%040d", i));
+		}
+		AccountNumberFilter accountNumberFilter = new AccountNumberFilter();
+		ReflectionTestUtils.setField(accountNumberFilter, "enabled", filter);
+		if (filter) {
+			ReflectionTestUtils.setField(accountNumberFilter, "filter", bloomFilter);
+		}
+		keyDao = new KeyDao();
+		ReflectionTestUtils.setField(keyDao, "keyStore", keyStore);
+		ReflectionTestUtils.setField(keyDao, "seedNearCache", seedNearCache);
+		ReflectionTestUtils.setField(keyDao, "accountNumberFilter", accountNumberFilter);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		connectionFactory.destroy();
+	}
+
+	@Benchmark
+	public boolean getUnknownSecretSeed() {
+		try {
+			keyDao.getSecretSeed(UNKNOWN_ACCOUNT_NUMBER);
+			return true;
+		}
+		catch (KeyNotFoundException e) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public boolean mightContain() {
+		return bloomFilter.mightContain(UNKNOWN_ACCOUNT_NUMBER);
+	}
+}
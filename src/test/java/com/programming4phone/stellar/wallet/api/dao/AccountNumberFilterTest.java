@@ -0,0 +1,123 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeysResult;
+import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"keys.bloom-filter.enabled=true",
+		"keys.bloom-filter.rebuild-interval-seconds=0" })
+public class AccountNumberFilterTest {
+
+	private static final String PREFIX = "filtertest-";
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private AccountNumberFilter accountNumberFilter;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	@Before
+	public void setUp() throws InterruptedException {
+		awaitReady();
+	}
+
+	private void awaitReady() throws InterruptedException {
+		for (int i = 0; i < 100 && metric("keys.bloom-filter.ready") == 0; i++) {
+			Thread.sleep(100);
+		}
+		assertThat(metric("keys.bloom-filter.ready"), equalTo(1L));
+	}
+
+	@After
+	public void tearDown() {
+		Arrays.asList(PREFIX + "saved", PREFIX + "direct").forEach(keyDao::removeAccount);
+	}
+
+	private long metric(String name) {
+		return accountNumberFilter.metrics().stream().filter(metric -> metric.getName().equals(name))
+				.map(Metric::getValue).findFirst().get().longValue();
+	}
+
+	@Test
+	public void unknownAccountIsNotLookedUp() {
+		long shortCircuits = metric("keys.bloom-filter.short-circuits");
+		try {
+			keyDao.getSecretSeed(PREFIX + "unknown");
+			fail();
+		}
+		catch (KeyNotFoundException e) {
+			assertThat(metric("keys.bloom-filter.short-circuits"), equalTo(shortCircuits + 1));
+		}
+	}
+
+	@Test
+	public void savedAccountIsFound() {
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(PREFIX + "saved").setSecretSeed("seed"));
+		assertThat(keyDao.getSecretSeed(PREFIX + "saved").getSecretSeed(), equalTo("seed"));
+		assertThat(keyDao.getSecretSeeds(Arrays.asList(PREFIX + "unknown", PREFIX + "saved", "")).stream()
+				.map(WalletKeysResult::getStatus).collect(Collectors.toList()), contains(404, 200, 400));
+	}
+
+	@Test
+	public void rebuildFindsAccountsWrittenElsewhere() {
+		stringRedisTemplate.opsForValue().set(PREFIX + "direct", "seed");
+		assertThat(accountNumberFilter.mightContain(PREFIX + "direct"), equalTo(false));
+
+		accountNumberFilter.rebuild();
+
+		assertThat(keyDao.getSecretSeed(PREFIX + "direct").getSecretSeed(), equalTo("seed"));
+	}
+
+	@Test
+	public void lostSubscriptionDropsTheFilterUntilRebuilt() throws InterruptedException {
+		long losses = metric("keys.bloom-filter.subscription-losses");
+		long rebuilds = metric("keys.bloom-filter.rebuilds");
+		stringRedisTemplate.opsForValue().set(PREFIX + "direct", "seed");
+
+		applicationEventPublisher.publishEvent(new RedisSubscriptionLostEvent(this, new RuntimeException("lost")));
+
+		assertThat(metric("keys.bloom-filter.subscription-losses"), equalTo(losses + 1));
+		assertThat(accountNumberFilter.mightContain(PREFIX + "direct"), equalTo(true));
+		awaitReady();
+		assertThat(metric("keys.bloom-filter.rebuilds"), equalTo(rebuilds + 1));
+		assertThat(accountNumberFilter.mightContain(PREFIX + "direct"), equalTo(true));
+	}
+
+	@Test
+	public void accountsPublishedByOtherNodesAreAdded() throws InterruptedException {
+		stringRedisTemplate.convertAndSend("wallet:key:added", PREFIX + "published-1\n" + PREFIX + "published-2");
+		for (int i = 0; i < 50 && !accountNumberFilter.mightContain(PREFIX + "published-2"); i++) {
+			Thread.sleep(100);
+		}
+		assertThat(accountNumberFilter.mightContain(PREFIX + "published-1"), equalTo(true));
+		assertThat(accountNumberFilter.mightContain(PREFIX + "published-2"), equalTo(true));
+	}
+}
@@ -0,0 +1,22 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GlobPatternTest {
+
+	@Test
+	public void patternsMatchLikeScan() {
+		assertTrue(new GlobPattern("*").test("anything"));
+		assertTrue(new GlobPattern("backup-*").test("backup-1"));
+		assertFalse(new GlobPattern("backup-*").test("other-backup-1"));
+		assertTrue(new GlobPattern("G?B").test("GAB"));
+		assertFalse(new GlobPattern("G?B").test("GB"));
+		assertTrue(new GlobPattern("G[A-C]*").test("GBX"));
+		assertFalse(new GlobPattern("G[^A-C]*").test("GBX"));
+		assertTrue(new GlobPattern("a.b\\*").test("a.b*"));
+		assertFalse(new GlobPattern("a.b\\*").test("axb*"));
+	}
+}
@@ -0,0 +1,186 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.bucket.BucketLayout;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.shard.RedisShards;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * JMH benchmarks of the {@link KeyDao} code paths with Redis replaced by an in-memory stub, so that only the
+ * work done by the application itself (validation, near cache, entity mapping, logging) is measured.
+ * See {@link RedisCommandBenchmark} for the Redis round trips.
+ * <br/><br/>
+ * Log events are formatted with the console pattern and written to a stream discarding the bytes, directly
+ * or through an {@link AsyncAppender} as configured in <i>logback-spring.xml</i>, at log level <i>WARN</i>,
+ * <i>INFO</i> (the default level) or <i>DEBUG</i>. The asynchronous appender never discards events here,
+ * so a full queue shows up as back pressure.
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=KeyDaoBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyDaoBenchmark {
+
+	private static final String ACCOUNT_NUMBER = "5d6e2f2b1dbd1e9d0cb6c7d0e5ae9b1a2a1b8f4e0d1c7a9f3b2e6d4c8a7f1e0b";
+	private static final String SECRET_SEED = "EFYy0Z3X0kO6m6y6o0yJr3vX6qM8m5m0d8D4mQ2jvQxw0c0B3e7q1Q9k2q7Yh1Zm3m1fM7k5o4Q6c8w==";
+
+	@Param({ "false", "true" })
+	public boolean nearCache;
+
+	@Param({ "WARN", "INFO", "DEBUG" })
+	public String logLevel;
+
+	@Param({ "false", "true" })
+	public boolean asyncAppender;
+
+	private KeyDao keyDao;
+	private WalletKeys walletKeys;
+	private Appender<ILoggingEvent> appender;
+
+	/**
+	 * StringRedisTemplate answering GET, SET and DEL from a map and dropping published messages.
+	 */
+	@SuppressWarnings("unchecked")
+	static class StubRedisTemplate extends StringRedisTemplate {
+
+		private final Map<String, String> values = new ConcurrentHashMap<>();
+
+		private final ValueOperations<String, String> valueOperations = (ValueOperations<String, String>) Proxy.newProxyInstance(
+				ValueOperations.class.getClassLoader(), new Class<?>[] { ValueOperations.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "get":
+						return values.get(args[0]);
+					case "set":
+						values.put((String) args[0], (String) args[1]);
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+
+		@Override
+		public ValueOperations<String, String> opsForValue() {
+			return valueOperations;
+		}
+
+		@Override
+		public void delete(String key) {
+			values.remove(key);
+		}
+
+		@Override
+		public void convertAndSend(String channel, Object message) {
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(loggerContext);
+		encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} %5p --- [%t] %-40.40logger{39} : %m%n");
+		encoder.start();
+		OutputStreamAppender<ILoggingEvent> outputStreamAppender = new OutputStreamAppender<>();
+		outputStreamAppender.setContext(loggerContext);
+		outputStreamAppender.setEncoder(encoder);
+		outputStreamAppender.setOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		outputStreamAppender.start();
+		appender = outputStreamAppender;
+		if (asyncAppender) {
+			AsyncAppender async = new AsyncAppender();
+			async.setContext(loggerContext);
+			async.setQueueSize(1024);
+			async.setDiscardingThreshold(0);
+			async.addAppender(outputStreamAppender);
+			async.start();
+			appender = async;
+		}
+		ch.qos.logback.classic.Logger root = loggerContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+		root.detachAndStopAllAppenders();
+		root.addAppender(appender);
+		root.setLevel(ch.qos.logback.classic.Level.toLevel(logLevel));
+		StubRedisTemplate stringRedisTemplate = new StubRedisTemplate();
+		SeedNearCache seedNearCache = new SeedNearCache();
+		ReflectionTestUtils.setField(seedNearCache, "stringRedisTemplate", stringRedisTemplate);
+		ReflectionTestUtils.setField(seedNearCache, "redisMessageListenerContainer", new RedisMessageListenerContainer());
+		ReflectionTestUtils.setField(seedNearCache, "enabled", nearCache);
+		ReflectionTestUtils.setField(seedNearCache, "maxSize", 10000);
+		ReflectionTestUtils.setField(seedNearCache, "ttlSeconds", 300L);
+		ReflectionTestUtils.setField(seedNearCache, "channel", "wallet:key:invalidate");
+		seedNearCache.init();
+		RedisKeyStore keyStore = new RedisKeyStore();
+		ReflectionTestUtils.setField(keyStore, "stringRedisTemplate", stringRedisTemplate);
+		ReflectionTestUtils.setField(keyStore, "replicaReadRouter", new ReplicaReadRouter());
+		ReflectionTestUtils.setField(keyStore, "redisShards", new RedisShards());
+		ReflectionTestUtils.setField(keyStore, "redisConnectionFactory", new InstrumentedJedisConnectionFactory(new JedisPoolConfig()));
+		BucketLayout bucketLayout = new BucketLayout();
+		ReflectionTestUtils.setField(bucketLayout, "layout", "strings");
+		ReflectionTestUtils.setField(keyStore, "bucketLayout", bucketLayout);
+		keyDao = new KeyDao();
+		ReflectionTestUtils.setField(keyDao, "keyStore", keyStore);
+		ReflectionTestUtils.setField(keyDao, "seedNearCache", seedNearCache);
+		ReflectionTestUtils.setField(keyDao, "accountNumberFilter", new AccountNumberFilter());
+		ReflectionTestUtils.setField(keyDao, "maxBatchSize", 1000);
+		walletKeys = new WalletKeys().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed(SECRET_SEED);
+		keyDao.saveAccount(walletKeys);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		appender.stop();
+	}
+
+	@Benchmark
+	public WalletKeys getSecretSeed() {
+		return keyDao.getSecretSeed(ACCOUNT_NUMBER);
+	}
+
+	@Benchmark
+	public void saveAccount() {
+		keyDao.saveAccount(walletKeys);
+	}
+}
@@ -0,0 +1,48 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class KeyDaoTest {
+
+	private static final String ACCOUNT_NUMBER = "keydaotest-account";
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@After
+	public void tearDown() {
+		stringRedisTemplate.delete(ACCOUNT_NUMBER);
+	}
+
+	@Test
+	public void savedAccountNeverExpires() {
+		stringRedisTemplate.opsForValue().set(ACCOUNT_NUMBER, "old seed", 60, TimeUnit.SECONDS);
+		assertThat(stringRedisTemplate.getExpire(ACCOUNT_NUMBER), greaterThan(0L));
+
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed("new seed"));
+
+		assertThat(stringRedisTemplate.getExpire(ACCOUNT_NUMBER), equalTo(-1L));
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("new seed"));
+	}
+}
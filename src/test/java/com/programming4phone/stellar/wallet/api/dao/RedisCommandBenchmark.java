@@ -0,0 +1,71 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * JMH benchmarks of the Redis round trips behind {@link KeyDao}, including the former SET + PERSIST
+ * store command pair against the single SET used now. Requires a Redis instance running on localhost.
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=RedisCommandBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisCommandBenchmark {
+
+	private static final String ACCOUNT_NUMBER = "rediscommandbenchmark-account";
+	private static final String SECRET_SEED = "EFYy0Z3X0kO6m6y6o0yJr3vX6qM8m5m0d8D4mQ2jvQxw0c0B3e7q1Q9k2q7Yh1Zm3m1fM7k5o4Q6c8w==";
+
+	private JedisConnectionFactory connectionFactory;
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		connectionFactory = new JedisConnectionFactory();
+		connectionFactory.setHostName("127.0.0.1");
+		connectionFactory.setPort(6379);
+		connectionFactory.afterPropertiesSet();
+		stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+		stringRedisTemplate.opsForValue().set(ACCOUNT_NUMBER, SECRET_SEED);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		stringRedisTemplate.delete(ACCOUNT_NUMBER);
+		connectionFactory.destroy();
+	}
+
+	@Benchmark
+	public String get() {
+		return stringRedisTemplate.opsForValue().get(ACCOUNT_NUMBER);
+	}
+
+	@Benchmark
+	public void set() {
+		stringRedisTemplate.opsForValue().set(ACCOUNT_NUMBER, SECRET_SEED);
+	}
+
+	@Benchmark
+	public Boolean setAndPersist() {
+		stringRedisTemplate.opsForValue().set(ACCOUNT_NUMBER, SECRET_SEED);
+		return stringRedisTemplate.persist(ACCOUNT_NUMBER);
+	}
+}
@@ -0,0 +1,158 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.bucket.BucketLayout;
+import com.programming4phone.stellar.wallet.api.shard.RedisShards;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * JMH benchmark of the memory used by a million and ten million accounts in each Redis layout, see
+ * {@link BucketLayout}: every measurement loads the accounts through {@link RedisKeyStore#multiSet(List, List)},
+ * in batches of 1000, and logs the growth of the Redis <code>used_memory</code> per account. The score is the load time.
+ * Requires a Redis instance running on localhost with enough memory, about 2 GB for ten million string keys;
+ * <code>hash-max-ziplist-value</code> is raised to 128 for the duration of the benchmark, and the accounts
+ * are removed afterwards. Logging is limited to warnings, except for the results of this benchmark.
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=RedisLayoutBenchmark</code>, and look for <code>bytes per account</code>
+ * in the output.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisLayoutBenchmark {
+
+	// JMH subclasses the benchmark, so the logger is not named after this.getClass()
+	private static final Logger logger = LoggerFactory.getLogger(RedisLayoutBenchmark.class);
+
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Length of an encrypted secret seed: salt, IV and ciphertext of a 56 character seed.
+	 */
+	private static final int CIPHERTEXT_LENGTH = 105;
+
+	@Param({ "strings", "buckets" })
+	public String layout;
+
+	@Param({ "1000000", "10000000" })
+	public int accounts;
+
+	private InstrumentedJedisConnectionFactory connectionFactory;
+	private StringRedisTemplate stringRedisTemplate;
+	private RedisKeyStore keyStore;
+	private String hashMaxZiplistValue;
+	private long usedMemoryBefore;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+		((ch.qos.logback.classic.Logger) logger).setLevel(ch.qos.logback.classic.Level.INFO);
+		connectionFactory = new InstrumentedJedisConnectionFactory(new JedisPoolConfig());
+		connectionFactory.setHostName("127.0.0.1");
+		connectionFactory.setPort(6379);
+		connectionFactory.afterPropertiesSet();
+		stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+		stringRedisTemplate.afterPropertiesSet();
+		hashMaxZiplistValue = stringRedisTemplate.execute((RedisCallback<List<String>>) connection ->
+				connection.getConfig("hash-max-ziplist-value")).get(1);
+		stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+			connection.setConfig("hash-max-ziplist-value", "128");
+			return null;
+		});
+		BucketLayout bucketLayout = new BucketLayout();
+		ReflectionTestUtils.setField(bucketLayout, "layout", layout);
+		ReflectionTestUtils.setField(bucketLayout, "perSlot", 4);
+		ReflectionTestUtils.setField(bucketLayout, "migrating", false);
+		keyStore = new RedisKeyStore();
+		ReflectionTestUtils.setField(keyStore, "stringRedisTemplate", stringRedisTemplate);
+		ReflectionTestUtils.setField(keyStore, "replicaReadRouter", new ReplicaReadRouter());
+		ReflectionTestUtils.setField(keyStore, "redisShards", new RedisShards());
+		ReflectionTestUtils.setField(keyStore, "redisConnectionFactory", connectionFactory);
+		ReflectionTestUtils.setField(keyStore, "bucketLayout", bucketLayout);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+			connection.setConfig("hash-max-ziplist-value", hashMaxZiplistValue);
+			return null;
+		});
+		connectionFactory.destroy();
+	}
+
+	@Setup(Level.Iteration)
+	public void measureBefore() {
+		usedMemoryBefore = usedMemory();
+	}
+
+	@TearDown(Level.Iteration)
+	public void measureAfter() {
+		long growth = usedMemory() - usedMemoryBefore;
+		logger.info("{}, {} accounts: {} bytes per account, used_memory +{} MB",
+				layout, accounts, String.format("%.1f", (double) growth / accounts), growth >> 20);
+		for (int start = 0; start < accounts; start += BATCH_SIZE) {
+			keyStore.multiDelete(accountNumbers(start));
+		}
+	}
+
+	private long usedMemory() {
+		Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("memory"));
+		return Long.parseLong(info.getProperty("used_memory"));
+	}
+
+	/**
+	 * @return the account numbers of a batch, 56 characters like a Stellar account number
+	 */
+	private List<String> accountNumbers(int start) {
+		List<String> accountNumbers = new ArrayList<>(BATCH_SIZE);
+		for (int i = start; i < Math.min(start + BATCH_SIZE, accounts); i++) {
+			accountNumbers.add(String.format("GLAYOUTBENCHMARK%040d", i));
+		}
+		return accountNumbers;
+	}
+
+	@Benchmark
+	public void load() {
+		Random random = new Random(0);
+		byte[] ciphertext = new byte[CIPHERTEXT_LENGTH];
+		for (int start = 0; start < accounts; start += BATCH_SIZE) {
+			List<String> accountNumbers = accountNumbers(start);
+			List<String> secretSeeds = new ArrayList<>(accountNumbers.size());
+			for (int i = 0; i < accountNumbers.size(); i++) {
+				random.nextBytes(ciphertext);
+				secretSeeds.add(Base64.getEncoder().encodeToString(ciphertext));
+			}
+			keyStore.multiSet(accountNumbers, secretSeeds);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * Integration test, requires a Redis instance running on localhost with a replica on port 6380,
+ * e.g. <code>redis-server --port 6380 --slaveof 127.0.0.1 6379</code>. Skipped without a replica.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"wallet.redis.replica-reads.enabled=true",
+		"wallet.redis.replica-reads.refresh-millis=0" })
+public class ReplicaReadRouterTest {
+
+	private static final String ACCOUNT_NUMBER = "replicatest-account";
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private ReplicaReadRouter replicaReadRouter;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Before
+	public void setUp() {
+		Properties info = stringRedisTemplate.execute((RedisCallback<Properties>) connection -> connection.info("replication"));
+		assumeThat(info.getProperty("connected_slaves"), not(equalTo("0")));
+	}
+
+	@After
+	public void tearDown() {
+		stringRedisTemplate.delete(ACCOUNT_NUMBER);
+	}
+
+	private long metric(String name) {
+		return replicaReadRouter.metrics().stream().filter(metric -> metric.getName().equals(name))
+				.map(Metric::getValue).findFirst().get().longValue();
+	}
+
+	@Test
+	public void readsFromReplica() throws Exception {
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed("replicated seed"));
+		try (Jedis replica = new Jedis("127.0.0.1", 6380)) {
+			for (int i = 0; i < 100 && replica.get(ACCOUNT_NUMBER) == null; i++) {
+				Thread.sleep(20);
+			}
+		}
+		long replicaReads = metric("keys.replica.reads");
+		long masterReads = metric("keys.replica.master-reads");
+
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("replicated seed"));
+
+		assertThat(metric("keys.replica.available"), greaterThan(0L));
+		assertThat(metric("keys.replica.reads"), equalTo(replicaReads + 1));
+		assertThat(metric("keys.replica.master-reads"), equalTo(masterReads));
+	}
+
+	@Test
+	public void missIsVerifiedOnMaster() {
+		long misses = metric("keys.replica.misses");
+		long masterReads = metric("keys.replica.master-reads");
+		try {
+			keyDao.getSecretSeed(ACCOUNT_NUMBER);
+			fail("KeyNotFoundException expected");
+		}
+		catch (KeyNotFoundException e) {
+			assertThat(metric("keys.replica.misses"), equalTo(misses + 1));
+			assertThat(metric("keys.replica.master-reads"), equalTo(masterReads + 1));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.programming4phone.stellar.wallet.api.dao;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "keys.near-cache.enabled=true")
+public class SeedNearCacheTest {
+
+	private static final String ACCOUNT_NUMBER = "seednearcachetest-account";
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private SeedNearCache seedNearCache;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	@After
+	public void tearDown() {
+		stringRedisTemplate.delete(ACCOUNT_NUMBER);
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : seedNearCache.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		throw new AssertionError("metric not found: " + name);
+	}
+
+	private void awaitInvalidation(long invalidations) throws InterruptedException {
+		for (int i = 0; i < 50 && metric("keys.near-cache.invalidations") == invalidations; i++) {
+			Thread.sleep(100);
+		}
+		assertThat(metric("keys.near-cache.invalidations"), greaterThan(invalidations));
+	}
+
+	@Test
+	public void seedsAreCachedUntilInvalidated() throws Exception {
+		// this node also receives its own invalidation, wait for it so it cannot interfere later
+		long invalidations = metric("keys.near-cache.invalidations");
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed("seed 1"));
+		awaitInvalidation(invalidations);
+		long hits = metric("keys.near-cache.hits");
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("seed 1"));
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("seed 1"));
+		assertThat(metric("keys.near-cache.hits"), equalTo(hits + 1));
+
+		// another node changes the seed and publishes the invalidation
+		invalidations = metric("keys.near-cache.invalidations");
+		stringRedisTemplate.opsForValue().set(ACCOUNT_NUMBER, "seed 2");
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("seed 1"));
+		stringRedisTemplate.convertAndSend("wallet:key:invalidate",
+				SeedNearCache.message(System.currentTimeMillis(), Collections.singletonList(ACCOUNT_NUMBER)));
+		awaitInvalidation(invalidations);
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("seed 2"));
+
+		// changes made by this node are invalidated immediately
+		keyDao.removeAccount(ACCOUNT_NUMBER);
+		try {
+			keyDao.getSecretSeed(ACCOUNT_NUMBER);
+			fail("Removed account found in near cache");
+		} catch(KeyNotFoundException e) {
+			assertNotNull(e);
+		}
+	}
+
+	@Test
+	public void cacheIsClearedWhenTheSubscriptionIsLost() throws Exception {
+		long invalidations = metric("keys.near-cache.invalidations");
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed("seed 1"));
+		awaitInvalidation(invalidations);
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("seed 1"));
+		assertNotNull(seedNearCache.get(ACCOUNT_NUMBER));
+
+		// the invalidation of this change would be lost while the subscription is down
+		stringRedisTemplate.opsForValue().set(ACCOUNT_NUMBER, "seed 2");
+		applicationEventPublisher.publishEvent(new RedisSubscriptionLostEvent(this, new RuntimeException("lost")));
+		assertNull(seedNearCache.get(ACCOUNT_NUMBER));
+		assertThat(keyDao.getSecretSeed(ACCOUNT_NUMBER).getSecretSeed(), equalTo("seed 2"));
+	}
+}
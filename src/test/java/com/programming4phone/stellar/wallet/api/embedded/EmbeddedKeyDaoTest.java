@@ -0,0 +1,102 @@
+package com.programming4phone.stellar.wallet.api.embedded;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.aes.AES;
+import com.programming4phone.stellar.wallet.api.backup.KeyStoreBackup;
+import com.programming4phone.stellar.wallet.api.dao.KeyDao;
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeysResult;
+import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+import com.programming4phone.stellar.wallet.api.reencrypt.SeedReEncryptor;
+
+/**
+ * KeyDao on the embedded key store, without Redis: the Redis port is one nothing listens on.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"spring.redis.port=1",
+		"keys.bloom-filter.enabled=true",
+		"wallet.store.type=embedded",
+		"wallet.store.embedded.dir=target/embedded-key-dao-test",
+		"wallet.reencrypt.checkpoint-file=target/embedded-key-dao-test.checkpoint" })
+public class EmbeddedKeyDaoTest {
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@Autowired
+	private KeyStoreBackup keyStoreBackup;
+
+	@Autowired
+	private SeedReEncryptor seedReEncryptor;
+
+	@After
+	public void tearDown() throws Exception {
+		keyDao.removeAccounts(Arrays.asList("embedded-1", "embedded-2"));
+		Files.deleteIfExists(Paths.get("target/embedded-key-dao-test.wkb"));
+	}
+
+	@Test
+	public void accountsAreStoredLocally() {
+		assertThat(keyStore, instanceOf(MappedLogKeyStore.class));
+
+		keyDao.saveAccount(new WalletKeys().setAccountNumber("embedded-1").setSecretSeed("seed 1"));
+		keyDao.saveAccounts(Arrays.asList(new WalletKeys().setAccountNumber("embedded-2").setSecretSeed("seed 2")));
+
+		assertThat(keyDao.getSecretSeed("embedded-1").getSecretSeed(), equalTo("seed 1"));
+		assertThat(keyDao.getSecretSeeds(Arrays.asList("embedded-1", "embedded-2", "embedded-3")).stream()
+				.map(WalletKeysResult::getStatus).collect(Collectors.toList()), contains(200, 200, 404));
+
+		keyDao.removeAccount("embedded-1");
+		try {
+			keyDao.getSecretSeed("embedded-1");
+			fail("KeyNotFoundException expected");
+		}
+		catch (KeyNotFoundException e) {
+			assertThat(keyDao.removeAccounts(Arrays.asList("embedded-1", "embedded-2")).stream()
+					.map(WalletKeysResult::getStatus).collect(Collectors.toList()), contains(404, 200));
+		}
+	}
+
+	@Test
+	public void backupAndReEncryptionCoverTheEmbeddedStore() throws Exception {
+		char[] oldPassword = "old pass phrase".toCharArray();
+		char[] newPassword = "new pass phrase".toCharArray();
+		keyStore.multiSet(Arrays.asList("embedded-1", "embedded-2"), Arrays.asList(
+				Base64.encodeBase64String(AES.encrypt(128, oldPassword, "seed 1".getBytes(StandardCharsets.UTF_8))),
+				Base64.encodeBase64String(AES.encrypt(128, oldPassword, "seed 2".getBytes(StandardCharsets.UTF_8)))));
+
+		assertThat(seedReEncryptor.reEncrypt(oldPassword, newPassword, 128), equalTo(2L));
+		assertThat(new String(AES.decrypt(newPassword, Base64.decodeBase64(keyStore.get("embedded-2"))),
+				StandardCharsets.UTF_8), equalTo("seed 2"));
+
+		Path file = Paths.get("target/embedded-key-dao-test.wkb");
+		assertThat(keyStoreBackup.exportTo(file), equalTo(2L));
+		String secretSeed = keyStore.get("embedded-1");
+		keyStore.multiDelete(Arrays.asList("embedded-1", "embedded-2"));
+		assertThat(keyStoreBackup.importFrom(file), equalTo(2L));
+		assertThat(keyStore.get("embedded-1"), equalTo(secretSeed));
+	}
+}
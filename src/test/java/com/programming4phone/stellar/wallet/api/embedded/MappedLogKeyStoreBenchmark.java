@@ -0,0 +1,79 @@
+package com.programming4phone.stellar.wallet.api.embedded;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * JMH benchmarks of {@link MappedLogKeyStore} reads and writes of random keys, in a temporary directory
+ * removed afterwards. Logging is limited to warnings.
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=MappedLogKeyStoreBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MappedLogKeyStoreBenchmark {
+
+	private static final String ACCOUNT_PREFIX = "GBMAPPEDLOGKEYSTOREBENCHMARKACCOUNT";
+	private static final String SECRET_SEED = "EFYy0Z3X0kO6m6y6o0yJr3vX6qM8m5m0d8D4mQ2jvQxw0c0B3e7q1Q9k2q7Yh1Zm3m1fM7k5o4Q6c8w==";
+
+	@Param({ "100000", "1000000" })
+	public int keys;
+
+	private Path directory;
+	private MappedLogKeyStore store;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+		directory = Files.createTempDirectory("keystore-benchmark");
+		store = new MappedLogKeyStore();
+		ReflectionTestUtils.setField(store, "dir", directory.toString());
+		ReflectionTestUtils.setField(store, "segmentSizeKb", 65536);
+		ReflectionTestUtils.setField(store, "compactionIntervalSeconds", 60L);
+		ReflectionTestUtils.setField(store, "compactionMinGarbageRatio", 0.5);
+		store.open();
+		for (int i = 0; i < keys; i++) {
+			store.set(ACCOUNT_PREFIX + i, SECRET_SEED);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		store.close();
+		Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+
+	@Benchmark
+	public String get() {
+		return store.get(ACCOUNT_PREFIX + ThreadLocalRandom.current().nextInt(keys));
+	}
+
+	@Benchmark
+	public void set() {
+		store.set(ACCOUNT_PREFIX + ThreadLocalRandom.current().nextInt(keys), SECRET_SEED);
+	}
+}
@@ -0,0 +1,154 @@
+package com.programming4phone.stellar.wallet.api.embedded;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MappedLogKeyStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MappedLogKeyStore store;
+
+	/**
+	 * Open the store in the temporary folder, with 1 KB segments and without background compaction.
+	 */
+	private MappedLogKeyStore open() throws IOException {
+		MappedLogKeyStore store = new MappedLogKeyStore();
+		ReflectionTestUtils.setField(store, "dir", folder.getRoot().getPath());
+		ReflectionTestUtils.setField(store, "segmentSizeKb", 1);
+		ReflectionTestUtils.setField(store, "compactionIntervalSeconds", 0L);
+		ReflectionTestUtils.setField(store, "compactionMinGarbageRatio", 0.5);
+		store.open();
+		return store;
+	}
+
+	private MappedLogKeyStore reopen() throws Exception {
+		store.close();
+		store = open();
+		return store;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (store != null) {
+			store.close();
+		}
+	}
+
+	private long metric(String name) {
+		return store.metrics().stream().filter(metric -> metric.getName().equals(name))
+				.map(Metric::getValue).findFirst().get().longValue();
+	}
+
+	@Test
+	public void writesSurviveReopen() throws Exception {
+		store = open();
+		store.multiSet(Arrays.asList("a", "b", "c"), Arrays.asList("seed a", "seed b", "seed c"));
+		store.set("a", "new seed a");
+		store.delete("b");
+
+		reopen();
+
+		assertThat(store.multiGet(Arrays.asList("a", "b", "c", "d")), contains("new seed a", null, "seed c", null));
+		assertThat(store.multiDelete(Arrays.asList("a", "b")), contains(true, false));
+		assertThat(reopen().get("a"), nullValue());
+		assertThat(metric("keys.store.keys"), equalTo(1L));
+	}
+
+	@Test
+	public void replaceKeepsChangedSeeds() throws Exception {
+		store = open();
+		store.multiSet(Arrays.asList("a", "b"), Arrays.asList("seed a", "seed b"));
+		assertThat(store.multiReplace(Arrays.asList("a", "b", "c"), Arrays.asList("seed a", "old seed b", "seed c"),
+				Arrays.asList("new seed a", "new seed b", "new seed c")), contains(true, false, false));
+		assertThat(reopen().multiGet(Arrays.asList("a", "b", "c")), contains("new seed a", "seed b", null));
+	}
+
+	@Test
+	public void scanResumesAtTheCursor() throws Exception {
+		store = open();
+		for (int i = 0; i < 10; i++) {
+			store.set("account-" + i, "seed " + i);
+		}
+		List<String> scanned = new ArrayList<>();
+		List<String> cursors = new ArrayList<>();
+		store.scan(null, 4, (chunk, next) -> {
+			scanned.addAll(chunk);
+			cursors.add(next);
+		});
+		assertThat(scanned, hasSize(10));
+		assertThat(cursors.stream().map(Objects::nonNull).collect(Collectors.toList()), contains(true, true, false));
+
+		List<String> resumed = new ArrayList<>();
+		reopen().scan(cursors.get(0), 4, (chunk, next) -> resumed.addAll(chunk));
+		assertThat(resumed, equalTo(scanned.subList(4, 10)));
+	}
+
+	@Test
+	public void compactionKeepsLiveRecordsOnly() throws Exception {
+		store = open();
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 100; i++) {
+				store.set("account-" + i, "seed " + i + " round " + round);
+			}
+		}
+		for (int i = 0; i < 100; i += 2) {
+			store.delete("account-" + i);
+		}
+		long bytes = metric("keys.store.bytes");
+
+		assertThat(store.compact(), greaterThan(bytes / 2));
+
+		for (MappedLogKeyStore compacted : new MappedLogKeyStore[] { store, reopen() }) {
+			for (int i = 0; i < 100; i++) {
+				assertThat(compacted.get("account-" + i), equalTo(i % 2 == 0 ? null : "seed " + i + " round 4"));
+			}
+		}
+		assertThat(metric("keys.store.keys"), equalTo(50L));
+		assertThat(metric("keys.store.bytes"), lessThan(bytes / 2));
+	}
+
+	@Test
+	public void tornRecordIsIgnored() throws Exception {
+		store = open();
+		store.set("a", "seed a");
+		store.set("b", "seed b");
+		store.close();
+		store = null;
+		Path segment = Files.list(folder.getRoot().toPath()).sorted().collect(Collectors.toList()).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			int crcByte = 8 + 2 * (14 + 1 + 6 + 4) - 1; // last byte of the second record
+			ByteBuffer buffer = ByteBuffer.allocate(1);
+			channel.read(buffer, crcByte);
+			buffer.put(0, (byte) ~buffer.get(0)).rewind();
+			channel.write(buffer, crcByte);
+		}
+
+		store = open();
+
+		assertThat(store.get("a"), equalTo("seed a"));
+		assertThat(store.get("b"), nullValue());
+		store.set("b", "seed b again");
+		assertThat(reopen().get("b"), equalTo("seed b again"));
+	}
+}
@@ -0,0 +1,31 @@
+package com.programming4phone.stellar.wallet.api.entity;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class WalletKeysTest {
+
+	private static final String ACCOUNT_NUMBER = "walletkeystest-account";
+
+	@Test
+	public void secretSeedIsMaskedInToString() {
+		WalletKeys walletKeys = new WalletKeys().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed("new seed");
+		assertThat(walletKeys.toString(), containsString(ACCOUNT_NUMBER));
+		assertThat(walletKeys.toString(), not(containsString("new seed")));
+	}
+
+	@Test
+	public void secretSeedIsMaskedInResultToString() {
+		WalletKeysResult result = new WalletKeysResult().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed("new seed").setStatus(200);
+		assertThat(result.toString(), allOf(containsString(ACCOUNT_NUMBER), containsString("status=200")));
+		assertThat(result.toString(), not(containsString("new seed")));
+	}
+
+	@Test
+	public void missingSecretSeedIsNotMasked() {
+		assertThat(new WalletKeysResult().setAccountNumber(ACCOUNT_NUMBER).setStatus(404).toString(),
+				containsString("secretSeed=null"));
+	}
+}
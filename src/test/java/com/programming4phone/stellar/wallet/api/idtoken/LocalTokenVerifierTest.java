@@ -0,0 +1,102 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class LocalTokenVerifierTest {
+
+	private static final String ISSUER = "https://accounts.google.com";
+
+	@Autowired
+	private TokenVerifier tokenVerifier;
+
+	@Autowired
+	private JwksKeyCache jwksKeyCache;
+
+	@Value("${client.id}")
+	private String clientId;
+
+	private StubGoogleServer stubGoogleServer;
+	private TestIdTokens signingKey;
+	private long now;
+
+	@Before
+	public void setUp() throws Exception {
+		signingKey = new TestIdTokens("test-kid");
+		stubGoogleServer = new StubGoogleServer();
+		stubGoogleServer.setJwks(signingKey.jwks());
+		ReflectionTestUtils.setField(jwksKeyCache, "jwksUrl", stubGoogleServer.getJwksUrl());
+		ReflectionTestUtils.setField(tokenVerifier, "verifyUrl", stubGoogleServer.getTokenInfoUrl());
+		jwksKeyCache.reset();
+		now = System.currentTimeMillis() / 1000;
+	}
+
+	@After
+	public void tearDown() {
+		stubGoogleServer.stop();
+	}
+
+	private void assertNotVerified(String token) {
+		try {
+			tokenVerifier.verify("Bearer " + token);
+			fail("Invalid token verified successfully");
+		} catch(TokenVerificationException e) {
+			assertNotNull(e);
+		}
+	}
+
+	@Test
+	public void validTokenVerifiesWithoutTokenInfo() throws Exception {
+		String token = signingKey.sign(TestIdTokens.claims(ISSUER, clientId, now, now + 3600));
+		assertTrue(tokenVerifier.verify("Bearer " + token));
+		assertTrue(tokenVerifier.verify("Bearer " + token));
+		assertEquals(1, stubGoogleServer.getJwksCalls());
+		assertEquals(0, stubGoogleServer.getTokenInfoCalls());
+	}
+
+	@Test
+	public void invalidClaimsAreRejected() throws Exception {
+		assertNotVerified(signingKey.sign(TestIdTokens.claims(ISSUER, "someone-else", now, now + 3600)));
+		assertNotVerified(signingKey.sign(TestIdTokens.claims("https://evil.example.com", clientId, now, now + 3600)));
+		assertNotVerified(signingKey.sign(TestIdTokens.claims(ISSUER, clientId, now - 7200, now - 3600)));
+		assertNotVerified(signingKey.sign(TestIdTokens.claims(ISSUER, clientId, now + 3600, now + 7200)));
+		assertEquals(0, stubGoogleServer.getTokenInfoCalls());
+	}
+
+	@Test
+	public void forgedSignatureIsRejected() throws Exception {
+		TestIdTokens forger = new TestIdTokens(signingKey.getKid());
+		assertNotVerified(forger.sign(TestIdTokens.claims(ISSUER, clientId, now, now + 3600)));
+		assertNotVerified("not-a-jwt");
+		assertEquals(0, stubGoogleServer.getTokenInfoCalls());
+	}
+
+	@Test
+	public void unknownKeyIdFallsBackToTokenInfo() throws Exception {
+		TestIdTokens rotatedKey = new TestIdTokens("rotated-kid");
+		String claims = TestIdTokens.claims(ISSUER, clientId, now, now + 3600);
+		stubGoogleServer.setTokenInfo(200, claims);
+		assertTrue(tokenVerifier.verify("Bearer " + rotatedKey.sign(claims)));
+		assertEquals(1, stubGoogleServer.getTokenInfoCalls());
+
+		stubGoogleServer.setTokenInfo(400, "{\"error_description\":\"Invalid Value\"}");
+		assertNotVerified(rotatedKey.sign(TestIdTokens.claims(ISSUER, clientId, now, now + 1800)));
+		assertEquals(2, stubGoogleServer.getTokenInfoCalls());
+	}
+}
@@ -0,0 +1,104 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Google certs (JWKS) and tokeninfo endpoints,
+ * so that token verification can be tested without hitting the live Google servers.
+ */
+public class StubGoogleServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final AtomicInteger jwksCalls = new AtomicInteger();
+	private final AtomicInteger tokenInfoCalls = new AtomicInteger();
+
+	private volatile String jwks = "{\"keys\":[]}";
+	private volatile String tokenInfo = "{}";
+	private volatile int tokenInfoStatus = 200;
+	private volatile long tokenInfoDelayMillis;
+	private final Queue<Long> nextTokenInfoDelaysMillis = new ConcurrentLinkedQueue<>();
+
+	public StubGoogleServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext("/certs", exchange -> {
+			jwksCalls.incrementAndGet();
+			respond(exchange, 200, jwks);
+		});
+		server.createContext("/tokeninfo", exchange -> {
+			tokenInfoCalls.incrementAndGet();
+			try {
+				Long delayMillis = nextTokenInfoDelaysMillis.poll();
+				Thread.sleep(delayMillis == null ? tokenInfoDelayMillis : delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			respond(exchange, tokenInfoStatus, tokenInfo);
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	public String getJwksUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/certs";
+	}
+
+	public String getTokenInfoUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/tokeninfo?id_token={token}";
+	}
+
+	public void setJwks(String jwks) {
+		this.jwks = jwks;
+	}
+
+	public void setTokenInfo(int status, String tokenInfo) {
+		this.tokenInfoStatus = status;
+		this.tokenInfo = tokenInfo;
+	}
+
+	public void setTokenInfoDelayMillis(long tokenInfoDelayMillis) {
+		this.tokenInfoDelayMillis = tokenInfoDelayMillis;
+	}
+
+	/**
+	 * @param delaysMillis delays of the next tokeninfo answers, one per call, before the default delay applies again
+	 */
+	public void addTokenInfoDelaysMillis(Long... delaysMillis) {
+		nextTokenInfoDelaysMillis.addAll(Arrays.asList(delaysMillis));
+	}
+
+	public int getJwksCalls() {
+		return jwksCalls.get();
+	}
+
+	public int getTokenInfoCalls() {
+		return tokenInfoCalls.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
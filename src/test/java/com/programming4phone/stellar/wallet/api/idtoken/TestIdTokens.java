@@ -0,0 +1,73 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Builds Google style ID tokens signed with a locally generated RSA key pair,
+ * together with the matching JWKS document.
+ */
+public class TestIdTokens {
+
+	private final String kid;
+	private final KeyPair keyPair;
+
+	public TestIdTokens(String kid) throws GeneralSecurityException {
+		this.kid = kid;
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		this.keyPair = generator.generateKeyPair();
+	}
+
+	public String getKid() {
+		return kid;
+	}
+
+	/**
+	 * @return the JWKS document publishing the public key of this key pair
+	 */
+	public String jwks() {
+		RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+		return "{\"keys\":[{\"kid\":\"" + kid + "\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"n\":\""
+				+ encode(publicKey.getModulus()) + "\",\"e\":\"" + encode(publicKey.getPublicExponent()) + "\"}]}";
+	}
+
+	/**
+	 * @return token claims JSON as found in a Google ID token payload
+	 */
+	public static String claims(String iss, String aud, long iat, long exp) {
+		return "{\"iss\":\"" + iss + "\",\"azp\":\"" + aud + "\",\"aud\":\"" + aud + "\",\"sub\":\"111113162219012882195\","
+				+ "\"email\":\"testuser@gmail.com\",\"email_verified\":true,\"at_hash\":\"R-xhARcMHGyDF-Pz26ZIoQ\","
+				+ "\"iat\":" + iat + ",\"exp\":" + exp + ",\"name\":\"Test User\",\"locale\":\"en\"}";
+	}
+
+	/**
+	 * @return a signed JWT with the given claims JSON as payload
+	 */
+	public String sign(String claims) throws GeneralSecurityException {
+		String header = "{\"alg\":\"RS256\",\"kid\":\"" + kid + "\",\"typ\":\"JWT\"}";
+		String signingInput = Base64.encodeBase64URLSafeString(header.getBytes(StandardCharsets.UTF_8)) + "."
+				+ Base64.encodeBase64URLSafeString(claims.getBytes(StandardCharsets.UTF_8));
+		Signature signature = Signature.getInstance("SHA256withRSA");
+		signature.initSign(keyPair.getPrivate());
+		signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+		return signingInput + "." + Base64.encodeBase64URLSafeString(signature.sign());
+	}
+
+	private static String encode(BigInteger value) {
+		byte[] bytes = value.toByteArray();
+		if (bytes[0] == 0 && bytes.length > 1) { // drop the sign byte
+			byte[] unsigned = new byte[bytes.length - 1];
+			System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+			bytes = unsigned;
+		}
+		return Base64.encodeBase64URLSafeString(bytes);
+	}
+}
@@ -0,0 +1,25 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TokenClaimsTest {
+
+	@Test
+	public void profileClaimsAreLeftOutOfToString() {
+		TokenClaims claims = new TokenClaims();
+		claims.setSub("110169484474386276334");
+		claims.setAud("client-id");
+		claims.setEmail("testuser@gmail.com");
+		claims.setName("Test User");
+		claims.setGiven_name("Test");
+		claims.setFamily_name("Family");
+		claims.setPicture("https://lh4.googleusercontent.com/photo.jpg");
+		String string = claims.toString();
+		assertThat(string, allOf(containsString("110169484474386276334"), containsString("client-id")));
+		assertThat(string, not(anyOf(containsString("testuser@gmail.com"), containsString("Test User"),
+				containsString("Family"), containsString("photo.jpg"))));
+	}
+}
@@ -0,0 +1,109 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import com.programming4phone.stellar.wallet.api.ratelimit.RateLimiter;
+
+/**
+ * JMH benchmarks of {@link TokenVerifier#verify} against a local {@link StubGoogleServer}:
+ * <ul>
+ *   <li><b>cached</b>: the token has been verified before</li>
+ *   <li><b>local</b>: the RS256 signature and the claims are checked in-process on every call</li>
+ *   <li><b>remote</b>: every call goes to the (stub) tokeninfo endpoint</li>
+ * </ul>
+ * Logging is limited to warnings.
+ * <br/><br/>
+ * Run with <code>mvn -Pbenchmark test -Djmh.include=TokenVerifierBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenVerifierBenchmark {
+
+	private static final String CLIENT_ID = "benchmark-client.apps.googleusercontent.com";
+
+	@Param({ "cached", "local", "remote" })
+	public String verification;
+
+	private StubGoogleServer stubGoogleServer;
+	private ThreadPoolTaskExecutor tokenVerifyExecutor;
+	private TokenVerifier tokenVerifier;
+	private String header;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+		TestIdTokens testIdTokens = new TestIdTokens("benchmark-kid");
+		long now = System.currentTimeMillis() / 1000;
+		String claims = TestIdTokens.claims("https://accounts.google.com", CLIENT_ID, now, now + 3600);
+		header = "Bearer " + testIdTokens.sign(claims);
+		stubGoogleServer = new StubGoogleServer();
+		stubGoogleServer.setJwks(testIdTokens.jwks());
+		stubGoogleServer.setTokenInfo(200, claims);
+		RestTemplate restTemplate = new RestTemplate();
+
+		JwksKeyCache jwksKeyCache = new JwksKeyCache();
+		ReflectionTestUtils.setField(jwksKeyCache, "restTemplate", restTemplate);
+		ReflectionTestUtils.setField(jwksKeyCache, "jwksUrl", stubGoogleServer.getJwksUrl());
+		ReflectionTestUtils.setField(jwksKeyCache, "refreshSeconds", 3600L);
+		ReflectionTestUtils.setField(jwksKeyCache, "minRefreshSeconds", 60L);
+		LocalTokenVerifier localTokenVerifier = new LocalTokenVerifier();
+		ReflectionTestUtils.setField(localTokenVerifier, "jwksKeyCache", jwksKeyCache);
+		ReflectionTestUtils.setField(localTokenVerifier, "clientId", CLIENT_ID);
+		ReflectionTestUtils.setField(localTokenVerifier, "clockSkewSeconds", 300L);
+		TokenCache tokenCache = new TokenCache();
+		ReflectionTestUtils.setField(tokenCache, "enabled", verification.equals("cached"));
+		ReflectionTestUtils.setField(tokenCache, "maxSize", 10000);
+		tokenCache.init();
+
+		tokenVerifier = new TokenVerifier();
+		ReflectionTestUtils.setField(tokenVerifier, "restTemplate", restTemplate);
+		ReflectionTestUtils.setField(tokenVerifier, "localTokenVerifier", localTokenVerifier);
+		ReflectionTestUtils.setField(tokenVerifier, "tokenCache", tokenCache);
+		ReflectionTestUtils.setField(tokenVerifier, "rateLimiter", new RateLimiter());
+		ReflectionTestUtils.setField(tokenVerifier, "tokenInfoCircuitBreaker", new TokenInfoCircuitBreaker());
+		ReflectionTestUtils.setField(tokenVerifier, "tokenInfoHedging", new TokenInfoHedging());
+		tokenVerifyExecutor = new ThreadPoolTaskExecutor();
+		tokenVerifyExecutor.initialize();
+		ReflectionTestUtils.setField(tokenVerifier, "tokenVerifyExecutor", tokenVerifyExecutor);
+		ReflectionTestUtils.setField(tokenVerifier, "bulkheadTimeoutMillis", 10000L);
+		ReflectionTestUtils.setField(tokenVerifier, "clientId", CLIENT_ID);
+		ReflectionTestUtils.setField(tokenVerifier, "verifyUrl", stubGoogleServer.getTokenInfoUrl());
+		ReflectionTestUtils.setField(tokenVerifier, "localVerification", !verification.equals("remote"));
+		ReflectionTestUtils.setField(tokenVerifier, "verifyTimeoutMillis", 10000L);
+		tokenVerifier.verify(header);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		tokenVerifyExecutor.shutdown();
+		stubGoogleServer.stop();
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return tokenVerifier.verify(header);
+	}
+}
@@ -0,0 +1,145 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationUnavailableException;
+import com.programming4phone.stellar.wallet.api.idtoken.TokenInfoCircuitBreaker.State;
+
+/**
+ * Injects errors and latency into a {@link StubGoogleServer} standing in for tokeninfo.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"token.local-verification=false",
+		"token.verify.circuit-breaker.window-size=4",
+		"token.verify.circuit-breaker.minimum-calls=4",
+		"token.verify.circuit-breaker.slow-call-millis=200",
+		"token.verify.circuit-breaker.open-millis=500",
+		"token.verify.circuit-breaker.half-open-calls=1",
+		"token.verify.bulkhead.timeout-millis=1000",
+		"token.verify.bulkhead.threads=4" })
+public class TokenVerifierCircuitBreakerTest {
+
+	private static final AtomicInteger TOKENS = new AtomicInteger();
+
+	@Autowired
+	private TokenVerifier tokenVerifier;
+
+	@Autowired
+	private TokenInfoCircuitBreaker tokenInfoCircuitBreaker;
+
+	@Value("${client.id}")
+	private String clientId;
+
+	private StubGoogleServer stubGoogleServer;
+	private String claims;
+
+	@Before
+	public void setUp() throws Exception {
+		stubGoogleServer = new StubGoogleServer();
+		long now = System.currentTimeMillis() / 1000;
+		claims = TestIdTokens.claims("https://accounts.google.com", clientId, now, now + 3600);
+		stubGoogleServer.setTokenInfo(200, claims);
+		ReflectionTestUtils.setField(tokenVerifier, "verifyUrl", stubGoogleServer.getTokenInfoUrl());
+		tokenInfoCircuitBreaker.reset();
+	}
+
+	@After
+	public void tearDown() {
+		stubGoogleServer.stop();
+	}
+
+	/**
+	 * Verify a token that has not been verified before, so that tokeninfo is called.
+	 * @return the exception thrown, or null if the token was verified
+	 */
+	private Class<?> verify() {
+		try {
+			tokenVerifier.verify("Bearer opaque-token-" + TOKENS.incrementAndGet());
+			return null;
+		}
+		catch(RuntimeException e) {
+			return e.getClass();
+		}
+	}
+
+	private void openWithErrors() {
+		stubGoogleServer.setTokenInfo(500, "{}");
+		for (int i = 0; i < 4; i++) {
+			assertEquals(TokenVerificationException.class, verify());
+		}
+		assertEquals(State.OPEN, tokenInfoCircuitBreaker.getState());
+	}
+
+	@Test
+	public void errorsOpenTheBreakerAndASuccessfulProbeClosesIt() throws Exception {
+		openWithErrors();
+		assertEquals(TokenVerificationUnavailableException.class, verify());
+		try {
+			tokenVerifier.verifyAsync("Bearer opaque-token-" + TOKENS.incrementAndGet()).get();
+			fail("Verified while the breaker is open");
+		}
+		catch(ExecutionException e) {
+			assertEquals(TokenVerificationUnavailableException.class, e.getCause().getClass());
+		}
+		assertEquals(4, stubGoogleServer.getTokenInfoCalls());
+
+		Thread.sleep(600);
+		stubGoogleServer.setTokenInfo(200, claims);
+		assertNull(verify());
+		assertEquals(State.CLOSED, tokenInfoCircuitBreaker.getState());
+		assertEquals(5, stubGoogleServer.getTokenInfoCalls());
+	}
+
+	@Test
+	public void failedProbeOpensTheBreakerAgain() throws Exception {
+		openWithErrors();
+		Thread.sleep(600);
+		assertEquals(TokenVerificationException.class, verify());
+		assertEquals(State.OPEN, tokenInfoCircuitBreaker.getState());
+		assertEquals(TokenVerificationUnavailableException.class, verify());
+		assertEquals(5, stubGoogleServer.getTokenInfoCalls());
+	}
+
+	@Test
+	public void slowCallsOpenTheBreaker() {
+		stubGoogleServer.setTokenInfoDelayMillis(300);
+		for (int i = 0; i < 4; i++) {
+			assertNull(verify());
+		}
+		assertEquals(State.OPEN, tokenInfoCircuitBreaker.getState());
+	}
+
+	@Test
+	public void invalidTokensDoNotOpenTheBreaker() {
+		stubGoogleServer.setTokenInfo(400, "{\"error_description\":\"Invalid Value\"}");
+		for (int i = 0; i < 8; i++) {
+			assertEquals(TokenVerificationException.class, verify());
+		}
+		assertEquals(State.CLOSED, tokenInfoCircuitBreaker.getState());
+	}
+
+	@Test
+	public void requestThreadStopsWaitingAfterTheBulkheadTimeout() {
+		stubGoogleServer.setTokenInfoDelayMillis(3000);
+		long start = System.nanoTime();
+		assertEquals(TokenVerificationUnavailableException.class, verify());
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(2000L));
+	}
+}
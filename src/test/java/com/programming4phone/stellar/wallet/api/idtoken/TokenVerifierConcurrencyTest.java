@@ -0,0 +1,107 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class TokenVerifierConcurrencyTest {
+
+	private static final int REQUESTS = 8;
+
+	@Autowired
+	private TokenVerifier tokenVerifier;
+
+	@Value("${client.id}")
+	private String clientId;
+
+	private StubGoogleServer stubGoogleServer;
+	private ExecutorService executor;
+	private String authHeader;
+
+	@Before
+	public void setUp() throws Exception {
+		stubGoogleServer = new StubGoogleServer();
+		long now = System.currentTimeMillis() / 1000;
+		stubGoogleServer.setTokenInfo(200, TestIdTokens.claims("https://accounts.google.com", clientId, now, now + 3600));
+		stubGoogleServer.setTokenInfoDelayMillis(500);
+		ReflectionTestUtils.setField(tokenVerifier, "verifyUrl", stubGoogleServer.getTokenInfoUrl());
+		ReflectionTestUtils.setField(tokenVerifier, "localVerification", false);
+		executor = Executors.newFixedThreadPool(REQUESTS);
+		authHeader = "Bearer opaque-token-" + System.nanoTime();
+	}
+
+	@After
+	public void tearDown() {
+		ReflectionTestUtils.setField(tokenVerifier, "localVerification", true);
+		ReflectionTestUtils.setField(tokenVerifier, "verifyTimeoutMillis", 10000L);
+		executor.shutdownNow();
+		stubGoogleServer.stop();
+	}
+
+	/**
+	 * Fire all verifications at once and count how many of them fail.
+	 */
+	private int verifyConcurrently() throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (int i = 0; i < REQUESTS; i++) {
+			Callable<Boolean> verification = () -> {
+				start.await();
+				return tokenVerifier.verify(authHeader);
+			};
+			results.add(executor.submit(verification));
+		}
+		start.countDown();
+		int failures = 0;
+		for (Future<Boolean> result : results) {
+			try {
+				result.get();
+			} catch(ExecutionException e) {
+				assertEquals(TokenVerificationException.class, e.getCause().getClass());
+				failures++;
+			}
+		}
+		return failures;
+	}
+
+	@Test
+	public void concurrentVerificationsShareOneUpstreamCall() throws Exception {
+		assertEquals(0, verifyConcurrently());
+		assertEquals(1, stubGoogleServer.getTokenInfoCalls());
+	}
+
+	@Test
+	public void failureIsPropagatedToAllWaiters() throws Exception {
+		stubGoogleServer.setTokenInfo(400, "{\"error_description\":\"Invalid Value\"}");
+		assertEquals(REQUESTS, verifyConcurrently());
+		assertEquals(1, stubGoogleServer.getTokenInfoCalls());
+	}
+
+	@Test
+	public void waitersGiveUpAfterTimeout() throws Exception {
+		ReflectionTestUtils.setField(tokenVerifier, "verifyTimeoutMillis", 100L);
+		assertEquals(REQUESTS - 1, verifyConcurrently());
+		assertEquals(1, stubGoogleServer.getTokenInfoCalls());
+	}
+}
@@ -0,0 +1,115 @@
+package com.programming4phone.stellar.wallet.api.idtoken;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Injects a slow answer into a {@link StubGoogleServer} standing in for tokeninfo.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"token.local-verification=false",
+		"token.verify.hedging.enabled=true",
+		"token.verify.hedging.min-samples=5",
+		"token.verify.hedging.percentile=0.9",
+		"token.verify.hedging.min-delay-millis=50",
+		"token.verify.hedging.max-rate=1",
+		"token.verify.hedging.max-burst=1" })
+public class TokenVerifierHedgingTest {
+
+	private static final AtomicInteger TOKENS = new AtomicInteger();
+
+	@Autowired
+	private TokenVerifier tokenVerifier;
+
+	@Autowired
+	private TokenInfoHedging tokenInfoHedging;
+
+	@Value("${client.id}")
+	private String clientId;
+
+	private StubGoogleServer stubGoogleServer;
+
+	@Before
+	public void setUp() throws Exception {
+		stubGoogleServer = new StubGoogleServer();
+		long now = System.currentTimeMillis() / 1000;
+		stubGoogleServer.setTokenInfo(200, TestIdTokens.claims("https://accounts.google.com", clientId, now, now + 3600));
+		ReflectionTestUtils.setField(tokenVerifier, "verifyUrl", stubGoogleServer.getTokenInfoUrl());
+		// learn the latency of tokeninfo, without hedges that could reach the stub after a test has started
+		ReflectionTestUtils.setField(tokenInfoHedging, "maxRate", 0.0);
+		ReflectionTestUtils.setField(tokenInfoHedging, "budget", 0.0);
+		for (int i = 0; i < 5; i++) {
+			tokenVerifier.verify(nextHeader());
+		}
+		ReflectionTestUtils.setField(tokenInfoHedging, "maxRate", 1.0);
+		assertThat(metric("token.verify.hedging.delay"), allOf(greaterThanOrEqualTo(50L), lessThan(500L)));
+	}
+
+	@After
+	public void tearDown() {
+		ReflectionTestUtils.setField(tokenInfoHedging, "maxRate", 1.0);
+		stubGoogleServer.stop();
+	}
+
+	private static String nextHeader() {
+		return "Bearer opaque-token-" + TOKENS.incrementAndGet();
+	}
+
+	private long metric(String name) {
+		return tokenInfoHedging.metrics().stream().filter(metric -> metric.getName().equals(name))
+				.map(Metric::getValue).findFirst().get().longValue();
+	}
+
+	@Test
+	public void slowCallIsHedged() {
+		long fired = metric("token.verify.hedging.fired");
+		long won = metric("token.verify.hedging.won");
+		int calls = stubGoogleServer.getTokenInfoCalls();
+		stubGoogleServer.addTokenInfoDelaysMillis(2000L);
+		long start = System.nanoTime();
+		assertTrue(tokenVerifier.verify(nextHeader()));
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(1000L));
+		assertThat(metric("token.verify.hedging.fired"), equalTo(fired + 1));
+		assertThat(metric("token.verify.hedging.won"), equalTo(won + 1));
+		assertThat(stubGoogleServer.getTokenInfoCalls(), equalTo(calls + 2));
+	}
+
+	@Test
+	public void slowAsyncCallIsHedged() throws Exception {
+		long won = metric("token.verify.hedging.won");
+		stubGoogleServer.addTokenInfoDelaysMillis(2000L);
+		long start = System.nanoTime();
+		assertTrue(tokenVerifier.verifyAsync(nextHeader()).get());
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(1000L));
+		assertThat(metric("token.verify.hedging.won"), equalTo(won + 1));
+	}
+
+	@Test
+	public void hedgesAreLimitedByTheBudget() {
+		ReflectionTestUtils.setField(tokenInfoHedging, "maxRate", 0.0);
+		ReflectionTestUtils.setField(tokenInfoHedging, "budget", 0.0);
+		long denied = metric("token.verify.hedging.denied");
+		int calls = stubGoogleServer.getTokenInfoCalls();
+		stubGoogleServer.addTokenInfoDelaysMillis(600L);
+		long start = System.nanoTime();
+		assertTrue(tokenVerifier.verify(nextHeader()));
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(600L));
+		assertThat(metric("token.verify.hedging.denied"), equalTo(denied + 1));
+		assertThat(stubGoogleServer.getTokenInfoCalls(), equalTo(calls + 1));
+	}
+}
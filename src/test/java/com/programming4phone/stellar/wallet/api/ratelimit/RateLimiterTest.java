@@ -0,0 +1,160 @@
+package com.programming4phone.stellar.wallet.api.ratelimit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.dao.KeyDao;
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.error.InvalidKeyException;
+import com.programming4phone.stellar.wallet.api.error.RateLimitedException;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"wallet.rate-limit.enabled=true",
+		"wallet.rate-limit.client.capacity=3",
+		"wallet.rate-limit.client.per-second=0.01",
+		"wallet.rate-limit.subject.capacity=5",
+		"wallet.rate-limit.subject.per-second=0.01" })
+public class RateLimiterTest {
+
+	private static final String SHARED_SUBJECT = "ratelimittest-shared";
+
+	@Autowired
+	private RateLimiter rateLimiter;
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@After
+	public void tearDown() {
+		ReflectionTestUtils.setField(rateLimiter, "shared", false);
+		stringRedisTemplate.delete("wallet:rate:subject:" + SHARED_SUBJECT);
+	}
+
+	private void assertRejectedAfter(int allowed, Runnable acquire) {
+		for (int i = 0; i < allowed; i++) {
+			acquire.run();
+		}
+		try {
+			acquire.run();
+			fail("Request over the limit was admitted");
+		}
+		catch(RateLimitedException e) {
+			// 1 token at 0.01 tokens per second
+			assertThat(e.getRetryAfterSeconds(), allOf(greaterThan(90L), lessThanOrEqualTo(100L)));
+		}
+	}
+
+	@Test
+	public void clientOverTheLimitIsRejectedBeforeVerification() {
+		for (int i = 0; i < 3; i++) {
+			// no Authorization header, so the request is admitted and then rejected by the web service
+			assertThat(restTemplate.getForEntity("/wallet/key/{accountNumber}", String.class, "account").getStatusCode(),
+					equalTo(HttpStatus.BAD_REQUEST));
+		}
+		ResponseEntity<String> response = restTemplate.getForEntity("/wallet/key/{accountNumber}", String.class, "account");
+		assertThat(response.getStatusCode(), equalTo(HttpStatus.TOO_MANY_REQUESTS));
+		assertThat(Long.valueOf(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)), greaterThan(90L));
+	}
+
+	@Test
+	public void subjectOverTheLimitIsRejected() {
+		assertRejectedAfter(5, () -> rateLimiter.acquireSubject("ratelimittest-local"));
+		rateLimiter.acquireSubject("ratelimittest-other");
+	}
+
+	@Test
+	public void concurrentFirstRequestsShareOneBucket() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger allowed = new AtomicInteger();
+		for (int i = 0; i < 16; i++) {
+			executor.execute(() -> {
+				try {
+					start.await();
+					rateLimiter.acquireSubject("ratelimittest-concurrent");
+					allowed.incrementAndGet();
+				}
+				catch(InterruptedException | RateLimitedException e) {
+					// rejected
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(5, allowed.get());
+	}
+
+	@Test
+	public void sharedBucketIsKeptInRedis() {
+		ReflectionTestUtils.setField(rateLimiter, "shared", true);
+		assertRejectedAfter(5, () -> rateLimiter.acquireSubject(SHARED_SUBJECT));
+		assertThat(Double.valueOf((String) stringRedisTemplate.opsForHash()
+				.get("wallet:rate:subject:" + SHARED_SUBJECT, "tokens")), lessThan(1.0));
+	}
+
+	@Test
+	public void sharedBucketCannotBeResetThroughTheKeys() {
+		ReflectionTestUtils.setField(rateLimiter, "shared", true);
+		assertRejectedAfter(5, () -> rateLimiter.acquireSubject(SHARED_SUBJECT));
+		String bucket = "wallet:rate:subject:" + SHARED_SUBJECT;
+		assertInvalid(() -> keyDao.removeAccount(bucket));
+		assertInvalid(() -> keyDao.saveAccount(new WalletKeys().setAccountNumber(bucket).setSecretSeed("S")));
+		assertInvalid(() -> keyDao.getSecretSeed(bucket));
+		assertEquals(400, keyDao.removeAccounts(Collections.singletonList(bucket)).get(0).getStatus());
+		assertEquals(400, keyDao.saveAccounts(Collections.singletonList(
+				new WalletKeys().setAccountNumber(bucket).setSecretSeed("S"))).get(0).getStatus());
+		assertRejectedAfter(0, () -> rateLimiter.acquireSubject(SHARED_SUBJECT));
+
+		List<String> accountNumbers = new ArrayList<>();
+		keyStore.scan(1000, accountNumbers::addAll);
+		assertThat(accountNumbers, not(hasItem(bucket)));
+	}
+
+	private void assertInvalid(Runnable call) {
+		try {
+			call.run();
+			fail("InvalidKeyException expected");
+		}
+		catch(InvalidKeyException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.programming4phone.stellar.wallet.api.reencrypt;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.aes.AES;
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"wallet.reencrypt.match=reencrypttest-*",
+		"wallet.reencrypt.scan-count=2",
+		"wallet.reencrypt.checkpoint-file=target/reencrypttest.checkpoint" })
+public class SeedReEncryptorTest {
+
+	private static final String ACCOUNT_PREFIX = "reencrypttest-";
+	private static final String SECRET_SEED = "SBKYUD4DRNFUVCYEBWCTTZOMV5P3OT7EXZUVYMHOSLQZQGLWLRT6YPA6";
+	private static final char[] OLD_PASSWORD = "old pass phrase".toCharArray();
+	private static final char[] NEW_PASSWORD = "new pass phrase".toCharArray();
+
+	@Autowired
+	private SeedReEncryptor seedReEncryptor;
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@After
+	public void tearDown() {
+		stringRedisTemplate.delete(stringRedisTemplate.keys(ACCOUNT_PREFIX + "*"));
+	}
+
+	private static String encrypt(char[] password, String secretSeed) throws Exception {
+		return Base64.encodeBase64String(AES.encrypt(128, password, secretSeed.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String decrypt(char[] password, String value) throws Exception {
+		return new String(AES.decrypt(password, Base64.decodeBase64(value)), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void seedsAreReEncryptedOnce() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			stringRedisTemplate.opsForValue().set(ACCOUNT_PREFIX + i, encrypt(OLD_PASSWORD, SECRET_SEED + i));
+		}
+		String otherPassphrase = encrypt("other pass phrase".toCharArray(), SECRET_SEED);
+		stringRedisTemplate.opsForValue().set(ACCOUNT_PREFIX + "other", otherPassphrase);
+		stringRedisTemplate.opsForValue().set(ACCOUNT_PREFIX + "garbage", "not a seed");
+
+		long skipped = seedReEncryptor.getSkipped();
+		assertThat(seedReEncryptor.reEncrypt(OLD_PASSWORD, NEW_PASSWORD, 256), equalTo(5L));
+		assertThat(seedReEncryptor.getSkipped(), equalTo(skipped + 2));
+		for (int i = 0; i < 5; i++) {
+			String value = stringRedisTemplate.opsForValue().get(ACCOUNT_PREFIX + i);
+			assertThat(Base64.decodeBase64(value)[0], equalTo((byte) 32));
+			assertThat(decrypt(NEW_PASSWORD, value), equalTo(SECRET_SEED + i));
+		}
+		assertThat(stringRedisTemplate.opsForValue().get(ACCOUNT_PREFIX + "other"), equalTo(otherPassphrase));
+		assertThat(stringRedisTemplate.opsForValue().get(ACCOUNT_PREFIX + "garbage"), equalTo("not a seed"));
+		assertFalse(Files.exists(Paths.get("target/reencrypttest.checkpoint")));
+
+		// already re-encrypted seeds are not skipped
+		assertThat(seedReEncryptor.reEncrypt(OLD_PASSWORD, NEW_PASSWORD, 256), equalTo(0L));
+		assertThat(seedReEncryptor.getSkipped(), equalTo(skipped + 4));
+	}
+
+	@Test
+	public void compareAndSetKeepsConcurrentChanges() {
+		stringRedisTemplate.opsForValue().set(ACCOUNT_PREFIX + "cas", "changed");
+		assertThat(keyStore.multiReplace(Arrays.asList(ACCOUNT_PREFIX + "cas", ACCOUNT_PREFIX + "missing"),
+				Arrays.asList("read", "read"), Arrays.asList("re-encrypted", "re-encrypted")), contains(false, false));
+		assertThat(stringRedisTemplate.opsForValue().get(ACCOUNT_PREFIX + "cas"), equalTo("changed"));
+		assertThat(stringRedisTemplate.opsForValue().get(ACCOUNT_PREFIX + "missing"), nullValue());
+		assertThat(keyStore.multiReplace(Arrays.asList(ACCOUNT_PREFIX + "cas"), Arrays.asList("changed"),
+				Arrays.asList("re-encrypted")), contains(true));
+		assertThat(stringRedisTemplate.opsForValue().get(ACCOUNT_PREFIX + "cas"), equalTo("re-encrypted"));
+	}
+}
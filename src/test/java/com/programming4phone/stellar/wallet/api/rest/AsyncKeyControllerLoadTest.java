@@ -0,0 +1,161 @@
+package com.programming4phone.stellar.wallet.api.rest;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.LocalServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.programming4phone.stellar.wallet.api.LoadTest;
+import com.programming4phone.stellar.wallet.api.dao.KeyDao;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.idtoken.StubGoogleServer;
+import com.programming4phone.stellar.wallet.api.idtoken.TestIdTokens;
+import com.programming4phone.stellar.wallet.api.idtoken.TokenVerifier;
+
+/**
+ * Load test comparing the blocking and the asynchronous GET web service. Every request carries a new token,
+ * which is verified by a local stub of the tokeninfo endpoint answering after one second. The server is limited to
+ * 20 request threads. Requires a Redis instance running on localhost. Takes about 15 seconds, so it only runs with
+ * <code>mvn -Pload-test test</code>.
+ */
+@RunWith(SpringRunner.class)
+@Category(LoadTest.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+		"server.tomcat.max-threads=20",
+		"http.client.max-total=500",
+		"http.client.max-per-route=500",
+		"token.local-verification=false" })
+public class AsyncKeyControllerLoadTest {
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private static final int REQUESTS = 100;
+	private static final String ACCOUNT_NUMBER = "asyncloadtest-account";
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private TokenVerifier tokenVerifier;
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Value("${client.id}")
+	private String clientId;
+
+	private StubGoogleServer stubGoogleServer;
+	private ExecutorService clients;
+	private final AtomicInteger tokens = new AtomicInteger();
+
+	@Before
+	public void setUp() throws Exception {
+		stubGoogleServer = new StubGoogleServer();
+		long now = System.currentTimeMillis() / 1000;
+		stubGoogleServer.setTokenInfo(200, TestIdTokens.claims("https://accounts.google.com", clientId, now, now + 3600));
+		stubGoogleServer.setTokenInfoDelayMillis(1000);
+		ReflectionTestUtils.setField(tokenVerifier, "verifyUrl", stubGoogleServer.getTokenInfoUrl());
+		keyDao.saveAccount(new WalletKeys().setAccountNumber(ACCOUNT_NUMBER).setSecretSeed("encrypted seed"));
+		clients = Executors.newFixedThreadPool(REQUESTS);
+	}
+
+	@After
+	public void tearDown() {
+		keyDao.removeAccount(ACCOUNT_NUMBER);
+		clients.shutdownNow();
+		stubGoogleServer.stop();
+	}
+
+	private int get(String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		connection.setRequestProperty("Authorization", "Bearer load-test-token-" + tokens.incrementAndGet() + "-" + System.nanoTime());
+		int status = connection.getResponseCode();
+		try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+			while (body != null && body.read() >= 0) {
+				// drain the response so that the connection can be reused
+			}
+		}
+		return status;
+	}
+
+	/**
+	 * Count the request threads that are blocked reading from a socket, i.e. waiting for the tokeninfo endpoint.
+	 */
+	private static int blockedRequestThreads() {
+		int blocked = 0;
+		for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+			String name = thread.getKey().getName();
+			StackTraceElement[] stack = thread.getValue();
+			if (name.startsWith("http-nio-") && name.contains("-exec-")
+					&& stack.length > 0 && stack[0].getMethodName().equals("socketRead0")) {
+				blocked++;
+			}
+		}
+		return blocked;
+	}
+
+	/**
+	 * @return elapsed milliseconds and peak number of request threads blocked on I/O
+	 */
+	private long[] load(String path) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < REQUESTS; i++) {
+			Callable<Integer> request = () -> {
+				start.await();
+				return get(path);
+			};
+			results.add(clients.submit(request));
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		int peakBlockedThreads = 0;
+		for (Future<Integer> result : results) {
+			while (!result.isDone()) {
+				peakBlockedThreads = Math.max(peakBlockedThreads, blockedRequestThreads());
+				Thread.sleep(5);
+			}
+			assertThat(result.get(), equalTo(200));
+		}
+		return new long[] { (System.nanoTime() - begin) / 1000000, peakBlockedThreads };
+	}
+
+	@Test
+	public void asyncServesMoreRequestsWithFewerThreads() throws Exception {
+		long[] blocking = load("/wallet/key/" + ACCOUNT_NUMBER);
+		long[] async = load("/wallet/async/key/" + ACCOUNT_NUMBER);
+		logger.info("blocking: " + REQUESTS + " requests in " + blocking[0] + " ms (" + (REQUESTS * 1000 / blocking[0])
+				+ " req/s), peak request threads blocked on I/O: " + blocking[1]);
+		logger.info("async:    " + REQUESTS + " requests in " + async[0] + " ms (" + (REQUESTS * 1000 / async[0])
+				+ " req/s), peak request threads blocked on I/O: " + async[1]);
+		assertThat(async[0] * 2, lessThan(blocking[0]));
+		assertThat(async[1], equalTo(0L));
+	}
+}
@@ -3,10 +3,13 @@ package com.programming4phone.stellar.wallet.api.rest;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 import static org.mockito.BDDMockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -24,17 +27,24 @@ import com.programming4phone.stellar.wallet.api.aes.AES.InvalidKeyLengthExceptio
 import com.programming4phone.stellar.wallet.api.aes.AES.InvalidPasswordException;
 import com.programming4phone.stellar.wallet.api.aes.AES.StrongEncryptionNotAvailableException;
 import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeysResult;
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
 import com.programming4phone.stellar.wallet.api.idtoken.TokenVerifier;
 
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
@@ -49,6 +59,10 @@ public class ControllerTest {
 	
 	private static final String BASE_URL = "/wallet/key";
 	private static final String DELETE_URL = BASE_URL + "/delete/{accountNumber}";
+	private static final String BATCH_URL = BASE_URL + "/batch";
+	private static final String BATCH_DELETE_URL = BASE_URL + "/delete";
+	private static final String ASYNC_URL = "/wallet/async/key";
+	private static final ParameterizedTypeReference<List<WalletKeysResult>> RESULTS = new ParameterizedTypeReference<List<WalletKeysResult>>() {};
 	
 	private static final String AUTH_HEADER = "Bearer eyJhbGciOiJSUzI1NiIsImtpZCI6ImJhNGRlZDdmNWE5MjQyOWYyMzM1NjFhMzZmZjYxM2VkMzg3NjJjM2QifQ.eyJhenAiOiIxNDg2NDY2MzA3NjktYjIyZW5pNTA5OHVnM2h0YWF0MTNoaDE0aTN1YnM3cjAuYXBwcy5nb29nbGV1c2VyY29udGVudC5jb20iLCJhdWQiOiIxNDg2NDY2MzA3NjktYjIyZW5pNTA5OHVnM2h0YWF0MTNoaDE0aTN1YnM3cjAuYXBwcy5nb29nbGV1c2VyY29udGVudC5jb20iLCJzdWIiOiIxMTExMTMxNjIyMTkwMTI4ODIxOTUiLCJlbWFpbCI6ImphbTNzOGVsbEBnbWFpbC5jb20iLCJlbWFpbF92ZXJpZmllZCI6dHJ1ZSwiYXRfaGFzaCI6InVBZm51VHJWSm1ITHZyVjlETGhoNlEiLCJleHAiOjE1MTc5NDkwNjUsImlzcyI6ImFjY291bnRzLmdvb2dsZS5jb20iLCJqdGkiOiJhNDdkMDE5OWViNGVhMzRiOTc2OWFlYmE5MzNiNjhhZjExNDc2OTJlIiwiaWF0IjoxNTE3OTQ1NDY1LCJuYW1lIjoiSmFtZXMgQmVsbCIsInBpY3R1cmUiOiJodHRwczovL2xoNC5nb29nbGV1c2VyY29udGVudC5jb20vLUNyWTFkQUZ0RVdFL0FBQUFBQUFBQUFJL0FBQUFBQUFBQUh3L0V6Q3BOVlVTTlJBL3M5Ni1jL3Bob3RvLmpwZyIsImdpdmVuX25hbWUiOiJKYW1lcyIsImZhbWlseV9uYW1lIjoiQmVsbCIsImxvY2FsZSI6ImVuIn0.ho-vTSCV14VMGenuMS58CjMdWxTJ65i-0bD8hEMlhwOXD4_pFc29fIOXQtM15eJUf7Nb-gHq4jncFLWLEgh26NYREOa9-1xt6u2A2zKD788ArstPay0hngwL9IGeuQ8Xw9n5hiStWxaOpVVeB_5Aw_oyDEgRF3eaWqOa0Rflgk6fBmHi6rptNCWQPD-MqS1EGB1WKWy4gULyfuYEP4Im5cSl2rZE2nmem7BfFfCYiSpOKgPE3xT81ti_j7fp73wYlWCSBkLFHrFMqNc58K5jnkq0i3Bvt02hxCfermO6x8ytAw2K4onjX3XX5hPusJnoxm0SCEkNkBb02mN_jsq4aA";
 	
@@ -57,31 +71,27 @@ public class ControllerTest {
 	
 	@Autowired
 	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private WebApplicationContext webApplicationContext;
 	
 	private String encrypt(String passphrase, String secretSeed) {
-		ByteArrayInputStream inputStream = new ByteArrayInputStream(secretSeed.getBytes());
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
 		try {
-			AES.encrypt(128, passphrase.toCharArray(), inputStream, output);
-		} catch (InvalidKeyLengthException | StrongEncryptionNotAvailableException | IOException e) {
+			return Base64.encodeBase64String(AES.encrypt(128, passphrase.toCharArray(), secretSeed.getBytes()));
+		} catch (InvalidKeyLengthException | StrongEncryptionNotAvailableException e) {
 			logger.error("Unable to encrypt secret seed", e);
 			fail("Unable to encrypt secret seed");
+			return null;
 		}
-		byte[] encryptedBytes = output.toByteArray();
-		return Base64.encodeBase64String(encryptedBytes);
 	}
 	
 	private String decrypt(String passphrase, String cipherText) {
-		byte[] decodedBytes = Base64.decodeBase64(cipherText.getBytes());
-		ByteArrayInputStream inputStream = new ByteArrayInputStream(decodedBytes);
-		ByteArrayOutputStream output = new ByteArrayOutputStream();
 		try {
-			AES.decrypt(passphrase.toCharArray(), inputStream, output);
-		} catch (InvalidPasswordException | InvalidAESStreamException | IOException
-				| StrongEncryptionNotAvailableException e) {
+			return new String(AES.decrypt(passphrase.toCharArray(), Base64.decodeBase64(cipherText.getBytes())));
+		} catch (InvalidPasswordException | InvalidAESStreamException | StrongEncryptionNotAvailableException e) {
 			fail("Unable to decrypt secret seed");
+			return null;
 		}
-		return new String(output.toByteArray());
 	}
 	
 	@Test
@@ -136,4 +146,131 @@ public class ControllerTest {
 		voidResponseEntity = restTemplate.exchange(BASE_URL, HttpMethod.PUT, requestUpdate, Void.class);
 		assertThat(voidResponseEntity.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
 	}
+	
+	@Test
+	public void batchTest() {
+		
+		given(this.tokenVerifier.verify(AUTH_HEADER)).willReturn(true);
+		
+		String accountNumber1 = DigestUtils.sha256Hex(TEST_ACCOUNT_ID_1 + "-batch-1");
+		String accountNumber2 = DigestUtils.sha256Hex(TEST_ACCOUNT_ID_1 + "-batch-2");
+		String missingAccountNumber = DigestUtils.sha256Hex(TEST_ACCOUNT_ID_1 + "-batch-missing");
+		String encryptedSecretSeed = encrypt(PASS_PHRASE, SECRET_SEED_1);
+		List<String> accountNumbers = Arrays.asList(accountNumber1, accountNumber2, missingAccountNumber);
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.set("Authorization", AUTH_HEADER);
+		ResponseEntity<List<WalletKeysResult>> responseEntity;
+		
+		List<WalletKeys> walletKeys = Arrays.asList(
+				new WalletKeys().setAccountNumber(accountNumber1).setSecretSeed(encryptedSecretSeed),
+				new WalletKeys().setAccountNumber(accountNumber2).setSecretSeed(encryptedSecretSeed),
+				new WalletKeys().setAccountNumber(missingAccountNumber).setSecretSeed(null));
+		responseEntity = restTemplate.exchange(BATCH_URL, HttpMethod.PUT, new HttpEntity<>(walletKeys, headers), RESULTS);
+		assertThat(responseEntity.getStatusCode(), equalTo(HttpStatus.OK));
+		assertThat(statuses(responseEntity.getBody()), contains(201, 201, 400));
+		
+		responseEntity = restTemplate.exchange(BATCH_URL, HttpMethod.POST, new HttpEntity<>(accountNumbers, headers), RESULTS);
+		assertThat(responseEntity.getStatusCode(), equalTo(HttpStatus.OK));
+		assertThat(statuses(responseEntity.getBody()), contains(200, 200, 404));
+		assertThat(responseEntity.getBody().get(1).getAccountNumber(), equalTo(accountNumber2));
+		assertThat(decrypt(PASS_PHRASE, responseEntity.getBody().get(1).getSecretSeed()), equalTo(SECRET_SEED_1));
+		assertThat(responseEntity.getBody().get(2).getSecretSeed(), nullValue());
+		
+		responseEntity = restTemplate.exchange(BATCH_DELETE_URL, HttpMethod.POST, new HttpEntity<>(accountNumbers, headers), RESULTS);
+		assertThat(statuses(responseEntity.getBody()), contains(200, 200, 404));
+		
+		responseEntity = restTemplate.exchange(BATCH_URL, HttpMethod.POST, new HttpEntity<>(accountNumbers, headers), RESULTS);
+		assertThat(statuses(responseEntity.getBody()), contains(404, 404, 404));
+		
+		then(this.tokenVerifier).should(times(4)).verify(AUTH_HEADER);
+	}
+	
+	@Test
+	public void asyncKeysTest() {
+		
+		given(this.tokenVerifier.verifyAsync(AUTH_HEADER)).willAnswer(invocation -> CompletableFuture.completedFuture(true));
+		
+		String hashedAccountNumber = DigestUtils.sha256Hex(TEST_ACCOUNT_ID_1 + "-async");
+		String encryptedSecretSeed = encrypt(PASS_PHRASE, SECRET_SEED_1);
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.set("Authorization", AUTH_HEADER);
+		HttpEntity<?> requestGet = new HttpEntity<>(headers);
+		ResponseEntity<Void> voidResponseEntity;
+		ResponseEntity<WalletKeys> responseEntity;
+		
+		WalletKeys createAccountKeys = new WalletKeys().setAccountNumber(hashedAccountNumber).setSecretSeed(encryptedSecretSeed);
+		voidResponseEntity = restTemplate.exchange(ASYNC_URL, HttpMethod.PUT, new HttpEntity<>(createAccountKeys, headers), Void.class);
+		assertThat(voidResponseEntity.getStatusCode(), equalTo(HttpStatus.CREATED));
+		
+		responseEntity = restTemplate.exchange(ASYNC_URL + "/" + hashedAccountNumber, HttpMethod.GET, requestGet, WalletKeys.class);
+		assertThat(responseEntity.getStatusCode(), equalTo(HttpStatus.OK));
+		assertThat(decrypt(PASS_PHRASE, responseEntity.getBody().getSecretSeed()), equalTo(SECRET_SEED_1));
+		
+		voidResponseEntity = restTemplate.exchange(ASYNC_URL + "/delete/{accountNumber}", HttpMethod.DELETE, requestGet, Void.class, hashedAccountNumber);
+		assertThat(voidResponseEntity.getStatusCode(), equalTo(HttpStatus.OK));
+		
+		responseEntity = restTemplate.exchange(ASYNC_URL + "/" + hashedAccountNumber, HttpMethod.GET, requestGet, WalletKeys.class);
+		assertThat(responseEntity.getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+		
+		createAccountKeys = new WalletKeys().setAccountNumber(hashedAccountNumber).setSecretSeed(null);
+		voidResponseEntity = restTemplate.exchange(ASYNC_URL, HttpMethod.PUT, new HttpEntity<>(createAccountKeys, headers), Void.class);
+		assertThat(voidResponseEntity.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+		
+		CompletableFuture<Boolean> notVerified = new CompletableFuture<>();
+		notVerified.completeExceptionally(new TokenVerificationException());
+		given(this.tokenVerifier.verifyAsync(AUTH_HEADER)).willReturn(notVerified);
+		responseEntity = restTemplate.exchange(ASYNC_URL + "/" + hashedAccountNumber, HttpMethod.GET, requestGet, WalletKeys.class);
+		assertThat(responseEntity.getStatusCode(), equalTo(HttpStatus.UNAUTHORIZED));
+	}
+	
+	@Test
+	public void metricsTest() {
+		
+		given(this.tokenVerifier.verify(AUTH_HEADER)).willReturn(true);
+		
+		String hashedAccountNumber = DigestUtils.sha256Hex(TEST_ACCOUNT_ID_1 + "-metrics");
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_JSON);
+		headers.set("Authorization", AUTH_HEADER);
+		
+		WalletKeys createAccountKeys = new WalletKeys().setAccountNumber(hashedAccountNumber).setSecretSeed(encrypt(PASS_PHRASE, SECRET_SEED_1));
+		restTemplate.exchange(BASE_URL, HttpMethod.PUT, new HttpEntity<>(createAccountKeys, headers), Void.class);
+		restTemplate.exchange(BASE_URL + "/" + hashedAccountNumber, HttpMethod.GET, new HttpEntity<>(headers), WalletKeys.class);
+		restTemplate.exchange(DELETE_URL, HttpMethod.DELETE, new HttpEntity<>(headers), Void.class, hashedAccountNumber);
+		ResponseEntity<WalletKeys> responseEntity = restTemplate.exchange(BASE_URL + "/" + hashedAccountNumber, HttpMethod.GET, new HttpEntity<>(headers), WalletKeys.class);
+		assertThat(responseEntity.getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+		
+		String metrics = restTemplate.getForObject("/prometheus", String.class);
+		String getTags = "method=\"GET\",stage=\"%s\",uri=\"/wallet/key/{accountNumber}\"";
+		assertThat(metrics, containsString("wallet_key_stage_seconds_bucket{" + String.format(getTags, "token") + ",le="));
+		assertThat(metrics, containsString("wallet_key_stage_seconds_count{" + String.format(getTags, "redis") + ",}"));
+		assertThat(metrics, containsString("wallet_key_stage_seconds_count{" + String.format(getTags, "serialization") + ",}"));
+		assertThat(metrics, containsString("wallet_key_stage_seconds_count{method=\"PUT\",stage=\"deserialization\",uri=\"/wallet/key\",}"));
+		assertThat(metrics, containsString("wallet_key_client_errors_total{method=\"GET\",status=\"404\",uri=\"/wallet/key/{accountNumber}\",}"));
+		assertThat(metrics, containsString("http_server_requests_seconds_bucket{"));
+	}
+	
+	/**
+	 * The request thread returns as soon as the token verification has started, before it completes.
+	 */
+	@Test
+	public void asyncRequestDoesNotHoldTheRequestThread() throws Exception {
+		CompletableFuture<Boolean> verification = new CompletableFuture<>();
+		given(this.tokenVerifier.verifyAsync(AUTH_HEADER)).willReturn(verification);
+		MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(webApplicationContext).build();
+		String hashedAccountNumber = DigestUtils.sha256Hex(TEST_ACCOUNT_ID_1 + "-pending");
+
+		MvcResult result = mockMvc.perform(get(ASYNC_URL + "/" + hashedAccountNumber).header("Authorization", AUTH_HEADER))
+				.andExpect(request().asyncStarted()).andReturn();
+		assertFalse(verification.isDone());
+
+		verification.complete(true);
+		mockMvc.perform(asyncDispatch(result)).andExpect(status().isNotFound());
+	}
+	
+	private static List<Integer> statuses(List<WalletKeysResult> results) {
+		return results.stream().map(WalletKeysResult::getStatus).collect(Collectors.toList());
+	}
 }
@@ -0,0 +1,99 @@
+package com.programming4phone.stellar.wallet.api.rest;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.*;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.error.KeyNotFoundException;
+import com.programming4phone.stellar.wallet.api.error.TokenVerificationException;
+import com.programming4phone.stellar.wallet.api.idtoken.TokenVerifier;
+
+/**
+ * Integration test, requires a Redis instance running on localhost.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "wallet.speculative-read.enabled=true")
+public class SpeculativeKeyReaderTest {
+
+	private static final String ACCOUNT_NUMBER = "speculativekeyreadertest-account";
+	private static final String GOOD_HEADER = "Bearer good";
+	private static final String BAD_HEADER = "Bearer bad";
+	private static final long VERIFY_MILLIS = 300;
+
+	@MockBean
+	private TokenVerifier tokenVerifier;
+
+	@Autowired
+	private SpeculativeKeyReader speculativeKeyReader;
+
+	@Autowired
+	private StringRedisTemplate stringRedisTemplate;
+
+	@After
+	public void tearDown() {
+		stringRedisTemplate.delete(ACCOUNT_NUMBER);
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : speculativeKeyReader.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		throw new AssertionError("metric not found: " + name);
+	}
+
+	@Test
+	public void readIsReleasedOnlyAfterVerification() {
+		given(tokenVerifier.verify(GOOD_HEADER)).willAnswer(invocation -> {
+			Thread.sleep(VERIFY_MILLIS);
+			return true;
+		});
+		given(tokenVerifier.verify(BAD_HEADER)).willAnswer(invocation -> {
+			Thread.sleep(VERIFY_MILLIS);
+			throw new TokenVerificationException();
+		});
+		stringRedisTemplate.opsForValue().set(ACCOUNT_NUMBER, "encrypted seed");
+		long started = metric("keys.speculative-read.started");
+		long discarded = metric("keys.speculative-read.discarded");
+
+		long begin = System.currentTimeMillis();
+		assertThat(speculativeKeyReader.getAccountKeys(GOOD_HEADER, ACCOUNT_NUMBER).getSecretSeed(), equalTo("encrypted seed"));
+		assertThat(System.currentTimeMillis() - begin, greaterThanOrEqualTo(VERIFY_MILLIS));
+
+		try {
+			speculativeKeyReader.getAccountKeys(BAD_HEADER, ACCOUNT_NUMBER);
+			fail("Secret seed released without a verified token");
+		} catch(TokenVerificationException e) {
+			assertNotNull(e);
+		}
+
+		// a missing key is only reported to verified callers
+		stringRedisTemplate.delete(ACCOUNT_NUMBER);
+		try {
+			speculativeKeyReader.getAccountKeys(BAD_HEADER, ACCOUNT_NUMBER);
+			fail("Missing key reported without a verified token");
+		} catch(TokenVerificationException e) {
+			assertNotNull(e);
+		}
+		try {
+			speculativeKeyReader.getAccountKeys(GOOD_HEADER, ACCOUNT_NUMBER);
+			fail("Removed account found");
+		} catch(KeyNotFoundException e) {
+			assertNotNull(e);
+		}
+
+		assertThat(metric("keys.speculative-read.started"), equalTo(started + 4));
+		assertThat(metric("keys.speculative-read.discarded"), equalTo(discarded + 2));
+	}
+}
@@ -0,0 +1,49 @@
+package com.programming4phone.stellar.wallet.api.shard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+	private static final int KEYS = 100000;
+
+	private static Map<String, String> nodes(int count) {
+		Map<String, String> nodes = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			nodes.put("10.0.0." + i + ":6379", "node" + i);
+		}
+		return nodes;
+	}
+
+	@Test
+	public void keysAreSpreadEvenly() {
+		ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(3), 160);
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			counts.merge(ring.get("account-" + i), 1, Integer::sum);
+		}
+		assertEquals(3, counts.size());
+		counts.values().forEach(count -> assertTrue(count.toString(), Math.abs(count - KEYS / 3) < KEYS / 3 * 0.15));
+	}
+
+	@Test
+	public void addedNodeOnlyTakesOverItsShare() {
+		ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes(3), 160);
+		ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes(4), 160);
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String owner = after.get("account-" + i);
+			if (!owner.equals(before.get("account-" + i))) {
+				assertEquals("node3", owner);
+				moved++;
+			}
+		}
+		assertTrue(Integer.toString(moved), Math.abs(moved - KEYS / 4) < KEYS / 4 * 0.15);
+	}
+}
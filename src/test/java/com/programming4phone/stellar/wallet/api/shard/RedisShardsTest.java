@@ -0,0 +1,154 @@
+package com.programming4phone.stellar.wallet.api.shard;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.programming4phone.stellar.wallet.api.dao.KeyDao;
+import com.programming4phone.stellar.wallet.api.dao.KeyStore;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeys;
+import com.programming4phone.stellar.wallet.api.entity.WalletKeysResult;
+import com.programming4phone.stellar.wallet.api.shard.RedisShards.Shard;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * Integration test, requires Redis instances running on localhost on ports 6381 and 6382,
+ * e.g. <code>redis-server --port 6381</code>. Skipped without them.
+ * <br/><br/>
+ * The shards are configured as if 6382 had just been added to 6381.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"wallet.redis.shards.nodes=127.0.0.1:6381,127.0.0.1:6382",
+		"wallet.redis.shards.previous-nodes=127.0.0.1:6381" })
+public class RedisShardsTest {
+
+	private static final String PREFIX = "shardtest-";
+
+	@Autowired
+	private KeyDao keyDao;
+
+	@Autowired
+	private KeyStore keyStore;
+
+	@Autowired
+	private RedisShards redisShards;
+
+	@Autowired
+	private ShardRebalancer shardRebalancer;
+
+	private final List<String> accountNumbers = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+		for (int port : new int[] { 6381, 6382 }) {
+			try (Jedis jedis = new Jedis("127.0.0.1", port)) {
+				jedis.ping();
+			}
+			catch (JedisConnectionException e) {
+				assumeNoException(e);
+			}
+		}
+		for (int i = 0; i < 50; i++) {
+			accountNumbers.add(PREFIX + i);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		accountNumbers.forEach(keyDao::removeAccount);
+	}
+
+	private static Jedis jedis(Shard shard) {
+		return new Jedis(shard.connectionFactory.getHostName(), shard.connectionFactory.getPort());
+	}
+
+	/**
+	 * Write the keys to 6381 only, as before 6382 was added.
+	 */
+	private void writeToPreviousShard() {
+		try (Jedis previous = new Jedis("127.0.0.1", 6381)) {
+			accountNumbers.forEach(accountNumber -> previous.set(accountNumber, "seed " + accountNumber));
+		}
+	}
+
+	@Test
+	public void keysAreStoredOnTheirOwner() {
+		accountNumbers.forEach(accountNumber ->
+				keyDao.saveAccount(new WalletKeys().setAccountNumber(accountNumber).setSecretSeed("seed " + accountNumber)));
+
+		for (String accountNumber : accountNumbers) {
+			try (Jedis owner = jedis(redisShards.owner(accountNumber))) {
+				assertThat(owner.get(accountNumber), equalTo("seed " + accountNumber));
+			}
+			assertThat(keyDao.getSecretSeed(accountNumber).getSecretSeed(), equalTo("seed " + accountNumber));
+		}
+		assertThat(accountNumbers.stream().map(redisShards::owner).distinct().count(), equalTo(2L));
+	}
+
+	@Test
+	public void keysNotYetMovedAreReadFromPreviousOwner() {
+		writeToPreviousShard();
+
+		List<WalletKeysResult> results = keyDao.getSecretSeeds(accountNumbers);
+		for (int i = 0; i < accountNumbers.size(); i++) {
+			assertThat(results.get(i).getSecretSeed(), equalTo("seed " + accountNumbers.get(i)));
+		}
+
+		List<WalletKeysResult> removed = keyDao.removeAccounts(accountNumbers);
+		assertThat(removed.stream().map(WalletKeysResult::getStatus).distinct().collect(Collectors.toList()),
+				equalTo(Arrays.asList(200)));
+		assertThat(redisShards.multiGet(accountNumbers), everyItem(nullValue(String.class)));
+	}
+
+	@Test
+	public void seedsAreScannedAndReplacedOnEveryShard() {
+		List<String> moved = accountNumbers.subList(0, 25);
+		List<String> notMoved = accountNumbers.subList(25, 50);
+		moved.forEach(accountNumber -> keyDao.saveAccount(new WalletKeys().setAccountNumber(accountNumber).setSecretSeed("seed " + accountNumber)));
+		try (Jedis previous = new Jedis("127.0.0.1", 6381)) {
+			notMoved.forEach(accountNumber -> previous.set(accountNumber, "seed " + accountNumber));
+		}
+		List<String> scanned = new ArrayList<>();
+		keyStore.scan(null, 10, (chunk, next) -> scanned.addAll(chunk));
+		assertThat(scanned, hasItems(accountNumbers.toArray(new String[0])));
+
+		List<String> expected = accountNumbers.stream().map(accountNumber -> "seed " + accountNumber).collect(Collectors.toList());
+		List<String> replaced = accountNumbers.stream().map(accountNumber -> "new seed " + accountNumber).collect(Collectors.toList());
+		assertThat(keyStore.multiReplace(accountNumbers, expected, replaced), everyItem(is(true)));
+		assertThat(keyStore.multiReplace(accountNumbers, expected, replaced), everyItem(is(false)));
+		assertThat(keyStore.multiGet(accountNumbers), equalTo(replaced));
+	}
+
+	@Test
+	public void rebalanceMovesKeysToTheirOwner() throws Exception {
+		writeToPreviousShard();
+
+		assertThat(shardRebalancer.rebalance(), equalTo(0L));
+
+		for (String accountNumber : accountNumbers) {
+			Shard owner = redisShards.owner(accountNumber);
+			try (Jedis ownerJedis = jedis(owner); Jedis previous = new Jedis("127.0.0.1", 6381)) {
+				assertThat(ownerJedis.get(accountNumber), equalTo("seed " + accountNumber));
+				if (owner.connectionFactory.getPort() != 6381) {
+					assertThat(previous.exists(accountNumber), is(false));
+				}
+			}
+		}
+	}
+}